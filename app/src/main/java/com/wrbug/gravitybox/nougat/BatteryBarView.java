@@ -26,12 +26,12 @@ import com.wrbug.gravitybox.nougat.ProgressBarController.Mode;
 import com.wrbug.gravitybox.nougat.ProgressBarController.ProgressInfo;
 import com.wrbug.gravitybox.nougat.managers.StatusBarIconManager;
 import com.wrbug.gravitybox.nougat.managers.SysUiManagers;
+import com.wrbug.gravitybox.nougat.managers.BatteryInfoManager;
 import com.wrbug.gravitybox.nougat.managers.BatteryInfoManager.BatteryData;
 import com.wrbug.gravitybox.nougat.managers.BatteryInfoManager.BatteryStatusListener;
 import com.wrbug.gravitybox.nougat.managers.StatusBarIconManager.ColorInfo;
 import com.wrbug.gravitybox.nougat.managers.StatusBarIconManager.IconManagerListener;
 
-import android.animation.ObjectAnimator;
 import android.content.Context;
 import android.content.Intent;
 import android.graphics.Color;
@@ -41,20 +41,26 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.view.ViewGroup.MarginLayoutParams;
 import android.view.animation.AccelerateInterpolator;
-import android.view.animation.Animation;
 import android.view.animation.DecelerateInterpolator;
+import android.view.animation.Interpolator;
 import android.widget.FrameLayout;
 import android.widget.RelativeLayout;
 
 public class BatteryBarView extends View implements IconManagerListener, 
-                                                    BroadcastSubReceiver,
+                                                    FilteredBroadcastSubReceiver,
                                                     BatteryStatusListener,
                                                     ProgressBarController.ProgressStateListener,
-                                                    StatusBarStateChangedListener {
+                                                    StatusBarStateChangedListener,
+                                                    FrameTicker.Callback {
     private static final String TAG = "GB:BatteryBarView";
     private static final boolean DEBUG = BuildConfig.DEBUG;
 
     private static final int ANIM_DURATION = 1500;
+    private static final long ANIM_DURATION_NS = ANIM_DURATION * 1000000L;
+
+    private static final int ANIM_NONE = 0;
+    private static final int ANIM_SCALE = 1;
+    private static final int ANIM_CHARGING = 2;
 
     private enum Position { TOP, BOTTOM };
 
@@ -71,11 +77,27 @@ public class BatteryBarView extends View implements IconManagerListener,
     private int mTintColor = Color.WHITE;
     private int mLevel;
     private boolean mCharging;
-    private ObjectAnimator mChargingAnimator;
     private boolean mHiddenByProgressBar;
     private boolean mCentered;
     private int mStatusBarState;
     private ContainerType mContainerType;
+    private boolean mScreenOn = true;
+
+    // animation state advanced by shared FrameTicker
+    private int mAnimMode = ANIM_NONE;
+    private float mAnimFrom;
+    private float mAnimTo;
+    private long mAnimStartNanos;
+    private final Interpolator mDecelerateInterpolator = new DecelerateInterpolator();
+    private final Interpolator mAccelerateInterpolator = new AccelerateInterpolator();
+    private boolean mUpdatePending;
+
+    // last applied geometry and color to skip redundant relayouts and redraws
+    private Position mAppliedPosition;
+    private int mAppliedMarginPx = -1;
+    private int mAppliedHeightPx = -1;
+    private int mAppliedColor;
+    private boolean mColorApplied;
 
     private static void log(String message) {
         XposedBridge.log(TAG + ": " + message);
@@ -116,12 +138,33 @@ public class BatteryBarView extends View implements IconManagerListener,
         if (mEnabled) {
             setListeners();
         }
+        resumeTicker();
     }
 
     @Override
     public void onDetachedFromWindow() {
         super.onDetachedFromWindow();
         unsetListeners();
+        FrameTicker.getInstance().stop(this);
+    }
+
+    @Override
+    protected void onVisibilityChanged(View changedView, int visibility) {
+        super.onVisibilityChanged(changedView, visibility);
+        resumeTicker();
+    }
+
+    @Override
+    protected void onWindowVisibilityChanged(int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+        resumeTicker();
+    }
+
+    @Override
+    public void onScreenStateChanged(int screenState) {
+        super.onScreenStateChanged(screenState);
+        mScreenOn = screenState == SCREEN_STATE_ON;
+        resumeTicker();
     }
 
     @Override
@@ -137,7 +180,7 @@ public class BatteryBarView extends View implements IconManagerListener,
             mCharging = batteryData.charging;
             if (DEBUG) log("onBatteryStatusChanged: level=" + mLevel +
                     "; charging=" + mCharging);
-            update();
+            scheduleUpdate();
         }
     }
 
@@ -146,7 +189,9 @@ public class BatteryBarView extends View implements IconManagerListener,
             SysUiManagers.IconManager.registerListener(this);
         }
         if (SysUiManagers.BatteryInfoManager != null) {
-            SysUiManagers.BatteryInfoManager.registerListener(this);
+            SysUiManagers.BatteryInfoManager.registerListener(this,
+                    BatteryInfoManager.FLAG_LEVEL_CHANGED |
+                    BatteryInfoManager.FLAG_CHARGING_CHANGED);
         }
     }
 
@@ -159,13 +204,22 @@ public class BatteryBarView extends View implements IconManagerListener,
         }
     }
 
+    // coalesces state changes arriving from separate callbacks into one update per frame
+    private void scheduleUpdate() {
+        if (!mUpdatePending) {
+            mUpdatePending = true;
+            FrameTicker.getInstance().start(this);
+        }
+    }
+
     private void update() {
+        mUpdatePending = false;
         if (mEnabled && !mHiddenByProgressBar && isValidStatusBarState()) {
             setVisibility(View.VISIBLE);
             if (mDynaColor) {
                 int cappedLevel = Math.min(Math.max(mLevel, 15), 90);
                 float hue = (cappedLevel - 15) * 1.6f;
-                setBackgroundColor(Color.HSVToColor(0xff, new float[]{ hue, 1.f, 1.f }));
+                applyColor(Color.HSVToColor(0xff, new float[]{ hue, 1.f, 1.f }));
             } else {
                 int color = (mColor == Color.WHITE ? mTintColor : mColor);
                 if (mCharging) {
@@ -175,16 +229,19 @@ public class BatteryBarView extends View implements IconManagerListener,
                 } else if (mLevel <= 15) {
                     color = mColorLow;
                 }
-                setBackgroundColor(color);
+                applyColor(color);
             }
             if (mAnimateCharge && mCharging && mLevel < 100) {
                 startAnimation();
             } else {
                 stopAnimation();
                 final float newScale = mLevel/100f;
-                if (Math.abs(getScaleX() - newScale) > 0.02f) {
+                if (mAnimMode == ANIM_SCALE && mAnimTo == newScale) {
+                    // already animating towards current level
+                } else if (Math.abs(getScaleX() - newScale) > 0.02f) {
                     animateScaleTo(newScale);
                 } else {
+                    mAnimMode = ANIM_NONE;
                     setScaleX(newScale);
                 }
             }
@@ -194,32 +251,106 @@ public class BatteryBarView extends View implements IconManagerListener,
         }
     }
 
+    private void applyColor(int color) {
+        if (!mColorApplied || mAppliedColor != color) {
+            setBackgroundColor(color);
+            mAppliedColor = color;
+            mColorApplied = true;
+        }
+    }
+
+    private boolean canAnimate() {
+        return mScreenOn && isAttachedToWindow() &&
+                getWindowVisibility() == View.VISIBLE && isShown();
+    }
+
+    private void resumeTicker() {
+        final FrameTicker ticker = FrameTicker.getInstance();
+        if (ticker.isRunning(this)) return;
+        if (mUpdatePending || (mAnimMode != ANIM_NONE && canAnimate())) {
+            if (mAnimMode == ANIM_SCALE) {
+                mAnimFrom = getScaleX();
+            }
+            mAnimStartNanos = 0;
+            ticker.start(this);
+        }
+    }
+
+    @Override
+    public boolean onFrame(long frameTimeNanos) {
+        if (mUpdatePending) {
+            update();
+        }
+        if (mAnimMode == ANIM_NONE) {
+            return false;
+        }
+        if (!canAnimate()) {
+            // halted while hidden or screen is off; resumed by resumeTicker()
+            if (mAnimMode == ANIM_SCALE) {
+                mAnimMode = ANIM_NONE;
+                setScaleX(mAnimTo);
+            }
+            return false;
+        }
+
+        if (mAnimStartNanos == 0) {
+            mAnimStartNanos = frameTimeNanos;
+        }
+        float fraction = (float) (frameTimeNanos - mAnimStartNanos) / ANIM_DURATION_NS;
+        if (mAnimMode == ANIM_SCALE) {
+            if (fraction >= 1f) {
+                mAnimMode = ANIM_NONE;
+                setScaleX(mAnimTo);
+                return false;
+            }
+            setScaleX(mAnimFrom + (mAnimTo - mAnimFrom) *
+                    mDecelerateInterpolator.getInterpolation(fraction));
+        } else {
+            // charging animation repeats from current level to full
+            fraction %= 1f;
+            setScaleX(mAnimFrom + (1f - mAnimFrom) *
+                    mAccelerateInterpolator.getInterpolation(fraction));
+        }
+        return true;
+    }
+
     private void animateScaleTo(float newScale) {
-        ObjectAnimator a = ObjectAnimator.ofFloat(this, "scaleX", getScaleX(), newScale);
-        a.setInterpolator(new DecelerateInterpolator());
-        a.setDuration(ANIM_DURATION);
-        a.setRepeatCount(0);
-        a.start();
-        if (DEBUG) log("Animating to current level");
+        mAnimMode = ANIM_SCALE;
+        mAnimFrom = getScaleX();
+        mAnimTo = newScale;
+        mAnimStartNanos = 0;
+        if (canAnimate()) {
+            FrameTicker.getInstance().start(this);
+            if (DEBUG) log("Animating to current level");
+        } else {
+            mAnimMode = ANIM_NONE;
+            setScaleX(newScale);
+        }
     }
 
     private void startAnimation() {
-        stopAnimation();
-        mChargingAnimator = ObjectAnimator.ofFloat(this, "scaleX", mLevel/100f, 1f);
-        mChargingAnimator.setInterpolator(new AccelerateInterpolator());
-        mChargingAnimator.setDuration(ANIM_DURATION);
-        mChargingAnimator.setRepeatCount(Animation.INFINITE);
-        mChargingAnimator.start();
+        mAnimFrom = mLevel/100f;
+        if (mAnimMode != ANIM_CHARGING) {
+            mAnimMode = ANIM_CHARGING;
+            mAnimStartNanos = 0;
+            if (canAnimate()) {
+                FrameTicker.getInstance().start(this);
+            }
+        }
     }
 
     private void stopAnimation() {
-        if (mChargingAnimator != null) {
-            mChargingAnimator.cancel();
-            mChargingAnimator = null;
+        if (mAnimMode == ANIM_CHARGING) {
+            mAnimMode = ANIM_NONE;
         }
     }
 
     private void updatePosition() {
+        if (mAppliedPosition == mPosition && mAppliedMarginPx == mMarginPx &&
+                mAppliedHeightPx == mHeightPx) {
+            return;
+        }
+
         MarginLayoutParams lp = null;
         if (mContainerType == ContainerType.STATUSBAR) {
             lp = new FrameLayout.LayoutParams(FrameLayout.LayoutParams.MATCH_PARENT,
@@ -242,6 +373,9 @@ public class BatteryBarView extends View implements IconManagerListener,
             lp.setMargins(0, mPosition == Position.TOP ? mMarginPx : 0,
                         0, mPosition == Position.BOTTOM ? mMarginPx : 0);
             setLayoutParams(lp);
+            mAppliedPosition = mPosition;
+            mAppliedMarginPx = mMarginPx;
+            mAppliedHeightPx = mHeightPx;
         }
     }
 
@@ -259,7 +393,7 @@ public class BatteryBarView extends View implements IconManagerListener,
         }
         if ((flags & StatusBarIconManager.FLAG_ICON_TINT_CHANGED) != 0) {
             mTintColor = colorInfo.iconTint;
-            update();
+            scheduleUpdate();
         }
     }
 
@@ -272,7 +406,7 @@ public class BatteryBarView extends View implements IconManagerListener,
     public void onProgressTrackingStopped() {
         if (mHiddenByProgressBar) {
             mHiddenByProgressBar = false;
-            update();
+            scheduleUpdate();
         }
     }
 
@@ -281,17 +415,24 @@ public class BatteryBarView extends View implements IconManagerListener,
         mHiddenByProgressBar = 
                 ((mode == Mode.TOP && mPosition == Position.TOP) ||
                  (mode == Mode.BOTTOM && mPosition == Position.BOTTOM));
-        update();
+        scheduleUpdate();
     }
 
     @Override
     public void onStatusBarStateChanged(int oldState, int newState) {
         if (mStatusBarState != newState) {
             mStatusBarState = newState;
-            update();
+            scheduleUpdate();
         }
     }
 
+    @Override
+    public String[] getBroadcastActions() {
+        return new String[] {
+                GravityBoxSettings.ACTION_PREF_BATTERY_BAR_CHANGED
+        };
+    }
+
     @Override
     public void onBroadcastReceived(Context context, Intent intent) {
         if (intent.getAction().equals(GravityBoxSettings.ACTION_PREF_BATTERY_BAR_CHANGED)) {
@@ -303,7 +444,7 @@ public class BatteryBarView extends View implements IconManagerListener,
                     unsetListeners();
                     setScaleX(0f);
                 }
-                update();
+                scheduleUpdate();
             }
             if (intent.hasExtra(GravityBoxSettings.EXTRA_BBAR_POSITION)) {
                 mPosition = Position.valueOf(intent.getStringExtra(
@@ -324,23 +465,23 @@ public class BatteryBarView extends View implements IconManagerListener,
             }
             if (intent.hasExtra(GravityBoxSettings.EXTRA_BBAR_DYNACOLOR)) {
                 mDynaColor = intent.getBooleanExtra(GravityBoxSettings.EXTRA_BBAR_DYNACOLOR, true);
-                update();
+                scheduleUpdate();
             }
             if (intent.hasExtra(GravityBoxSettings.EXTRA_BBAR_COLOR)) {
                 mColor = intent.getIntExtra(GravityBoxSettings.EXTRA_BBAR_COLOR, Color.WHITE);
-                update();
+                scheduleUpdate();
             }
             if (intent.hasExtra(GravityBoxSettings.EXTRA_BBAR_COLOR_LOW)) {
                 mColorLow = intent.getIntExtra(GravityBoxSettings.EXTRA_BBAR_COLOR_LOW, 0xffffa500);
-                update();
+                scheduleUpdate();
             }
             if (intent.hasExtra(GravityBoxSettings.EXTRA_BBAR_COLOR_CRITICAL)) {
                 mColorCritical = intent.getIntExtra(GravityBoxSettings.EXTRA_BBAR_COLOR_CRITICAL, Color.RED);
-                update();
+                scheduleUpdate();
             }
             if (intent.hasExtra(GravityBoxSettings.EXTRA_BBAR_CHARGE_ANIM)) {
                 mAnimateCharge = intent.getBooleanExtra(GravityBoxSettings.EXTRA_BBAR_CHARGE_ANIM, false);
-                update();
+                scheduleUpdate();
             }
             if (intent.hasExtra(GravityBoxSettings.EXTRA_BBAR_CENTERED)) {
                 mCentered = intent.getBooleanExtra(GravityBoxSettings.EXTRA_BBAR_CENTERED, false);
@@ -348,7 +489,7 @@ public class BatteryBarView extends View implements IconManagerListener,
             }
             if (intent.hasExtra(GravityBoxSettings.EXTRA_BBAR_COLOR_CHARGING)) {
                 mColorCharging = intent.getIntExtra(GravityBoxSettings.EXTRA_BBAR_COLOR_CHARGING, Color.GREEN);
-                update();
+                scheduleUpdate();
             }
         }
     }
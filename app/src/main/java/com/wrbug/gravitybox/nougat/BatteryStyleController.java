@@ -39,7 +39,7 @@ import de.robv.android.xposed.XSharedPreferences;
 import de.robv.android.xposed.XposedBridge;
 import de.robv.android.xposed.XposedHelpers;
 
-public class BatteryStyleController implements BroadcastSubReceiver {
+public class BatteryStyleController implements FilteredBroadcastSubReceiver {
     private static final String TAG = "GB:BatteryStyleController";
     public static final String PACKAGE_NAME = "com.android.systemui";
     public static final String CLASS_BATTERY_CONTROLLER =
@@ -330,6 +330,18 @@ public class BatteryStyleController implements BroadcastSubReceiver {
         return mContainerType;
     }
 
+    @Override
+    public String[] getBroadcastActions() {
+        return new String[] {
+                GravityBoxSettings.ACTION_PREF_BATTERY_STYLE_CHANGED,
+                GravityBoxSettings.ACTION_PREF_BATTERY_PERCENT_TEXT_CHANGED,
+                GravityBoxSettings.ACTION_PREF_BATTERY_PERCENT_TEXT_SIZE_CHANGED,
+                GravityBoxSettings.ACTION_PREF_BATTERY_PERCENT_TEXT_STYLE_CHANGED,
+                ACTION_MTK_BATTERY_PERCENTAGE_SWITCH,
+                GravityBoxSettings.ACTION_BATTERY_SAVER_CHANGED
+        };
+    }
+
     @Override
     public void onBroadcastReceived(Context context, Intent intent) {
         String action = intent.getAction();
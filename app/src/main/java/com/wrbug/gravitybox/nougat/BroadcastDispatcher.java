@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2017 Peter Gregus for GravityBox Project (C3C076@xda)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wrbug.gravitybox.nougat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.SystemClock;
+import android.util.ArrayMap;
+
+import de.robv.android.xposed.XposedBridge;
+
+/**
+ * Fans out broadcasts to sub-receivers using an action to receivers table.
+ * Receivers implementing {@link FilteredBroadcastSubReceiver} are invoked only for
+ * the actions they declare; plain {@link BroadcastSubReceiver}s receive everything.
+ * Registration order is preserved within each action. The table is rebuilt only
+ * when receivers are added or removed.
+ */
+public class BroadcastDispatcher {
+    private static final String TAG = "GB:BroadcastDispatcher";
+    private static final boolean DEBUG_TIMING = false;
+    private static final long SLOW_RECEIVER_NS = 1000000;
+    private static final BroadcastSubReceiver[] EMPTY = new BroadcastSubReceiver[0];
+
+    private final String mName;
+    private final List<BroadcastSubReceiver> mReceivers = new ArrayList<>();
+    private volatile ArrayMap<String, BroadcastSubReceiver[]> mActionTable = new ArrayMap<>();
+    private volatile BroadcastSubReceiver[] mCatchAll = EMPTY;
+
+    private static void log(String message) {
+        XposedBridge.log(TAG + ": " + message);
+    }
+
+    public BroadcastDispatcher(String name) {
+        mName = name;
+    }
+
+    public synchronized void add(BroadcastSubReceiver receiver) {
+        if (receiver == null) {
+            throw new IllegalArgumentException("add: receiver cannot be null");
+        }
+        if (!mReceivers.contains(receiver)) {
+            mReceivers.add(receiver);
+            rebuildTable();
+        }
+    }
+
+    public synchronized void remove(BroadcastSubReceiver receiver) {
+        if (mReceivers.remove(receiver)) {
+            rebuildTable();
+        }
+    }
+
+    public synchronized boolean contains(BroadcastSubReceiver receiver) {
+        return mReceivers.contains(receiver);
+    }
+
+    private void rebuildTable() {
+        // null entry means receiver handles all actions
+        final String[][] receiverActions = new String[mReceivers.size()][];
+        final List<String> actions = new ArrayList<>();
+        final List<BroadcastSubReceiver> catchAll = new ArrayList<>();
+        for (int i = 0; i < mReceivers.size(); i++) {
+            BroadcastSubReceiver receiver = mReceivers.get(i);
+            if (receiver instanceof FilteredBroadcastSubReceiver) {
+                receiverActions[i] = ((FilteredBroadcastSubReceiver) receiver).getBroadcastActions();
+                for (String action : receiverActions[i]) {
+                    if (!actions.contains(action)) {
+                        actions.add(action);
+                    }
+                }
+            } else {
+                catchAll.add(receiver);
+            }
+        }
+
+        ArrayMap<String, BroadcastSubReceiver[]> table = new ArrayMap<>(actions.size());
+        List<BroadcastSubReceiver> targets = new ArrayList<>();
+        for (String action : actions) {
+            targets.clear();
+            for (int i = 0; i < mReceivers.size(); i++) {
+                if (receiverActions[i] == null || contains(receiverActions[i], action)) {
+                    targets.add(mReceivers.get(i));
+                }
+            }
+            table.put(action, targets.toArray(new BroadcastSubReceiver[targets.size()]));
+        }
+
+        mActionTable = table;
+        mCatchAll = catchAll.toArray(new BroadcastSubReceiver[catchAll.size()]);
+    }
+
+    private static boolean contains(String[] actions, String action) {
+        for (String a : actions) {
+            if (a.equals(action)) return true;
+        }
+        return false;
+    }
+
+    public void dispatch(Context context, Intent intent) {
+        final String action = intent.getAction();
+        if (action == null) return;
+
+        BroadcastSubReceiver[] targets = mActionTable.get(action);
+        if (targets == null) {
+            targets = mCatchAll;
+        }
+        for (BroadcastSubReceiver receiver : targets) {
+            if (DEBUG_TIMING) {
+                final long start = SystemClock.elapsedRealtimeNanos();
+                receiver.onBroadcastReceived(context, intent);
+                final long took = SystemClock.elapsedRealtimeNanos() - start;
+                if (took > SLOW_RECEIVER_NS) {
+                    log(mName + ": " + receiver.getClass().getSimpleName() + " took " +
+                            (took / 1000) + "us for " + action);
+                }
+            } else {
+                receiver.onBroadcastReceived(context, intent);
+            }
+        }
+    }
+}
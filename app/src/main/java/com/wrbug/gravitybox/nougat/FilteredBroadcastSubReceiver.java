@@ -0,0 +1,12 @@
+package com.wrbug.gravitybox.nougat;
+
+/**
+ * Broadcast sub-receiver that declares the intent actions it handles so that
+ * {@link BroadcastDispatcher} invokes it only for those.
+ */
+public interface FilteredBroadcastSubReceiver extends BroadcastSubReceiver {
+    /**
+     * Returns actions this receiver handles. Queried once when the receiver is added.
+     */
+    String[] getBroadcastActions();
+}
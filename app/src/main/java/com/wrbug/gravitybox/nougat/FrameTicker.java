@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2017 Peter Gregus for GravityBox Project (C3C076@xda)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wrbug.gravitybox.nougat;
+
+import android.view.Choreographer;
+
+import com.wrbug.gravitybox.nougat.managers.ListenerRegistry;
+
+/**
+ * Vsync-aligned ticker shared by status bar animations. A single Choreographer
+ * frame callback is posted while at least one callback is running so that all
+ * animations advance in the same frame and nothing is scheduled when they are idle.
+ * Callbacks may ask for a minimum interval between frames; the frame callback is then
+ * posted delayed until the earliest client is due instead of waking up on every vsync.
+ * Must be used from the UI thread.
+ */
+public class FrameTicker {
+    private static final String TAG = "GB:FrameTicker";
+
+    public interface Callback {
+        /**
+         * Called once per frame. Return true to keep receiving frames.
+         */
+        boolean onFrame(long frameTimeNanos);
+    }
+
+    private static final class Client {
+        final Callback callback;
+        long intervalNanos;
+        long lastFrameNanos;
+
+        Client(Callback callback) {
+            this.callback = callback;
+        }
+    }
+
+    private static FrameTicker sInstance;
+
+    private final Choreographer mChoreographer;
+    private final ListenerRegistry<Client> mClients;
+    private boolean mScheduled;
+
+    public static FrameTicker getInstance() {
+        if (sInstance == null) {
+            sInstance = new FrameTicker();
+        }
+        return sInstance;
+    }
+
+    private FrameTicker() {
+        mChoreographer = Choreographer.getInstance();
+        mClients = new ListenerRegistry<>(TAG, Client.class);
+    }
+
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mScheduled = false;
+            for (Client client : mClients.getListeners()) {
+                if (client.lastFrameNanos != 0 &&
+                        frameTimeNanos - client.lastFrameNanos < client.intervalNanos) {
+                    continue;
+                }
+                client.lastFrameNanos = frameTimeNanos;
+                if (!client.callback.onFrame(frameTimeNanos)) {
+                    mClients.remove(client);
+                }
+            }
+            schedule();
+        }
+    };
+
+    private void schedule() {
+        final Client[] clients = mClients.getListeners();
+        if (clients.length == 0) {
+            unschedule();
+            return;
+        }
+        // frame times share System.nanoTime() time base
+        final long now = System.nanoTime();
+        long delayNanos = Long.MAX_VALUE;
+        for (Client client : clients) {
+            final long due = client.lastFrameNanos == 0 ? 0 :
+                    client.lastFrameNanos + client.intervalNanos - now;
+            delayNanos = Math.min(delayNanos, Math.max(0, due));
+        }
+        unschedule();
+        mScheduled = true;
+        mChoreographer.postFrameCallbackDelayed(mFrameCallback, delayNanos / 1000000);
+    }
+
+    private void unschedule() {
+        if (mScheduled) {
+            mChoreographer.removeFrameCallback(mFrameCallback);
+            mScheduled = false;
+        }
+    }
+
+    private Client find(Callback callback) {
+        for (Client client : mClients.getListeners()) {
+            if (client.callback == callback) return client;
+        }
+        return null;
+    }
+
+    public void start(Callback callback) {
+        start(callback, 0);
+    }
+
+    /**
+     * Starts delivering frames to callback, at most one per minIntervalMs.
+     */
+    public void start(Callback callback, long minIntervalMs) {
+        Client client = find(callback);
+        if (client == null) {
+            client = new Client(callback);
+            mClients.add(client);
+        }
+        client.intervalNanos = minIntervalMs * 1000000;
+        schedule();
+    }
+
+    public void stop(Callback callback) {
+        final Client client = find(callback);
+        if (client != null) {
+            mClients.remove(client);
+            schedule();
+        }
+    }
+
+    public boolean isRunning(Callback callback) {
+        return find(callback) != null;
+    }
+}
@@ -16,6 +16,7 @@
 package com.wrbug.gravitybox.nougat;
 
 import com.wrbug.gravitybox.nougat.managers.FingerprintLauncher;
+import com.wrbug.gravitybox.nougat.managers.ForegroundAppTracker;
 import com.wrbug.gravitybox.nougat.util.ArrayUtils;
 
 import android.os.Build;
@@ -122,6 +123,7 @@ public class GravityBox implements IXposedHookZygoteInit, IXposedHookInitPackage
                 lpparam.processName.equals("android")) {
             XposedBridge.log("GB:Is AOSP forced: " + Utils.isAospForced());
             ModVolumeKeySkipTrack.initAndroid(prefs, lpparam.classLoader);
+            ForegroundAppTracker.initAndroid(lpparam.classLoader);
             ModHwKeys.initAndroid(prefs, lpparam.classLoader);
             ModExpandedDesktop.initAndroid(prefs, lpparam.classLoader);
             ModAudio.initAndroid(prefs, lpparam.classLoader);
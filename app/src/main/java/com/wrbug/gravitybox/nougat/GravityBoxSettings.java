@@ -712,6 +712,7 @@ public class GravityBoxSettings extends Activity implements GravityBoxResultRece
     public static final String PREF_KEY_DATA_TRAFFIC_OMNI_SHOW_ICON = "pref_data_traffic_omni_show_icon";
     public static final String PREF_KEY_DATA_TRAFFIC_OMNI_AUTOHIDE = "pref_data_traffic_omni_autohide";
     public static final String PREF_KEY_DATA_TRAFFIC_OMNI_AUTOHIDE_TH = "pref_data_traffic_omni_autohide_threshold";
+    public static final String PREF_KEY_DATA_TRAFFIC_BREAKDOWN_UID = "pref_data_traffic_breakdown_uid";
     public static final String ACTION_PREF_DATA_TRAFFIC_CHANGED =
             "gravitybox.intent.action.DATA_TRAFFIC_CHANGED";
     public static final String EXTRA_DT_MODE = "dtMode";
@@ -725,6 +726,7 @@ public class GravityBoxSettings extends Activity implements GravityBoxResultRece
     public static final String EXTRA_DT_OMNI_SHOW_ICON = "dtOmniShowIcon";
     public static final String EXTRA_DT_OMNI_AUTOHIDE = "dtOmniAutohide";
     public static final String EXTRA_DT_OMNI_AUTOHIDE_TH = "dtOmniAutohideTh";
+    public static final String EXTRA_DT_BREAKDOWN_UID = "dtBreakdownUid";
 
     public static final String PREF_CAT_KEY_APP_LAUNCHER = "pref_cat_app_launcher";
     public static final List<String> PREF_KEY_APP_LAUNCHER_SLOT = new ArrayList<String>(Arrays.asList(
@@ -1396,6 +1398,7 @@ public class GravityBoxSettings extends Activity implements GravityBoxResultRece
         private CheckBoxPreference mPrefDataTrafficOmniShowIcon;
         private CheckBoxPreference mPrefDataTrafficOmniAutohide;
         private SeekBarPreference mPrefDataTrafficOmniAutohideTh;
+        private CheckBoxPreference mPrefDataTrafficBreakdownUid;
         private CheckBoxPreference mPrefDataTrafficActiveMobileOnly;
         private ListPreference mPrefDataTrafficDisplayMode;
         private CheckBoxPreference mPrefLinkVolumes;
@@ -1660,6 +1663,7 @@ public class GravityBoxSettings extends Activity implements GravityBoxResultRece
             mPrefDataTrafficDisplayMode = (ListPreference) findPreference(PREF_KEY_DATA_TRAFFIC_DISPLAY_MODE);
             mPrefDataTrafficOmniAutohide = (CheckBoxPreference) findPreference(PREF_KEY_DATA_TRAFFIC_OMNI_AUTOHIDE);
             mPrefDataTrafficOmniAutohideTh = (SeekBarPreference) findPreference(PREF_KEY_DATA_TRAFFIC_OMNI_AUTOHIDE_TH);
+            mPrefDataTrafficBreakdownUid = (CheckBoxPreference) findPreference(PREF_KEY_DATA_TRAFFIC_BREAKDOWN_UID);
 
             mPrefCatAppLauncher = (PreferenceScreen) findPreference(PREF_CAT_KEY_APP_LAUNCHER);
             mPrefAppLauncherSlot = new AppPickerPreference[PREF_KEY_APP_LAUNCHER_SLOT.size()];
@@ -2519,6 +2523,7 @@ public class GravityBoxSettings extends Activity implements GravityBoxResultRece
                 mPrefCatDataTraffic.removePreference(mPrefDataTrafficDisplayMode);
                 mPrefCatDataTraffic.removePreference(mPrefDataTrafficOmniAutohide);
                 mPrefCatDataTraffic.removePreference(mPrefDataTrafficOmniAutohideTh);
+                mPrefCatDataTraffic.removePreference(mPrefDataTrafficBreakdownUid);
                 String mode = mPrefDataTrafficMode.getValue();
                 if (!mode.equals("OFF")) {
                     if (!Utils.isWifiOnly(getActivity())) {
@@ -2536,6 +2541,8 @@ public class GravityBoxSettings extends Activity implements GravityBoxResultRece
                     mPrefCatDataTraffic.addPreference(mPrefDataTrafficOmniShowIcon);
                     mPrefCatDataTraffic.addPreference(mPrefDataTrafficOmniAutohide);
                     mPrefCatDataTraffic.addPreference(mPrefDataTrafficOmniAutohideTh);
+                } else if (mode.equals("BREAKDOWN")) {
+                    mPrefCatDataTraffic.addPreference(mPrefDataTrafficBreakdownUid);
                 }
             }
 
@@ -3299,6 +3306,10 @@ public class GravityBoxSettings extends Activity implements GravityBoxResultRece
                 intent.setAction(ACTION_PREF_DATA_TRAFFIC_CHANGED);
                 intent.putExtra(EXTRA_DT_OMNI_AUTOHIDE_TH,
                         prefs.getInt(PREF_KEY_DATA_TRAFFIC_OMNI_AUTOHIDE_TH, 10));
+            } else if (key.equals(PREF_KEY_DATA_TRAFFIC_BREAKDOWN_UID)) {
+                intent.setAction(ACTION_PREF_DATA_TRAFFIC_CHANGED);
+                intent.putExtra(EXTRA_DT_BREAKDOWN_UID,
+                        prefs.getBoolean(PREF_KEY_DATA_TRAFFIC_BREAKDOWN_UID, true));
             } else if (key.equals(PREF_KEY_DATA_TRAFFIC_POSITION)) {
                 intent.setAction(ACTION_PREF_DATA_TRAFFIC_CHANGED);
                 intent.putExtra(EXTRA_DT_POSITION, Integer.valueOf(
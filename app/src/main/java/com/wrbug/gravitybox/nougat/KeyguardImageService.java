@@ -15,10 +15,11 @@
 
 package com.wrbug.gravitybox.nougat;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.util.zip.CRC32;
 
 import android.app.Service;
 import android.content.Context;
@@ -26,15 +27,24 @@ import android.content.Intent;
 import android.content.SharedPreferences;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.Point;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
 import android.os.Message;
 import android.os.Messenger;
+import android.os.PowerManager;
+import android.os.Process;
 import android.os.RemoteException;
+import android.util.Log;
+import android.view.WindowManager;
 
 import com.wrbug.gravitybox.nougat.util.SharedPreferencesUtils;
 
 public class KeyguardImageService extends Service {
+    private static final String TAG = "GB:KeyguardImageService";
+    private static final boolean DEBUG = false;
+
     public static final int MSG_BEGIN_OUTPUT = 1;
     public static final int MSG_WRITE_OUTPUT = 2;
     public static final int MSG_FINISH_OUTPUT = 3;
@@ -43,10 +53,35 @@ public class KeyguardImageService extends Service {
 
     public static final String ACTION_KEYGUARD_IMAGE_UPDATED = "gravitybox.intent.action.KEYGUARD_IMAGE_UPDATED";
 
+    // processed image; BitmapFactory detects the format so readers only need the name
+    public static final String IMAGE_FILE_NAME = "kis_image.webp";
+    private static final String KEY_FILE_NAME = "kis_image.key";
+    // written by older versions; still read until first image is processed by this version
+    public static final String LEGACY_IMAGE_FILE_NAME = "kis_image.png";
+    private static final int OUTPUT_QUALITY = 90;
+    // bump when processing changes so that cached results get invalidated
+    private static final int PIPELINE_VERSION = 1;
+
     private File mKisImageFile;
+    private File mKisKeyFile;
     private boolean mWriteInProgress;
     private ByteArrayOutputStream mOutputStream;
     private SharedPreferences mPrefs;
+    private HandlerThread mWorkerThread;
+    private Handler mWorkerHandler;
+    private final Handler mHandler = new Handler();
+    private PowerManager.WakeLock mWakeLock;
+    private int mPendingJobs;
+    private int mLastStartId;
+
+    private static void log(String message) {
+        Log.d(TAG, message);
+    }
+
+    public static boolean isImageFile(String fileName) {
+        return fileName.equals(IMAGE_FILE_NAME) || fileName.equals(KEY_FILE_NAME) ||
+                fileName.equals(LEGACY_IMAGE_FILE_NAME);
+    }
 
     final Messenger mMessenger = new Messenger(new ClientHandler());
 
@@ -84,11 +119,29 @@ public class KeyguardImageService extends Service {
                     break;
                 case MSG_FINISH_OUTPUT:
                     try {
-                        if (saveImage()) {
-                            Intent intent = new Intent(ACTION_KEYGUARD_IMAGE_UPDATED);
-                            sendBroadcast(intent);
-                        }
+                        final byte[] data = mOutputStream.toByteArray();
                         mOutputStream.close();
+                        mOutputStream = null;
+                        mWriteInProgress = false;
+                        // keep service started and device awake until image is processed
+                        // so that client unbinding does not cut the job short
+                        startService(new Intent(KeyguardImageService.this, KeyguardImageService.class));
+                        mWakeLock.acquire();
+                        mPendingJobs++;
+                        mWorkerHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                try {
+                                    if (processImage(data)) {
+                                        Intent intent = new Intent(ACTION_KEYGUARD_IMAGE_UPDATED);
+                                        sendBroadcast(intent);
+                                    }
+                                } finally {
+                                    mWakeLock.release();
+                                    mHandler.post(mJobFinished);
+                                }
+                            }
+                        });
                     } catch (Throwable t) {
                         t.printStackTrace();
                     }
@@ -99,12 +152,44 @@ public class KeyguardImageService extends Service {
 
     ;
 
+    private final Runnable mJobFinished = new Runnable() {
+        @Override
+        public void run() {
+            if (--mPendingJobs == 0) {
+                if (DEBUG) log("All jobs finished; stopping service");
+                stopSelf(mLastStartId);
+            }
+        }
+    };
+
     @Override
     public void onCreate() {
         super.onCreate();
-        mKisImageFile = new File(getFilesDir() + "/kis_image.png");
+        mKisImageFile = new File(getFilesDir(), IMAGE_FILE_NAME);
+        mKisKeyFile = new File(getFilesDir(), KEY_FILE_NAME);
         final String prefsName = getPackageName() + "_preferences";
         mPrefs = SharedPreferencesUtils.getSharedPreferences(this, prefsName);
+        mWorkerThread = new HandlerThread(TAG + ".Worker", Process.THREAD_PRIORITY_BACKGROUND);
+        mWorkerThread.start();
+        mWorkerHandler = new Handler(mWorkerThread.getLooper());
+        mWakeLock = ((PowerManager) getSystemService(Context.POWER_SERVICE))
+                .newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, TAG);
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        mLastStartId = startId;
+        if (mPendingJobs == 0) {
+            stopSelf(startId);
+        }
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        // let already queued image finish processing
+        mWorkerThread.quitSafely();
+        super.onDestroy();
     }
 
     @Override
@@ -112,24 +197,118 @@ public class KeyguardImageService extends Service {
         return mMessenger.getBinder();
     }
 
-    private boolean saveImage() {
+    // runs on worker thread
+    private boolean processImage(byte[] data) {
         try {
-            Bitmap tmpBmp = BitmapFactory.decodeStream(
-                    new ByteArrayInputStream(mOutputStream.toByteArray()));
-            if (tmpBmp != null) {
-                if (mPrefs.getBoolean(GravityBoxSettings.PREF_KEY_LOCKSCREEN_BACKGROUND_BLUR_EFFECT, false)) {
-                    tmpBmp = Utils.blurBitmap(this, tmpBmp, mPrefs.getInt(
-                            GravityBoxSettings.PREF_KEY_LOCKSCREEN_BACKGROUND_BLUR_INTENSITY, 14));
-                }
-                tmpBmp.compress(Bitmap.CompressFormat.PNG, 100, new FileOutputStream(mKisImageFile));
-                mKisImageFile.setReadable(true, false);
-                tmpBmp.recycle();
+            final boolean blur = mPrefs.getBoolean(
+                    GravityBoxSettings.PREF_KEY_LOCKSCREEN_BACKGROUND_BLUR_EFFECT, false);
+            final int blurIntensity = mPrefs.getInt(
+                    GravityBoxSettings.PREF_KEY_LOCKSCREEN_BACKGROUND_BLUR_INTENSITY, 14);
+            final Point displaySize = new Point();
+            ((WindowManager) getSystemService(Context.WINDOW_SERVICE))
+                    .getDefaultDisplay().getRealSize(displaySize);
+
+            final String key = computeKey(data, blur, blurIntensity, displaySize);
+            if (key.equals(readKey()) && mKisImageFile.isFile()) {
+                if (DEBUG) log("processImage: unchanged image and settings; reusing " + key);
                 return true;
             }
+
+            BitmapFactory.Options opts = new BitmapFactory.Options();
+            opts.inJustDecodeBounds = true;
+            BitmapFactory.decodeByteArray(data, 0, data.length, opts);
+            if (opts.outWidth <= 0 || opts.outHeight <= 0) {
+                return false;
+            }
+            opts.inSampleSize = calculateInSampleSize(opts.outWidth, opts.outHeight, displaySize);
+            opts.inJustDecodeBounds = false;
+            Bitmap bmp = BitmapFactory.decodeByteArray(data, 0, data.length, opts);
+            if (bmp == null) {
+                return false;
+            }
+            if (DEBUG) log("processImage: decoded " + bmp.getWidth() + "x" + bmp.getHeight() +
+                    " with inSampleSize=" + opts.inSampleSize);
+
+            if (blur) {
+                Bitmap blurred = Utils.blurBitmap(this, bmp, blurIntensity);
+                if (blurred != bmp) {
+                    bmp.recycle();
+                }
+                bmp = blurred;
+            }
+
+            // write to temporary file first so that readers never see partial image
+            File tmpFile = new File(getFilesDir(), IMAGE_FILE_NAME + ".tmp");
+            FileOutputStream os = new FileOutputStream(tmpFile);
+            try {
+                bmp.compress(Bitmap.CompressFormat.WEBP, OUTPUT_QUALITY, os);
+            } finally {
+                os.close();
+                bmp.recycle();
+            }
+            if (!tmpFile.renameTo(mKisImageFile)) {
+                tmpFile.delete();
+                return false;
+            }
+            mKisImageFile.setReadable(true, false);
+            writeKey(key);
+            new File(getFilesDir(), LEGACY_IMAGE_FILE_NAME).delete();
+            return true;
+        } catch (Throwable t) {
+            t.printStackTrace();
             return false;
+        }
+    }
+
+    private static int calculateInSampleSize(int width, int height, Point displaySize) {
+        // match display orientation to image orientation
+        final int reqWidth = width < height ?
+                Math.min(displaySize.x, displaySize.y) : Math.max(displaySize.x, displaySize.y);
+        final int reqHeight = width < height ?
+                Math.max(displaySize.x, displaySize.y) : Math.min(displaySize.x, displaySize.y);
+        int sampleSize = 1;
+        if (reqWidth <= 0 || reqHeight <= 0) {
+            return sampleSize;
+        }
+        while ((width / (sampleSize * 2)) >= reqWidth && (height / (sampleSize * 2)) >= reqHeight) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private static String computeKey(byte[] data, boolean blur, int blurIntensity, Point displaySize) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        return PIPELINE_VERSION + ":" + Long.toHexString(crc.getValue()) + ":" + data.length +
+                ":" + (blur ? blurIntensity : 0) + ":" + displaySize.x + "x" + displaySize.y;
+    }
+
+    private String readKey() {
+        if (!mKisKeyFile.isFile()) return null;
+        try {
+            FileInputStream is = new FileInputStream(mKisKeyFile);
+            try {
+                byte[] buf = new byte[(int) mKisKeyFile.length()];
+                int len = is.read(buf);
+                return len > 0 ? new String(buf, 0, len, "UTF-8") : null;
+            } finally {
+                is.close();
+            }
         } catch (Exception e) {
-            e.printStackTrace();
-            return false;
+            return null;
+        }
+    }
+
+    private void writeKey(String key) {
+        try {
+            FileOutputStream os = new FileOutputStream(mKisKeyFile);
+            try {
+                os.write(key.getBytes("UTF-8"));
+            } finally {
+                os.close();
+            }
+        } catch (Exception e) {
+            mKisKeyFile.delete();
         }
     }
 }
@@ -187,6 +187,7 @@ public class ModClearAllRecents {
                 @Override
                 protected void afterHookedMethod(final MethodHookParam param) throws Throwable {
                     mRecentsActivity = (Activity) param.thisObject;
+                    GraphicUtils.registerTrimCallbacks(mRecentsActivity);
                     mGbContext = Utils.getGbContext(mRecentsActivity);
                     mHandler = new Handler();
                     mAm = (ActivityManager) mRecentsActivity.getSystemService(Context.ACTIVITY_SERVICE);
@@ -366,9 +367,7 @@ public class ModClearAllRecents {
             protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
                 Bitmap bitmap = (Bitmap) param.args[0];
                 if (bitmap != null && recentTaskAlpha != 100) {
-                    Bitmap b = GraphicUtils.getBackGroundBitmap(taskMaskColor, bitmap.getWidth(), bitmap.getHeight());
-                    b = GraphicUtils.getAlplaBitmap(b, 100 - recentTaskAlpha);
-                    param.args[0] = GraphicUtils.mergeBitmap(bitmap, b);
+                    param.args[0] = GraphicUtils.getTintedBitmap(bitmap, taskMaskColor, 100 - recentTaskAlpha);
                 }
             }
         });
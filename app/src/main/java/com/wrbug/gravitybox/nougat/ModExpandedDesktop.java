@@ -15,9 +15,14 @@
 
 package com.wrbug.gravitybox.nougat;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import android.content.BroadcastReceiver;
 import android.content.ContentResolver;
@@ -28,6 +33,7 @@ import android.content.res.Resources;
 import android.database.ContentObserver;
 import android.graphics.Rect;
 import android.os.Handler;
+import android.os.Looper;
 import android.provider.Settings;
 import android.view.Surface;
 import android.view.View;
@@ -78,6 +84,91 @@ public class ModExpandedDesktop {
         static final int PRIVATE_FLAG_KEYGUARD = 0x00000400;
     }
 
+    // Reflection handles resolved once in initReflections so that layout hooks
+    // avoid name based lookups. Every Field declared in these holders is resolved
+    // by its own name from the target class.
+    private static class Pwm {
+        static Field mContentBottom, mContentLeft, mContentRight, mContentTop, mCurBottom, mCurLeft,
+                mCurRight, mCurTop, mDockBottom, mDockLayer, mDockLeft, mDockRight, mDockTop,
+                mFocusedApp, mFocusedWindow, mForceClearedSystemUiFlags, mForceStatusBar,
+                mForceStatusBarFromKeyguard, mForcingShowNavBar, mForcingShowNavBarLayer, mHandler,
+                mHideLockScreen, mHideNavInputEventReceiverFactory, mInputConsumer,
+                mLandscapeRotation, mLastFocusNeedsMenu, mLastSystemUiFlags, mNavigationBar,
+                mNavigationBarCanMove, mNavigationBarController,
+                mNavigationBarHeightForRotationDefault, mNavigationBarOnBottom,
+                mNavigationBarWidthForRotationDefault, mOverscanBottom, mOverscanLeft,
+                mOverscanRight, mOverscanScreenHeight, mOverscanScreenLeft, mOverscanScreenTop,
+                mOverscanScreenWidth, mOverscanTop, mPortraitRotation, mResettingSystemUiFlags,
+                mRestrictedOverscanScreenHeight, mRestrictedOverscanScreenLeft,
+                mRestrictedOverscanScreenTop, mRestrictedOverscanScreenWidth,
+                mRestrictedScreenHeight, mRestrictedScreenLeft, mRestrictedScreenTop,
+                mRestrictedScreenWidth, mSeascapeRotation, mStableBottom, mStableFullscreenBottom,
+                mStableFullscreenLeft, mStableFullscreenRight, mStableFullscreenTop, mStableLeft,
+                mStableRight, mStableTop, mStatusBar, mStatusBarController, mStatusBarHeight,
+                mStatusBarLayer, mStatusBarService, mSystemBottom, mSystemGestures, mSystemLeft,
+                mSystemRight, mSystemTop, mTmpDecorFrame, mTmpDisplayFrame, mTmpNavigationFrame,
+                mTmpOverscanFrame, mTmpParentFrame, mTmpVisibleFrame,
+                mTopFullscreenOpaqueWindowState, mUnrestrictedScreenHeight, mUnrestrictedScreenLeft,
+                mUnrestrictedScreenTop, mUnrestrictedScreenWidth, mUpsideDownRotation,
+                mVoiceContentBottom, mVoiceContentLeft, mVoiceContentRight, mVoiceContentTop,
+                mWindowManagerFuncs;
+    }
+
+    private static class Gestures {
+        static Field screenWidth, screenHeight, mDownX, mDownTime, mSwipeStartThreshold,
+                mSwipeDistanceThreshold, SWIPE_TIMEOUT_MS;
+    }
+
+    // fields resolved from the WindowManagerFuncs implementation passed to init
+    private static class WmFuncs {
+        static Field mLastStatusBarVisibility;
+        static Method addInputConsumer;
+    }
+
+    private static class InputConsumer {
+        static Method dismiss;
+    }
+
+    private static class Lp {
+        static Field privateFlags, subtreeSystemUiVisibility;
+    }
+
+    private static class BarCtrl {
+        static Method isTransientShowing, setBarShowingLw, wasRecentlyTranslucent,
+                checkHiddenLw, showTransient;
+    }
+
+    private static class WinState {
+        static Method getAttrs, isAnimatingLw, isVisibleLw, getSurfaceLayer, computeFrameLw,
+                getSystemUiVisibility, getNeedsMenuLw, getAppToken;
+    }
+
+    // Method replacement that is not hooked before the feature is first enabled so that
+    // the method stays unpatched for users who never use it. Once hooked, the method stays
+    // routed through Xposed; disabling only removes the callback so that the original runs
+    // without the invokeOriginalMethod round trip.
+    private static class ReplacementHook {
+        private final Member mMethod;
+        private final XC_MethodHook mCallback;
+        private Unhook mUnhook;
+
+        ReplacementHook(Member method, XC_MethodHook callback) {
+            mMethod = method;
+            mCallback = callback;
+        }
+
+        synchronized void setEnabled(boolean enabled) {
+            if (enabled && mUnhook == null) {
+                if (DEBUG) log("hooking " + mMethod.getName());
+                mUnhook = XposedBridge.hookMethod(mMethod, mCallback);
+            } else if (!enabled && mUnhook != null) {
+                if (DEBUG) log("unhooking " + mMethod.getName());
+                mUnhook.unhook();
+                mUnhook = null;
+            }
+        }
+    }
+
     private static class NavbarDimensions {
         int wPort, hPort, hLand;
 
@@ -98,7 +189,10 @@ public class ModExpandedDesktop {
     private static float mNavbarHeightLandscapeScaleFactor = 1;
     private static float mNavbarWidthScaleFactor = 1;
     private static boolean mClearedBecauseOfForceShow;
-    private static Unhook mGetSystemUiVisibilityHook;
+    // WindowState classes with permanent getSystemUiVisibility hook installed
+    private static final Set<Class<?>> mSysUiVisHookedClasses = new HashSet<>();
+    // thread currently running layoutWindowLw in immersive mode; the hook is a no-op for any other thread
+    private static volatile Thread mImmersiveLayoutThread;
     private static List<String> mLoggedErrors = new ArrayList<String>();
     private static boolean mNavbarLeftHanded;
     private static int mAnimDockRightExit;
@@ -114,6 +208,9 @@ public class ModExpandedDesktop {
     private static Method mShouldUseOutsets = null;
     private static NavbarDimensions mNavbarDimensions;
     private static Class<?> mClsScreenShapeHelper;
+    private static ReplacementHook mInsetHintHook;
+    private static ReplacementHook mBeginLayoutHook;
+    private static ReplacementHook mUpdateSystemUiVisibilityHook;
 
     private static void log(String message) {
         XposedBridge.log(TAG + ": " + message);
@@ -192,17 +289,16 @@ public class ModExpandedDesktop {
             if (mExpandedDesktop != expandedDesktop) {
                 mExpandedDesktop = expandedDesktop;
             }
+            updateReplacementHooks();
 
             XposedHelpers.callMethod(mPhoneWindowManager, "updateSettings");
 
-            int[] navigationBarWidthForRotation = (int[]) XposedHelpers.getObjectField(
-                    mPhoneWindowManager, "mNavigationBarWidthForRotationDefault");
-            int[] navigationBarHeightForRotation = (int[]) XposedHelpers.getObjectField(
-                    mPhoneWindowManager, "mNavigationBarHeightForRotationDefault");
-            final int portraitRotation = XposedHelpers.getIntField(mPhoneWindowManager, "mPortraitRotation");
-            final int upsideDownRotation = XposedHelpers.getIntField(mPhoneWindowManager, "mUpsideDownRotation");
-            final int landscapeRotation = XposedHelpers.getIntField(mPhoneWindowManager, "mLandscapeRotation");
-            final int seascapeRotation = XposedHelpers.getIntField(mPhoneWindowManager, "mSeascapeRotation");
+            int[] navigationBarWidthForRotation = getIntArray(Pwm.mNavigationBarWidthForRotationDefault);
+            int[] navigationBarHeightForRotation = getIntArray(Pwm.mNavigationBarHeightForRotationDefault);
+            final int portraitRotation = getInt(Pwm.mPortraitRotation);
+            final int upsideDownRotation = getInt(Pwm.mUpsideDownRotation);
+            final int landscapeRotation = getInt(Pwm.mLandscapeRotation);
+            final int seascapeRotation = getInt(Pwm.mSeascapeRotation);
 
             if (isNavbarHidden()) {
                 navigationBarWidthForRotation[portraitRotation]
@@ -309,6 +405,62 @@ public class ModExpandedDesktop {
         } catch (NoSuchMethodException e) {
             log("could not find shouldUseOutsets method");
         }
+
+        resolveFields(Pwm.class, classPhoneWindowManager);
+        resolveFields(Lp.class, WindowManager.LayoutParams.class);
+        resolveFields(Gestures.class, XposedHelpers.findClass(CLASS_SYSTEM_GESTURE,
+                classPhoneWindowManager.getClassLoader()));
+
+        if (Pwm.mNavigationBarController != null) {
+            Class<?> classBarController = Pwm.mNavigationBarController.getType();
+            BarCtrl.isTransientShowing = resolveMethod(classBarController, "isTransientShowing");
+            BarCtrl.setBarShowingLw = resolveMethod(classBarController, "setBarShowingLw", boolean.class);
+            BarCtrl.wasRecentlyTranslucent = resolveMethod(classBarController, "wasRecentlyTranslucent");
+            BarCtrl.checkHiddenLw = resolveMethod(classBarController, "checkHiddenLw");
+            BarCtrl.showTransient = resolveMethod(classBarController, "showTransient");
+        }
+
+        if (Pwm.mHideNavInputEventReceiverFactory != null) {
+            WmFuncs.addInputConsumer = resolveMethod(XposedHelpers.findClass(CLASS_WINDOW_MANAGER_FUNCS,
+                    classPhoneWindowManager.getClassLoader()), "addInputConsumer",
+                    Looper.class, Pwm.mHideNavInputEventReceiverFactory.getType());
+            if (WmFuncs.addInputConsumer != null) {
+                InputConsumer.dismiss = resolveMethod(WmFuncs.addInputConsumer.getReturnType(), "dismiss");
+            }
+        }
+
+        Class<?> classWindowState = XposedHelpers.findClass(CLASS_POLICY_WINDOW_STATE, null);
+        WinState.getAttrs = resolveMethod(classWindowState, "getAttrs");
+        WinState.isAnimatingLw = resolveMethod(classWindowState, "isAnimatingLw");
+        WinState.isVisibleLw = resolveMethod(classWindowState, "isVisibleLw");
+        WinState.getSurfaceLayer = resolveMethod(classWindowState, "getSurfaceLayer");
+        WinState.computeFrameLw = resolveMethod(classWindowState, "computeFrameLw",
+                Rect.class, Rect.class, Rect.class, Rect.class, Rect.class, Rect.class, Rect.class, Rect.class);
+        WinState.getSystemUiVisibility = resolveMethod(classWindowState, "getSystemUiVisibility");
+        WinState.getNeedsMenuLw = resolveMethod(classWindowState, "getNeedsMenuLw", classWindowState);
+        WinState.getAppToken = resolveMethod(classWindowState, "getAppToken");
+    }
+
+    private static void resolveFields(Class<?> holder, Class<?> target) {
+        for (Field handle : holder.getDeclaredFields()) {
+            if (handle.getType() != Field.class || !Modifier.isStatic(handle.getModifiers())) continue;
+            try {
+                handle.set(null, XposedHelpers.findField(target, handle.getName()));
+            } catch (NoSuchFieldError e) {
+                log("could not find " + target.getSimpleName() + "." + handle.getName() + " field");
+            } catch (IllegalAccessException e) {
+                XposedBridge.log(e);
+            }
+        }
+    }
+
+    private static Method resolveMethod(Class<?> clazz, String name, Class<?>... parameterTypes) {
+        try {
+            return XposedHelpers.findMethodExact(clazz, name, parameterTypes);
+        } catch (NoSuchMethodError e) {
+            log("could not find " + clazz.getSimpleName() + "." + name + " method");
+            return null;
+        }
     }
 
     public static void initAndroid(final XSharedPreferences prefs, final ClassLoader classLoader) {
@@ -344,6 +496,7 @@ public class ModExpandedDesktop {
                             try {
                                 mContext = (Context) XposedHelpers.getObjectField(param.thisObject, "mContext");
                                 mPhoneWindowManager = param.thisObject;
+                                resolveFields(WmFuncs.class, param.args[2].getClass());
 
                                 IntentFilter intentFilter = new IntentFilter();
                                 intentFilter.addAction(GravityBoxSettings.ACTION_PREF_EXPANDED_DESKTOP_MODE_CHANGED);
@@ -398,12 +551,14 @@ public class ModExpandedDesktop {
                 });
             }
 
-            XposedHelpers.findAndHookMethod(classPhoneWindowManager, "getInsetHintLw",
+            mInsetHintHook = new ReplacementHook(XposedHelpers.findMethodExact(
+                    classPhoneWindowManager, "getInsetHintLw",
                     WindowManager.LayoutParams.class, Rect.class, int.class, int.class, int.class,
-                    Rect.class, Rect.class, Rect.class, getInsetHintReplacement);
+                    Rect.class, Rect.class, Rect.class), getInsetHintReplacement);
 
-            XposedHelpers.findAndHookMethod(classPhoneWindowManager, "beginLayoutLw",
-                    boolean.class, int.class, int.class, int.class, int.class, new XC_MethodReplacement() {
+            mBeginLayoutHook = new ReplacementHook(XposedHelpers.findMethodExact(
+                    classPhoneWindowManager, "beginLayoutLw",
+                    boolean.class, int.class, int.class, int.class, int.class), new XC_MethodReplacement() {
                         @Override
                         protected Object replaceHookedMethod(MethodHookParam param) throws Throwable {
                             if (DEBUG_LAYOUT) log("beginLayoutLw");
@@ -421,28 +576,28 @@ public class ModExpandedDesktop {
                                 if (isDefaultDisplay) {
                                     switch (displayRotation) {
                                         case Surface.ROTATION_90:
-                                            overscanLeft = getInt("mOverscanTop");
-                                            overscanTop = getInt("mOverscanRight");
-                                            overscanRight = getInt("mOverscanBottom");
-                                            overscanBottom = getInt("mOverscanLeft");
+                                            overscanLeft = getInt(Pwm.mOverscanTop);
+                                            overscanTop = getInt(Pwm.mOverscanRight);
+                                            overscanRight = getInt(Pwm.mOverscanBottom);
+                                            overscanBottom = getInt(Pwm.mOverscanLeft);
                                             break;
                                         case Surface.ROTATION_180:
-                                            overscanLeft = getInt("mOverscanRight");
-                                            overscanTop = getInt("mOverscanBottom");
-                                            overscanRight = getInt("mOverscanLeft");
-                                            overscanBottom = getInt("mOverscanTop");
+                                            overscanLeft = getInt(Pwm.mOverscanRight);
+                                            overscanTop = getInt(Pwm.mOverscanBottom);
+                                            overscanRight = getInt(Pwm.mOverscanLeft);
+                                            overscanBottom = getInt(Pwm.mOverscanTop);
                                             break;
                                         case Surface.ROTATION_270:
-                                            overscanLeft = getInt("mOverscanBottom");
-                                            overscanTop = getInt("mOverscanLeft");
-                                            overscanRight = getInt("mOverscanTop");
-                                            overscanBottom = getInt("mOverscanRight");
+                                            overscanLeft = getInt(Pwm.mOverscanBottom);
+                                            overscanTop = getInt(Pwm.mOverscanLeft);
+                                            overscanRight = getInt(Pwm.mOverscanTop);
+                                            overscanBottom = getInt(Pwm.mOverscanRight);
                                             break;
                                         default:
-                                            overscanLeft = getInt("mOverscanLeft");
-                                            overscanTop = getInt("mOverscanTop");
-                                            overscanRight = getInt("mOverscanRight");
-                                            overscanBottom = getInt("mOverscanBottom");
+                                            overscanLeft = getInt(Pwm.mOverscanLeft);
+                                            overscanTop = getInt(Pwm.mOverscanTop);
+                                            overscanRight = getInt(Pwm.mOverscanRight);
+                                            overscanBottom = getInt(Pwm.mOverscanBottom);
                                             break;
                                     }
                                 } else {
@@ -451,73 +606,73 @@ public class ModExpandedDesktop {
                                     overscanRight = 0;
                                     overscanBottom = 0;
                                 }
-                                setInt("mOverscanScreenLeft", 0);
-                                setInt("mRestrictedOverscanScreenLeft", 0);
-                                setInt("mOverscanScreenTop", 0);
-                                setInt("mRestrictedOverscanScreenTop", 0);
-                                setInt("mOverscanScreenWidth", displayWidth);
-                                setInt("mRestrictedOverscanScreenWidth", displayWidth);
-                                setInt("mOverscanScreenHeight", displayHeight);
-                                setInt("mRestrictedOverscanScreenHeight", displayHeight);
-                                setInt("mSystemLeft", 0);
-                                setInt("mSystemTop", 0);
-                                setInt("mSystemRight", displayWidth);
-                                setInt("mSystemBottom", displayHeight);
-                                setInt("mUnrestrictedScreenLeft", overscanLeft);
-                                setInt("mUnrestrictedScreenTop", overscanTop);
-                                setInt("mUnrestrictedScreenWidth", displayWidth - overscanLeft - overscanRight);
-                                setInt("mUnrestrictedScreenHeight", displayHeight - overscanTop - overscanBottom);
-                                setInt("mRestrictedScreenLeft", overscanLeft);
-                                setInt("mRestrictedScreenTop", overscanTop);
-                                setInt("mRestrictedScreenWidth", displayWidth - overscanLeft - overscanRight);
-                                XposedHelpers.setIntField(getObj("mSystemGestures"), "screenWidth", displayWidth - overscanLeft - overscanRight);
-                                setInt("mRestrictedScreenHeight", displayHeight - overscanTop - overscanBottom);
-                                XposedHelpers.setIntField(getObj("mSystemGestures"), "screenHeight", displayHeight - overscanTop - overscanBottom);
-                                setInt("mDockLeft", overscanLeft);
-                                setInt("mContentLeft", overscanLeft);
-                                setInt("mStableLeft", overscanLeft);
-                                setInt("mStableFullscreenLeft", overscanLeft);
-                                setInt("mCurLeft", overscanLeft);
-                                setInt("mVoiceContentLeft", overscanLeft);
-                                setInt("mDockTop", overscanTop);
-                                setInt("mContentTop", overscanTop);
-                                setInt("mStableTop", overscanTop);
-                                setInt("mStableFullscreenTop", overscanTop);
-                                setInt("mCurTop", overscanTop);
-                                setInt("mVoiceContentTop", overscanTop);
+                                setInt(Pwm.mOverscanScreenLeft, 0);
+                                setInt(Pwm.mRestrictedOverscanScreenLeft, 0);
+                                setInt(Pwm.mOverscanScreenTop, 0);
+                                setInt(Pwm.mRestrictedOverscanScreenTop, 0);
+                                setInt(Pwm.mOverscanScreenWidth, displayWidth);
+                                setInt(Pwm.mRestrictedOverscanScreenWidth, displayWidth);
+                                setInt(Pwm.mOverscanScreenHeight, displayHeight);
+                                setInt(Pwm.mRestrictedOverscanScreenHeight, displayHeight);
+                                setInt(Pwm.mSystemLeft, 0);
+                                setInt(Pwm.mSystemTop, 0);
+                                setInt(Pwm.mSystemRight, displayWidth);
+                                setInt(Pwm.mSystemBottom, displayHeight);
+                                setInt(Pwm.mUnrestrictedScreenLeft, overscanLeft);
+                                setInt(Pwm.mUnrestrictedScreenTop, overscanTop);
+                                setInt(Pwm.mUnrestrictedScreenWidth, displayWidth - overscanLeft - overscanRight);
+                                setInt(Pwm.mUnrestrictedScreenHeight, displayHeight - overscanTop - overscanBottom);
+                                setInt(Pwm.mRestrictedScreenLeft, overscanLeft);
+                                setInt(Pwm.mRestrictedScreenTop, overscanTop);
+                                setInt(Pwm.mRestrictedScreenWidth, displayWidth - overscanLeft - overscanRight);
+                                Gestures.screenWidth.setInt(getObj(Pwm.mSystemGestures), displayWidth - overscanLeft - overscanRight);
+                                setInt(Pwm.mRestrictedScreenHeight, displayHeight - overscanTop - overscanBottom);
+                                Gestures.screenHeight.setInt(getObj(Pwm.mSystemGestures), displayHeight - overscanTop - overscanBottom);
+                                setInt(Pwm.mDockLeft, overscanLeft);
+                                setInt(Pwm.mContentLeft, overscanLeft);
+                                setInt(Pwm.mStableLeft, overscanLeft);
+                                setInt(Pwm.mStableFullscreenLeft, overscanLeft);
+                                setInt(Pwm.mCurLeft, overscanLeft);
+                                setInt(Pwm.mVoiceContentLeft, overscanLeft);
+                                setInt(Pwm.mDockTop, overscanTop);
+                                setInt(Pwm.mContentTop, overscanTop);
+                                setInt(Pwm.mStableTop, overscanTop);
+                                setInt(Pwm.mStableFullscreenTop, overscanTop);
+                                setInt(Pwm.mCurTop, overscanTop);
+                                setInt(Pwm.mVoiceContentTop, overscanTop);
                                 val = displayWidth - overscanRight;
-                                setInt("mDockRight", val);
-                                setInt("mContentRight", val);
-                                setInt("mStableRight", val);
-                                setInt("mStableFullscreenRight", val);
-                                setInt("mCurRight", val);
-                                setInt("mVoiceContentRight", val);
+                                setInt(Pwm.mDockRight, val);
+                                setInt(Pwm.mContentRight, val);
+                                setInt(Pwm.mStableRight, val);
+                                setInt(Pwm.mStableFullscreenRight, val);
+                                setInt(Pwm.mCurRight, val);
+                                setInt(Pwm.mVoiceContentRight, val);
                                 val = displayHeight - overscanBottom;
-                                setInt("mDockBottom", val);
-                                setInt("mContentBottom", val);
-                                setInt("mStableBottom", val);
-                                setInt("mStableFullscreenBottom", val);
-                                setInt("mCurBottom", val);
-                                setInt("mVoiceContentBottom", val);
-                                setInt("mDockLayer", 0x10000000);
-                                setInt("mStatusBarLayer", -1);
+                                setInt(Pwm.mDockBottom, val);
+                                setInt(Pwm.mContentBottom, val);
+                                setInt(Pwm.mStableBottom, val);
+                                setInt(Pwm.mStableFullscreenBottom, val);
+                                setInt(Pwm.mCurBottom, val);
+                                setInt(Pwm.mVoiceContentBottom, val);
+                                setInt(Pwm.mDockLayer, 0x10000000);
+                                setInt(Pwm.mStatusBarLayer, -1);
 
                                 // start with the current dock rect, which will be (0,0,displayWidth,displayHeight)
-                                final Rect pf = getRect("mTmpParentFrame");
-                                final Rect df = getRect("mTmpDisplayFrame");
-                                final Rect of = getRect("mTmpOverscanFrame");
-                                final Rect vf = getRect("mTmpVisibleFrame");
-                                final Rect dcf = getRect("mTmpDecorFrame");
-                                pf.left = df.left = of.left = vf.left = getInt("mDockLeft");
-                                pf.top = df.top = of.top = vf.top = getInt("mDockTop");
-                                pf.right = df.right = of.right = vf.right = getInt("mDockRight");
-                                pf.bottom = df.bottom = of.bottom = vf.bottom = getInt("mDockBottom");
+                                final Rect pf = getRect(Pwm.mTmpParentFrame);
+                                final Rect df = getRect(Pwm.mTmpDisplayFrame);
+                                final Rect of = getRect(Pwm.mTmpOverscanFrame);
+                                final Rect vf = getRect(Pwm.mTmpVisibleFrame);
+                                final Rect dcf = getRect(Pwm.mTmpDecorFrame);
+                                pf.left = df.left = of.left = vf.left = getInt(Pwm.mDockLeft);
+                                pf.top = df.top = of.top = vf.top = getInt(Pwm.mDockTop);
+                                pf.right = df.right = of.right = vf.right = getInt(Pwm.mDockRight);
+                                pf.bottom = df.bottom = of.bottom = vf.bottom = getInt(Pwm.mDockBottom);
                                 dcf.setEmpty();  // Decor frame N/A for system bars.
 
                                 if (isDefaultDisplay) {
                                     // For purposes of putting out fake window up to steal focus, we will
                                     // drive nav being hidden only by whether it is requested.
-                                    final int sysui = getInt("mLastSystemUiFlags");
+                                    final int sysui = getInt(Pwm.mLastSystemUiFlags);
                                     boolean navVisible = (sysui & View.SYSTEM_UI_FLAG_HIDE_NAVIGATION) == 0;
                                     boolean navTranslucent = (sysui &
                                             (ViewConst.NAVIGATION_BAR_TRANSLUCENT | ViewConst.SYSTEM_UI_TRANSPARENT)) != 0;
@@ -535,15 +690,15 @@ public class ModExpandedDesktop {
                                     // detect when the user presses anywhere to bring back the nav
                                     // bar and ensure the application doesn't see the event.
                                     if (navVisible || navAllowedHidden) {
-                                        if (getObj("mInputConsumer") != null) {
-                                            XposedHelpers.callMethod(getObj("mInputConsumer"), "dismiss");
-                                            setObj("mInputConsumer", null);
+                                        if (getObj(Pwm.mInputConsumer) != null) {
+                                            InputConsumer.dismiss.invoke(getObj(Pwm.mInputConsumer));
+                                            setObj(Pwm.mInputConsumer, null);
                                         }
-                                    } else if (getObj("mInputConsumer") == null) {
-                                        Object wmF = getObj("mWindowManagerFuncs");
-                                        Handler h = (Handler) getObj("mHandler");
-                                        setObj("mInputConsumer", XposedHelpers.callMethod(wmF, "addInputConsumer",
-                                                h.getLooper(), getObj("mHideNavInputEventReceiverFactory")));
+                                    } else if (getObj(Pwm.mInputConsumer) == null) {
+                                        Object wmF = getObj(Pwm.mWindowManagerFuncs);
+                                        Handler h = (Handler) getObj(Pwm.mHandler);
+                                        setObj(Pwm.mInputConsumer, WmFuncs.addInputConsumer.invoke(wmF,
+                                                h.getLooper(), getObj(Pwm.mHideNavInputEventReceiverFactory)));
                                     }
 
                                     // For purposes of positioning and showing the nav bar, if we have
@@ -552,161 +707,161 @@ public class ModExpandedDesktop {
                                     navVisible |= !(Boolean) mCanHideNavigationBar.invoke(param.thisObject);
 
                                     boolean updateSysUiVisibility = false;
-                                    Object navBar = getObj("mNavigationBar");
+                                    Object navBar = getObj(Pwm.mNavigationBar);
                                     if (navBar != null) {
-                                        Object navBarCtrl = getObj("mNavigationBarController");
-                                        boolean transientNavBarShowing = (Boolean) XposedHelpers.callMethod(navBarCtrl, "isTransientShowing");
+                                        Object navBarCtrl = getObj(Pwm.mNavigationBarController);
+                                        boolean transientNavBarShowing = (Boolean) BarCtrl.isTransientShowing.invoke(navBarCtrl);
                                         // Force the navigation bar to its appropriate place and
                                         // size.  We need to do this directly, instead of relying on
                                         // it to bubble up from the nav bar, because this needs to
                                         // change atomically with screen rotations.
-                                        setBool("mNavigationBarOnBottom", (!getBool("mNavigationBarCanMove") || displayWidth < displayHeight));
-                                        if (getBool("mNavigationBarOnBottom")) {
+                                        setBool(Pwm.mNavigationBarOnBottom, (!getBool(Pwm.mNavigationBarCanMove) || displayWidth < displayHeight));
+                                        if (getBool(Pwm.mNavigationBarOnBottom)) {
                                             // It's a system nav bar or a portrait screen; nav bar goes on bottom.
                                             int top = displayHeight - overscanBottom
-                                                    - getIntArray("mNavigationBarHeightForRotationDefault")[displayRotation];
-                                            getRect("mTmpNavigationFrame").set(0, top, displayWidth, displayHeight - overscanBottom);
-                                            val = getRect("mTmpNavigationFrame").top;
-                                            setInt("mStableBottom", val);
+                                                    - getIntArray(Pwm.mNavigationBarHeightForRotationDefault)[displayRotation];
+                                            getRect(Pwm.mTmpNavigationFrame).set(0, top, displayWidth, displayHeight - overscanBottom);
+                                            val = getRect(Pwm.mTmpNavigationFrame).top;
+                                            setInt(Pwm.mStableBottom, val);
                                             if (!isNavbarImmersive()) {
-                                                setInt("mStableFullscreenBottom", val);
+                                                setInt(Pwm.mStableFullscreenBottom, val);
                                             }
                                             if (transientNavBarShowing
                                                     || (navVisible && isNavbarImmersive())) {
-                                                XposedHelpers.callMethod(navBarCtrl, "setBarShowingLw", true);
+                                                BarCtrl.setBarShowingLw.invoke(navBarCtrl, true);
                                             } else if (navVisible) {
-                                                XposedHelpers.callMethod(navBarCtrl, "setBarShowingLw", true);
-                                                setInt("mDockBottom", val);
-                                                setInt("mRestrictedScreenHeight", getInt("mDockBottom") - getInt("mRestrictedScreenTop"));
-                                                setInt("mRestrictedOverscanScreenHeight", getInt("mDockBottom") - getInt("mRestrictedOverscanScreenTop"));
+                                                BarCtrl.setBarShowingLw.invoke(navBarCtrl, true);
+                                                setInt(Pwm.mDockBottom, val);
+                                                setInt(Pwm.mRestrictedScreenHeight, getInt(Pwm.mDockBottom) - getInt(Pwm.mRestrictedScreenTop));
+                                                setInt(Pwm.mRestrictedOverscanScreenHeight, getInt(Pwm.mDockBottom) - getInt(Pwm.mRestrictedOverscanScreenTop));
                                             } else {
                                                 // We currently want to hide the navigation UI.
-                                                XposedHelpers.callMethod(navBarCtrl, "setBarShowingLw", false);
+                                                BarCtrl.setBarShowingLw.invoke(navBarCtrl, false);
                                             }
-                                            if (navVisible && !navTranslucent && !(Boolean) XposedHelpers.callMethod(navBar, "isAnimatingLw")
-                                                    && !(Boolean) XposedHelpers.callMethod(navBarCtrl, "wasRecentlyTranslucent")) {
+                                            if (navVisible && !navTranslucent && !(Boolean) WinState.isAnimatingLw.invoke(navBar)
+                                                    && !(Boolean) BarCtrl.wasRecentlyTranslucent.invoke(navBarCtrl)) {
                                                 // If the opaque nav bar is currently requested to be visible,
                                                 // and not in the process of animating on or off, then
                                                 // we can tell the app that it is covered by it.
-                                                setInt("mSystemBottom", val);
+                                                setInt(Pwm.mSystemBottom, val);
                                             }
                                         } else if (mNavbarLeftHanded && !isNavbarHidden()) {
                                             // Landscape screen; nav bar goes to the left.
                                             int right = overscanLeft +
-                                                    getIntArray("mNavigationBarWidthForRotationDefault")[displayRotation];
-                                            getRect("mTmpNavigationFrame").set(0, 0, right, displayHeight);
-                                            val = getRect("mTmpNavigationFrame").right;
-                                            setInt("mStableLeft", val);
+                                                    getIntArray(Pwm.mNavigationBarWidthForRotationDefault)[displayRotation];
+                                            getRect(Pwm.mTmpNavigationFrame).set(0, 0, right, displayHeight);
+                                            val = getRect(Pwm.mTmpNavigationFrame).right;
+                                            setInt(Pwm.mStableLeft, val);
                                             if (!isNavbarImmersive()) {
-                                                setInt("mStableFullscreenLeft", val);
+                                                setInt(Pwm.mStableFullscreenLeft, val);
                                             }
                                             if (transientNavBarShowing
                                                     || (navVisible && isNavbarImmersive())) {
-                                                XposedHelpers.callMethod(navBarCtrl, "setBarShowingLw", true);
+                                                BarCtrl.setBarShowingLw.invoke(navBarCtrl, true);
                                             } else if (navVisible) {
-                                                XposedHelpers.callMethod(navBarCtrl, "setBarShowingLw", true);
-                                                setInt("mDockLeft", val);
-                                                setInt("mRestrictedScreenLeft", getInt("mDockLeft"));
-                                                setInt("mRestrictedScreenWidth", getInt("mDockRight") -
-                                                        getInt("mRestrictedScreenLeft"));
-                                                setInt("mRestrictedOverscanScreenLeft", getInt("mRestrictedScreenLeft"));
-                                                setInt("mRestrictedOverscanScreenWidth", getInt("mDockRight")
-                                                        - getInt("mRestrictedOverscanScreenLeft"));
+                                                BarCtrl.setBarShowingLw.invoke(navBarCtrl, true);
+                                                setInt(Pwm.mDockLeft, val);
+                                                setInt(Pwm.mRestrictedScreenLeft, getInt(Pwm.mDockLeft));
+                                                setInt(Pwm.mRestrictedScreenWidth, getInt(Pwm.mDockRight) -
+                                                        getInt(Pwm.mRestrictedScreenLeft));
+                                                setInt(Pwm.mRestrictedOverscanScreenLeft, getInt(Pwm.mRestrictedScreenLeft));
+                                                setInt(Pwm.mRestrictedOverscanScreenWidth, getInt(Pwm.mDockRight)
+                                                        - getInt(Pwm.mRestrictedOverscanScreenLeft));
                                             } else {
                                                 // We currently want to hide the navigation UI.
-                                                XposedHelpers.callMethod(navBarCtrl, "setBarShowingLw", false);
+                                                BarCtrl.setBarShowingLw.invoke(navBarCtrl, false);
                                             }
 
                                             if (navVisible && !navTranslucent && !navAllowedHidden &&
-                                                    !(Boolean) XposedHelpers.callMethod(navBar, "isAnimatingLw")
-                                                    && !(Boolean) XposedHelpers.callMethod(navBarCtrl, "wasRecentlyTranslucent")) {
+                                                    !(Boolean) WinState.isAnimatingLw.invoke(navBar)
+                                                    && !(Boolean) BarCtrl.wasRecentlyTranslucent.invoke(navBarCtrl)) {
                                                 // If the nav bar is currently requested to be visible,
                                                 // and not in the process of animating on or off, then
                                                 // we can tell the app that it is covered by it.
-                                                setInt("mSystemLeft", val);
+                                                setInt(Pwm.mSystemLeft, val);
                                             }
                                         } else {
                                             // Landscape screen; nav bar goes to the right.
                                             int left = displayWidth - overscanRight
-                                                    - getIntArray("mNavigationBarWidthForRotationDefault")[displayRotation];
-                                            getRect("mTmpNavigationFrame").set(left, 0, displayWidth - overscanRight, displayHeight);
-                                            val = getRect("mTmpNavigationFrame").left;
-                                            setInt("mStableRight", val);
+                                                    - getIntArray(Pwm.mNavigationBarWidthForRotationDefault)[displayRotation];
+                                            getRect(Pwm.mTmpNavigationFrame).set(left, 0, displayWidth - overscanRight, displayHeight);
+                                            val = getRect(Pwm.mTmpNavigationFrame).left;
+                                            setInt(Pwm.mStableRight, val);
                                             if (!isNavbarImmersive()) {
-                                                setInt("mStableFullscreenRight", val);
+                                                setInt(Pwm.mStableFullscreenRight, val);
                                             }
                                             if (transientNavBarShowing
                                                     || (navVisible && isNavbarImmersive())) {
-                                                XposedHelpers.callMethod(navBarCtrl, "setBarShowingLw", true);
+                                                BarCtrl.setBarShowingLw.invoke(navBarCtrl, true);
                                             } else if (navVisible) {
-                                                XposedHelpers.callMethod(navBarCtrl, "setBarShowingLw", true);
-                                                setInt("mDockRight", val);
-                                                setInt("mRestrictedScreenWidth", getInt("mDockRight") - getInt("mRestrictedScreenLeft"));
-                                                setInt("mRestrictedOverscanScreenWidth", getInt("mDockRight") - getInt("mRestrictedOverscanScreenLeft"));
+                                                BarCtrl.setBarShowingLw.invoke(navBarCtrl, true);
+                                                setInt(Pwm.mDockRight, val);
+                                                setInt(Pwm.mRestrictedScreenWidth, getInt(Pwm.mDockRight) - getInt(Pwm.mRestrictedScreenLeft));
+                                                setInt(Pwm.mRestrictedOverscanScreenWidth, getInt(Pwm.mDockRight) - getInt(Pwm.mRestrictedOverscanScreenLeft));
                                             } else {
                                                 // We currently want to hide the navigation UI.
-                                                XposedHelpers.callMethod(navBarCtrl, "setBarShowingLw", false);
+                                                BarCtrl.setBarShowingLw.invoke(navBarCtrl, false);
                                             }
-                                            if (navVisible && !navTranslucent && !(Boolean) XposedHelpers.callMethod(navBar, "isAnimatingLw")
-                                                    && !(Boolean) XposedHelpers.callMethod(navBarCtrl, "wasRecentlyTranslucent")) {
+                                            if (navVisible && !navTranslucent && !(Boolean) WinState.isAnimatingLw.invoke(navBar)
+                                                    && !(Boolean) BarCtrl.wasRecentlyTranslucent.invoke(navBarCtrl)) {
                                                 // If the nav bar is currently requested to be visible,
                                                 // and not in the process of animating on or off, then
                                                 // we can tell the app that it is covered by it.
-                                                setInt("mSystemRight", val);
+                                                setInt(Pwm.mSystemRight, val);
                                             }
                                         }
                                         // Make sure the content and current rectangles are updated to
                                         // account for the restrictions from the navigation bar.
-                                        val = getInt("mDockTop");
-                                        setInt("mContentTop", val);
-                                        setInt("mCurTop", val);
-                                        setInt("mVoiceContentTop", val);
-                                        val = getInt("mDockBottom");
-                                        setInt("mContentBottom", val);
-                                        setInt("mCurBottom", val);
-                                        setInt("mVoiceContentBottom", val);
-                                        val = getInt("mDockLeft");
-                                        setInt("mContentLeft", val);
-                                        setInt("mCurLeft", val);
-                                        setInt("mVoiceContentLeft", val);
-                                        val = getInt("mDockRight");
-                                        setInt("mContentRight", val);
-                                        setInt("mCurRight", val);
-                                        setInt("mVoiceContentRight", val);
-                                        setInt("mStatusBarLayer", (Integer) XposedHelpers.callMethod(navBar, "getSurfaceLayer"));
+                                        val = getInt(Pwm.mDockTop);
+                                        setInt(Pwm.mContentTop, val);
+                                        setInt(Pwm.mCurTop, val);
+                                        setInt(Pwm.mVoiceContentTop, val);
+                                        val = getInt(Pwm.mDockBottom);
+                                        setInt(Pwm.mContentBottom, val);
+                                        setInt(Pwm.mCurBottom, val);
+                                        setInt(Pwm.mVoiceContentBottom, val);
+                                        val = getInt(Pwm.mDockLeft);
+                                        setInt(Pwm.mContentLeft, val);
+                                        setInt(Pwm.mCurLeft, val);
+                                        setInt(Pwm.mVoiceContentLeft, val);
+                                        val = getInt(Pwm.mDockRight);
+                                        setInt(Pwm.mContentRight, val);
+                                        setInt(Pwm.mCurRight, val);
+                                        setInt(Pwm.mVoiceContentRight, val);
+                                        setInt(Pwm.mStatusBarLayer, (Integer) WinState.getSurfaceLayer.invoke(navBar));
                                         // And compute the final frame.
-                                        Object nf = getObj("mTmpNavigationFrame");
-                                        XposedHelpers.callMethod(navBar, "computeFrameLw", nf, nf, nf, nf, nf, dcf, nf, nf);
+                                        Object nf = getObj(Pwm.mTmpNavigationFrame);
+                                        WinState.computeFrameLw.invoke(navBar, nf, nf, nf, nf, nf, dcf, nf, nf);
                                         if (DEBUG_LAYOUT) log("mNavigationBar frame: " + nf);
-                                        if ((Boolean) XposedHelpers.callMethod(navBarCtrl, "checkHiddenLw")) {
+                                        if ((Boolean) BarCtrl.checkHiddenLw.invoke(navBarCtrl)) {
                                             updateSysUiVisibility = true;
                                         }
                                     }
                                     if (DEBUG_LAYOUT)
                                         log(String.format("mDock rect: (%d,%d - %d,%d)",
-                                                getInt("mDockLeft"), getInt("mDockTop"), getInt("mDockRight"), getInt("mDockBottom")));
+                                                getInt(Pwm.mDockLeft), getInt(Pwm.mDockTop), getInt(Pwm.mDockRight), getInt(Pwm.mDockBottom)));
 
                                     // decide where the status bar goes ahead of time
-                                    Object statusBar = getObj("mStatusBar");
+                                    Object statusBar = getObj(Pwm.mStatusBar);
                                     if (statusBar != null) {
                                         // apply any navigation bar insets
-                                        pf.left = df.left = of.left = getInt("mUnrestrictedScreenLeft");
-                                        pf.top = df.top = of.top = getInt("mUnrestrictedScreenTop");
-                                        pf.right = df.right = of.right = getInt("mUnrestrictedScreenWidth") + getInt("mUnrestrictedScreenLeft");
-                                        pf.bottom = df.bottom = of.bottom = getInt("mUnrestrictedScreenHeight")
-                                                + getInt("mUnrestrictedScreenTop");
-                                        vf.left = getInt("mStableLeft");
-                                        vf.top = getInt("mStableTop");
-                                        vf.right = getInt("mStableRight");
-                                        vf.bottom = getInt("mStableBottom");
-
-                                        setInt("mStatusBarLayer", (Integer) XposedHelpers.callMethod(statusBar, "getSurfaceLayer"));
+                                        pf.left = df.left = of.left = getInt(Pwm.mUnrestrictedScreenLeft);
+                                        pf.top = df.top = of.top = getInt(Pwm.mUnrestrictedScreenTop);
+                                        pf.right = df.right = of.right = getInt(Pwm.mUnrestrictedScreenWidth) + getInt(Pwm.mUnrestrictedScreenLeft);
+                                        pf.bottom = df.bottom = of.bottom = getInt(Pwm.mUnrestrictedScreenHeight)
+                                                + getInt(Pwm.mUnrestrictedScreenTop);
+                                        vf.left = getInt(Pwm.mStableLeft);
+                                        vf.top = getInt(Pwm.mStableTop);
+                                        vf.right = getInt(Pwm.mStableRight);
+                                        vf.bottom = getInt(Pwm.mStableBottom);
+
+                                        setInt(Pwm.mStatusBarLayer, (Integer) WinState.getSurfaceLayer.invoke(statusBar));
 
                                         // Let the status bar determine its size.
-                                        XposedHelpers.callMethod(statusBar, "computeFrameLw", pf, df, vf, vf, vf, dcf, vf, vf);
+                                        WinState.computeFrameLw.invoke(statusBar, pf, df, vf, vf, vf, dcf, vf, vf);
 
                                         // For layout, the status bar is always at the top with our fixed height.
-                                        setInt("mStableTop", getInt("mUnrestrictedScreenTop") + getInt("mStatusBarHeight"));
+                                        setInt(Pwm.mStableTop, getInt(Pwm.mUnrestrictedScreenTop) + getInt(Pwm.mStatusBarHeight));
 
                                         boolean statusBarTransient = (sysui & ViewConst.STATUS_BAR_TRANSIENT) != 0;
                                         boolean statusBarTranslucent = (sysui &
@@ -717,50 +872,50 @@ public class ModExpandedDesktop {
 
                                         // If the status bar is hidden, we don't want to cause
                                         // windows behind it to scroll.
-                                        if ((Boolean) XposedHelpers.callMethod(statusBar, "isVisibleLw") && !statusBarTransient
+                                        if ((Boolean) WinState.isVisibleLw.invoke(statusBar) && !statusBarTransient
                                                 && !isStatusbarImmersive()) {
                                             // Status bar may go away, so the screen area it occupies
                                             // is available to apps but just covering them when the
                                             // status bar is visible.
-                                            setInt("mDockTop", getInt("mUnrestrictedScreenTop") + getInt("mStatusBarHeight"));
-
-                                            val = getInt("mDockTop");
-                                            setInt("mContentTop", val);
-                                            setInt("mCurTop", val);
-                                            setInt("mVoiceContentTop", val);
-                                            val = getInt("mDockBottom");
-                                            setInt("mContentBottom", val);
-                                            setInt("mCurBottom", val);
-                                            setInt("mVoiceContentBottom", val);
-                                            val = getInt("mDockLeft");
-                                            setInt("mContentLeft", val);
-                                            setInt("mCurLeft", val);
-                                            setInt("mVoiceContentLeft", val);
-                                            val = getInt("mDockRight");
-                                            setInt("mContentRight", val);
-                                            setInt("mCurRight", val);
-                                            setInt("mVoiceContentRight", val);
+                                            setInt(Pwm.mDockTop, getInt(Pwm.mUnrestrictedScreenTop) + getInt(Pwm.mStatusBarHeight));
+
+                                            val = getInt(Pwm.mDockTop);
+                                            setInt(Pwm.mContentTop, val);
+                                            setInt(Pwm.mCurTop, val);
+                                            setInt(Pwm.mVoiceContentTop, val);
+                                            val = getInt(Pwm.mDockBottom);
+                                            setInt(Pwm.mContentBottom, val);
+                                            setInt(Pwm.mCurBottom, val);
+                                            setInt(Pwm.mVoiceContentBottom, val);
+                                            val = getInt(Pwm.mDockLeft);
+                                            setInt(Pwm.mContentLeft, val);
+                                            setInt(Pwm.mCurLeft, val);
+                                            setInt(Pwm.mVoiceContentLeft, val);
+                                            val = getInt(Pwm.mDockRight);
+                                            setInt(Pwm.mContentRight, val);
+                                            setInt(Pwm.mCurRight, val);
+                                            setInt(Pwm.mVoiceContentRight, val);
 
                                             if (DEBUG_LAYOUT) log("Status bar: " +
                                                     String.format(
                                                             "dock=[%d,%d][%d,%d] content=[%d,%d][%d,%d] cur=[%d,%d][%d,%d]",
-                                                            getInt("mDockLeft"), getInt("mDockTop"), getInt("mDockRight"), getInt("mDockBottom"),
-                                                            getInt("mContentLeft"), getInt("mContentTop"),
-                                                            getInt("mContentRight"), getInt("mContentBottom"),
-                                                            getInt("mCurLeft"), getInt("mCurTop"), getInt("mCurRight"), getInt("mCurBottom")));
+                                                            getInt(Pwm.mDockLeft), getInt(Pwm.mDockTop), getInt(Pwm.mDockRight), getInt(Pwm.mDockBottom),
+                                                            getInt(Pwm.mContentLeft), getInt(Pwm.mContentTop),
+                                                            getInt(Pwm.mContentRight), getInt(Pwm.mContentBottom),
+                                                            getInt(Pwm.mCurLeft), getInt(Pwm.mCurTop), getInt(Pwm.mCurRight), getInt(Pwm.mCurBottom)));
                                         }
-                                        Object sbCtrl = getObj("mStatusBarController");
-                                        if ((Boolean) XposedHelpers.callMethod(statusBar, "isVisibleLw") &&
-                                                !(Boolean) XposedHelpers.callMethod(statusBar, "isAnimatingLw")
+                                        Object sbCtrl = getObj(Pwm.mStatusBarController);
+                                        if ((Boolean) WinState.isVisibleLw.invoke(statusBar) &&
+                                                !(Boolean) WinState.isAnimatingLw.invoke(statusBar)
                                                 && !statusBarTransient && !statusBarTranslucent
-                                                && !(Boolean) XposedHelpers.callMethod(sbCtrl, "wasRecentlyTranslucent")
+                                                && !(Boolean) BarCtrl.wasRecentlyTranslucent.invoke(sbCtrl)
                                                 && !isStatusbarImmersive()) {
                                             // If the opaque status bar is currently requested to be visible,
                                             // and not in the process of animating on or off, then
                                             // we can tell the app that it is covered by it.
-                                            setInt("mSystemTop", getInt("mUnrestrictedScreenTop") + getInt("mStatusBarHeight"));
+                                            setInt(Pwm.mSystemTop, getInt(Pwm.mUnrestrictedScreenTop) + getInt(Pwm.mStatusBarHeight));
                                         }
-                                        if ((Boolean) XposedHelpers.callMethod(sbCtrl, "checkHiddenLw")) {
+                                        if ((Boolean) BarCtrl.checkHiddenLw.invoke(sbCtrl)) {
                                             updateSysUiVisibility = true;
                                         }
                                     }
@@ -792,42 +947,31 @@ public class ModExpandedDesktop {
                         protected void beforeHookedMethod(final MethodHookParam param) throws Throwable {
                             if (isImmersiveModeActive()) {
                                 WindowManager.LayoutParams attrs = (WindowManager.LayoutParams)
-                                        XposedHelpers.callMethod(param.args[0], "getAttrs");
+                                        WinState.getAttrs.invoke(param.args[0]);
                                 if (attrs.type == WindowManager.LayoutParams.TYPE_INPUT_METHOD) {
                                     if (mNavbarLeftHanded) {
-                                        param.setObjectExtra("gbDockLeft", Integer.valueOf(getInt("mDockLeft")));
-                                        setInt("mDockLeft", getInt("mStableLeft"));
+                                        param.setObjectExtra("gbDockLeft", Integer.valueOf(getInt(Pwm.mDockLeft)));
+                                        setInt(Pwm.mDockLeft, getInt(Pwm.mStableLeft));
                                     } else {
-                                        param.setObjectExtra("gbDockRight", Integer.valueOf(getInt("mDockRight")));
-                                        setInt("mDockRight", getInt("mStableRight"));
+                                        param.setObjectExtra("gbDockRight", Integer.valueOf(getInt(Pwm.mDockRight)));
+                                        setInt(Pwm.mDockRight, getInt(Pwm.mStableRight));
                                     }
                                 }
-                                if (DEBUG_LAYOUT)
-                                    log("layoutWindowLw: hooking WindowState.getSystemUiVisibility()");
-                                mGetSystemUiVisibilityHook = XposedHelpers.findAndHookMethod(
-                                        param.args[0].getClass(), "getSystemUiVisibility", new XC_MethodHook() {
-                                            @Override
-                                            protected void beforeHookedMethod(final MethodHookParam param2) throws Throwable {
-                                                int vis = XposedHelpers.getIntField(param2.thisObject, "mSystemUiVisibility");
-                                                param2.setResult(updateSystemUiVisibilityFlagsForExpandedDesktop(vis));
-                                            }
-                                        });
+                                hookGetSystemUiVisibility(param.args[0].getClass());
+                                mImmersiveLayoutThread = Thread.currentThread();
                             }
                         }
 
                         @Override
                         protected void afterHookedMethod(final MethodHookParam param) throws Throwable {
-                            if (mGetSystemUiVisibilityHook != null) {
-                                if (DEBUG_LAYOUT)
-                                    log("layoutWindowLw: unhooking WindowState.getSystemUiVisibility()");
-                                mGetSystemUiVisibilityHook.unhook();
-                                mGetSystemUiVisibilityHook = null;
+                            if (mImmersiveLayoutThread == Thread.currentThread()) {
+                                mImmersiveLayoutThread = null;
                             }
                             if (param.getObjectExtra("gbDockRight") != null) {
-                                setInt("mDockRight", (Integer) param.getObjectExtra("gbDockRight"));
+                                setInt(Pwm.mDockRight, (Integer) param.getObjectExtra("gbDockRight"));
                             }
                             if (param.getObjectExtra("gbDockLeft") != null) {
-                                setInt("mDockLeft", (Integer) param.getObjectExtra("gbDockLeft"));
+                                setInt(Pwm.mDockLeft, (Integer) param.getObjectExtra("gbDockLeft"));
                             }
                         }
                     });
@@ -838,10 +982,10 @@ public class ModExpandedDesktop {
                     if (isImmersiveModeActive()) {
                         if (DEBUG_LAYOUT)
                             log("finishPostLayoutPolicyLw: mangling forceStatusBar flags");
-                        param.setObjectExtra("gbForceStatusbar", Boolean.valueOf(getBool("mForceStatusBar")));
-                        param.setObjectExtra("gbForceStatusbarFromKeyguard", Boolean.valueOf(getBool("mForceStatusBarFromKeyguard")));
-                        setBool("mForceStatusBar", false);
-                        setBool("mForceStatusBarFromKeyguard", false);
+                        param.setObjectExtra("gbForceStatusbar", Boolean.valueOf(getBool(Pwm.mForceStatusBar)));
+                        param.setObjectExtra("gbForceStatusbarFromKeyguard", Boolean.valueOf(getBool(Pwm.mForceStatusBarFromKeyguard)));
+                        setBool(Pwm.mForceStatusBar, false);
+                        setBool(Pwm.mForceStatusBarFromKeyguard, false);
                     }
                 }
 
@@ -850,13 +994,14 @@ public class ModExpandedDesktop {
                     if (param.getObjectExtra("gbForceStatusbar") != null) {
                         if (DEBUG_LAYOUT)
                             log("finishPostLayoutPolicyLw: unmangling forceStatusBar flags");
-                        setBool("mForceStatusBar", (Boolean) param.getObjectExtra("gbForceStatusbar"));
-                        setBool("mForceStatusBarFromKeyguard", (Boolean) param.getObjectExtra("gbForceStatusbarFromKeyguard"));
+                        setBool(Pwm.mForceStatusBar, (Boolean) param.getObjectExtra("gbForceStatusbar"));
+                        setBool(Pwm.mForceStatusBarFromKeyguard, (Boolean) param.getObjectExtra("gbForceStatusbarFromKeyguard"));
                     }
                 }
             });
 
-            XposedHelpers.findAndHookMethod(classPhoneWindowManager, "updateSystemUiVisibilityLw", new XC_MethodReplacement() {
+            mUpdateSystemUiVisibilityHook = new ReplacementHook(XposedHelpers.findMethodExact(
+                    classPhoneWindowManager, "updateSystemUiVisibilityLw"), new XC_MethodReplacement() {
                 @Override
                 protected Object replaceHookedMethod(final MethodHookParam param) throws Throwable {
                     if (DEBUG_LAYOUT) log("updateSystemUiVisibilityLw");
@@ -867,16 +1012,16 @@ public class ModExpandedDesktop {
 
                         // If there is no window focused, there will be nobody to handle the events
                         // anyway, so just hang on in whatever state we're in until things settle down.
-                        final Object win = getObj("mFocusedWindow") != null ?
-                                getObj("mFocusedWindow") : getObj("mTopFullscreenOpaqueWindowState");
+                        final Object win = getObj(Pwm.mFocusedWindow) != null ?
+                                getObj(Pwm.mFocusedWindow) : getObj(Pwm.mTopFullscreenOpaqueWindowState);
                         if (win == null) {
                             return 0;
                         }
-                        Object winAttrs = XposedHelpers.callMethod(win, "getAttrs");
-                        final int privateFlags = XposedHelpers.getIntField(winAttrs, "privateFlags");
-                        final int windowType = XposedHelpers.getIntField(winAttrs, "type");
+                        WindowManager.LayoutParams winAttrs = (WindowManager.LayoutParams) WinState.getAttrs.invoke(win);
+                        final int privateFlags = Lp.privateFlags.getInt(winAttrs);
+                        final int windowType = winAttrs.type;
                         if ((privateFlags & WmLp.PRIVATE_FLAG_KEYGUARD) != 0 &&
-                                getBool("mHideLockScreen") == true) {
+                                getBool(Pwm.mHideLockScreen) == true) {
                             // We are updating at a point where the keyguard has gotten
                             // focus, but we were last in a state where the top window is
                             // hiding it.  This is probably because the keyguard as been
@@ -886,17 +1031,17 @@ public class ModExpandedDesktop {
                             return 0;
                         }
 
-                        int tmpVisibility = (Integer) XposedHelpers.callMethod(win, "getSystemUiVisibility")
-                                & ~getInt("mResettingSystemUiFlags")
-                                & ~getInt("mForceClearedSystemUiFlags");
+                        int tmpVisibility = (Integer) WinState.getSystemUiVisibility.invoke(win)
+                                & ~getInt(Pwm.mResettingSystemUiFlags)
+                                & ~getInt(Pwm.mForceClearedSystemUiFlags);
                         tmpVisibility = updateSystemUiVisibilityFlagsForExpandedDesktop(tmpVisibility);
                         final boolean subWindowInExpandedMode = isNavbarImmersive()
                                 && (windowType >= WindowManager.LayoutParams.FIRST_SUB_WINDOW
                                 && windowType <= WindowManager.LayoutParams.LAST_SUB_WINDOW);
                         final boolean wasCleared = mClearedBecauseOfForceShow;
 
-                        if (getBool("mForcingShowNavBar") &&
-                                ((Integer) XposedHelpers.callMethod(win, "getSurfaceLayer") < getInt("mForcingShowNavBarLayer")
+                        if (getBool(Pwm.mForcingShowNavBar) &&
+                                ((Integer) WinState.getSurfaceLayer.invoke(win) < getInt(Pwm.mForcingShowNavBarLayer)
                                         || subWindowInExpandedMode)) {
                             int clearableFlags = ViewConst.SYSTEM_UI_CLEARABLE_FLAGS;
                             if (isStatusbarImmersive()) {
@@ -911,29 +1056,29 @@ public class ModExpandedDesktop {
                             mClearedBecauseOfForceShow = false;
                         }
                         int visibility = (Integer) mUpdateSystemBarsLw.invoke(param.thisObject,
-                                win, getInt("mLastSystemUiFlags"), tmpVisibility);
-                        final int diff = visibility ^ getInt("mLastSystemUiFlags");
-                        final boolean needsMenu = (Boolean) XposedHelpers.callMethod(win, "getNeedsMenuLw",
-                                getObj("mTopFullscreenOpaqueWindowState"));
-                        if (diff == 0 && getBool("mLastFocusNeedsMenu") == needsMenu
-                                && getObj("mFocusedApp") == XposedHelpers.callMethod(win, "getAppToken")) {
+                                win, getInt(Pwm.mLastSystemUiFlags), tmpVisibility);
+                        final int diff = visibility ^ getInt(Pwm.mLastSystemUiFlags);
+                        final boolean needsMenu = (Boolean) WinState.getNeedsMenuLw.invoke(win,
+                                getObj(Pwm.mTopFullscreenOpaqueWindowState));
+                        if (diff == 0 && getBool(Pwm.mLastFocusNeedsMenu) == needsMenu
+                                && getObj(Pwm.mFocusedApp) == WinState.getAppToken.invoke(win)) {
                             return 0;
                         }
                         if (wasCleared && !mClearedBecauseOfForceShow
                                 && (visibility & View.SYSTEM_UI_FLAG_HIDE_NAVIGATION) != 0) {
-                            Object navBarCtrl = getObj("mNavigationBarController");
-                            XposedHelpers.callMethod(navBarCtrl, "showTransient");
+                            Object navBarCtrl = getObj(Pwm.mNavigationBarController);
+                            BarCtrl.showTransient.invoke(navBarCtrl);
                             visibility |= ViewConst.NAVIGATION_BAR_TRANSIENT;
-                            Object wmFuncs = getObj("mWindowManagerFuncs");
-                            int lastSbVis = XposedHelpers.getIntField(wmFuncs, "mLastStatusBarVisibility") |
-                                    ViewConst.NAVIGATION_BAR_TRANSIENT;
-                            XposedHelpers.setIntField(wmFuncs, "mLastStatusBarVisibility", lastSbVis);
+                            Object wmFuncs = getObj(Pwm.mWindowManagerFuncs);
+                            WmFuncs.mLastStatusBarVisibility.setInt(wmFuncs,
+                                    WmFuncs.mLastStatusBarVisibility.getInt(wmFuncs) |
+                                            ViewConst.NAVIGATION_BAR_TRANSIENT);
                         }
                         final int visibility2 = visibility;
-                        setInt("mLastSystemUiFlags", visibility);
-                        setBool("mLastFocusNeedsMenu", needsMenu);
-                        setObj("mFocusedApp", XposedHelpers.callMethod(win, "getAppToken"));
-                        Handler h = (Handler) getObj("mHandler");
+                        setInt(Pwm.mLastSystemUiFlags, visibility);
+                        setBool(Pwm.mLastFocusNeedsMenu, needsMenu);
+                        setObj(Pwm.mFocusedApp, WinState.getAppToken.invoke(win));
+                        Handler h = (Handler) getObj(Pwm.mHandler);
                         h.post(new Runnable() {
                             @Override
                             public void run() {
@@ -946,7 +1091,7 @@ public class ModExpandedDesktop {
                                     }
                                 } catch (Throwable t) {
                                     // re-acquire status bar service next time it is needed.
-                                    setObj("mStatusBarService", null);
+                                    setObj(Pwm.mStatusBarService, null);
                                 }
                             }
                         });
@@ -962,7 +1107,7 @@ public class ModExpandedDesktop {
                     CLASS_POLICY_WINDOW_STATE, new XC_MethodHook() {
                         @Override
                         protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
-                            if (param.args[0] == XposedHelpers.getObjectField(param.thisObject, "mNavigationBar")
+                            if (param.args[0] == getObj(Pwm.mNavigationBar)
                                     && isNavbarHidden()) {
                                 if (DEBUG)
                                     log("requestTransientBars: ignoring since navbar is hidden");
@@ -990,18 +1135,17 @@ public class ModExpandedDesktop {
                             @Override
                             protected void afterHookedMethod(MethodHookParam param) throws Throwable {
                                 if ((Integer) param.getResult() == 0 && !isNavbarHidden()) {
-                                    final float fromX = ((float[]) XposedHelpers.getObjectField(
-                                            param.thisObject, "mDownX"))[(Integer) param.args[0]];
+                                    final Object gestures = param.thisObject;
+                                    final int index = (Integer) param.args[0];
+                                    final float fromX = ((float[]) Gestures.mDownX.get(gestures))[index];
                                     final long elapsed = (Long) param.args[1] -
-                                            ((long[]) XposedHelpers.getObjectField(
-                                                    param.thisObject, "mDownTime"))[(Integer) param.args[0]];
-                                    if (fromX <= XposedHelpers.getIntField(param.thisObject, "mSwipeStartThreshold") &&
-                                            (Float) param.args[2] > fromX + XposedHelpers.getIntField(
-                                                    param.thisObject, "mSwipeDistanceThreshold") &&
-                                            elapsed < XposedHelpers.getStaticLongField(param.thisObject.getClass(),
-                                                    "SWIPE_TIMEOUT_MS")) {
-                                        Object navBar = getObj("mNavigationBar");
-                                        if (navBar != null && !getBool("mNavigationBarOnBottom")) {
+                                            ((long[]) Gestures.mDownTime.get(gestures))[index];
+                                    if (fromX <= Gestures.mSwipeStartThreshold.getInt(gestures) &&
+                                            (Float) param.args[2] > fromX +
+                                                    Gestures.mSwipeDistanceThreshold.getInt(gestures) &&
+                                            elapsed < Gestures.SWIPE_TIMEOUT_MS.getLong(null)) {
+                                        Object navBar = getObj(Pwm.mNavigationBar);
+                                        if (navBar != null && !getBool(Pwm.mNavigationBarOnBottom)) {
                                             mRequestTransientBars.invoke(mPhoneWindowManager, navBar);
                                         }
                                     }
@@ -1009,6 +1153,9 @@ public class ModExpandedDesktop {
                             }
                         });
             }
+
+            // replacements get hooked once settings say they are needed
+            updateReplacementHooks();
         } catch (Throwable t) {
             XposedBridge.log(t);
         }
@@ -1032,7 +1179,7 @@ public class ModExpandedDesktop {
 
                 final int fl = updateWindowManagerVisibilityFlagsForExpandedDesktop(attrs.flags);
                 final int systemUiVisibility = updateSystemUiVisibilityFlagsForExpandedDesktop(attrs.systemUiVisibility |
-                        XposedHelpers.getIntField(attrs, "subtreeSystemUiVisibility"));
+                        Lp.subtreeSystemUiVisibility.getInt(attrs));
 
                 final boolean useOutsets = outOutsets != null &&
                         (boolean) mShouldUseOutsets.invoke(param.thisObject, attrs, fl);
@@ -1057,36 +1204,36 @@ public class ModExpandedDesktop {
                     int availRight, availBottom;
                     if ((Boolean) mCanHideNavigationBar.invoke(param.thisObject) &&
                             (systemUiVisibility & View.SYSTEM_UI_FLAG_LAYOUT_HIDE_NAVIGATION) != 0) {
-                        availRight = getInt("mUnrestrictedScreenLeft") + getInt("mUnrestrictedScreenWidth");
-                        availBottom = getInt("mUnrestrictedScreenTop") + getInt("mUnrestrictedScreenHeight");
+                        availRight = getInt(Pwm.mUnrestrictedScreenLeft) + getInt(Pwm.mUnrestrictedScreenWidth);
+                        availBottom = getInt(Pwm.mUnrestrictedScreenTop) + getInt(Pwm.mUnrestrictedScreenHeight);
                     } else {
-                        availRight = getInt("mRestrictedScreenLeft") + getInt("mRestrictedScreenWidth");
-                        availBottom = getInt("mRestrictedScreenTop") + getInt("mRestrictedScreenHeight");
+                        availRight = getInt(Pwm.mRestrictedScreenLeft) + getInt(Pwm.mRestrictedScreenWidth);
+                        availBottom = getInt(Pwm.mRestrictedScreenTop) + getInt(Pwm.mRestrictedScreenHeight);
                     }
                     if ((systemUiVisibility & View.SYSTEM_UI_FLAG_LAYOUT_STABLE) != 0) {
                         if ((fl & WmLp.FLAG_FULLSCREEN) != 0) {
-                            contentInset.set(getInt("mStableFullscreenLeft"), getInt("mStableFullscreenTop"),
-                                    availRight - getInt("mStableFullscreenRight"),
-                                    availBottom - getInt("mStableFullscreenBottom"));
+                            contentInset.set(getInt(Pwm.mStableFullscreenLeft), getInt(Pwm.mStableFullscreenTop),
+                                    availRight - getInt(Pwm.mStableFullscreenRight),
+                                    availBottom - getInt(Pwm.mStableFullscreenBottom));
                         } else {
-                            contentInset.set(getInt("mStableLeft"), getInt("mStableTop"),
-                                    availRight - getInt("mStableRight"), availBottom - getInt("mStableBottom"));
+                            contentInset.set(getInt(Pwm.mStableLeft), getInt(Pwm.mStableTop),
+                                    availRight - getInt(Pwm.mStableRight), availBottom - getInt(Pwm.mStableBottom));
                         }
                     } else if ((fl & WmLp.FLAG_FULLSCREEN) != 0 || (fl & WmLp.FLAG_LAYOUT_IN_OVERSCAN) != 0) {
                         contentInset.setEmpty();
                     } else if ((systemUiVisibility & (View.SYSTEM_UI_FLAG_FULLSCREEN
                             | View.SYSTEM_UI_FLAG_LAYOUT_FULLSCREEN)) == 0) {
-                        contentInset.set(getInt("mCurLeft"), getInt("mCurTop"),
-                                availRight - getInt("mCurRight"), availBottom - getInt("mCurBottom"));
+                        contentInset.set(getInt(Pwm.mCurLeft), getInt(Pwm.mCurTop),
+                                availRight - getInt(Pwm.mCurRight), availBottom - getInt(Pwm.mCurBottom));
                     } else {
-                        contentInset.set(getInt("mCurLeft"), getInt("mCurTop"),
-                                availRight - getInt("mCurRight"), availBottom - getInt("mCurBottom"));
+                        contentInset.set(getInt(Pwm.mCurLeft), getInt(Pwm.mCurTop),
+                                availRight - getInt(Pwm.mCurRight), availBottom - getInt(Pwm.mCurBottom));
                     }
 
                     if (stableInset != null) {
-                        stableInset.set(getInt("mStableLeft"), getInt("mStableTop"),
-                                availRight - getInt("mStableRight"),
-                                availBottom - getInt("mStableBottom"));
+                        stableInset.set(getInt(Pwm.mStableLeft), getInt(Pwm.mStableTop),
+                                availRight - getInt(Pwm.mStableRight),
+                                availBottom - getInt(Pwm.mStableBottom));
                     }
 
                     return null;
@@ -1103,39 +1250,96 @@ public class ModExpandedDesktop {
         }
     };
 
-    // helpers
-    private static int getInt(String field) {
-        return XposedHelpers.getIntField(mPhoneWindowManager, field);
+    private static void hookGetSystemUiVisibility(Class<?> windowStateClass) {
+        synchronized (mSysUiVisHookedClasses) {
+            if (mSysUiVisHookedClasses.add(windowStateClass)) {
+                if (DEBUG_LAYOUT)
+                    log("hooking " + windowStateClass.getName() + ".getSystemUiVisibility()");
+                final Field sysUiVisField = XposedHelpers.findField(windowStateClass, "mSystemUiVisibility");
+                XposedHelpers.findAndHookMethod(windowStateClass, "getSystemUiVisibility",
+                        new XC_MethodHook() {
+                            @Override
+                            protected void beforeHookedMethod(final MethodHookParam param) throws Throwable {
+                                if (mImmersiveLayoutThread != Thread.currentThread()) return;
+                                int vis = sysUiVisField.getInt(param.thisObject);
+                                param.setResult(updateSystemUiVisibilityFlagsForExpandedDesktop(vis));
+                            }
+                        });
+            }
+        }
+    }
+
+    // helpers; access errors are rethrown unchecked like XposedHelpers does
+    private static int getInt(Field field) {
+        try {
+            return field.getInt(mPhoneWindowManager);
+        } catch (IllegalAccessException e) {
+            throw new IllegalAccessError(e.getMessage());
+        }
     }
 
-    private static void setInt(String field, int value) {
-        XposedHelpers.setIntField(mPhoneWindowManager, field, value);
+    private static void setInt(Field field, int value) {
+        try {
+            field.setInt(mPhoneWindowManager, value);
+        } catch (IllegalAccessException e) {
+            throw new IllegalAccessError(e.getMessage());
+        }
     }
 
-    private static Object getObj(String field) {
-        return XposedHelpers.getObjectField(mPhoneWindowManager, field);
+    private static Object getObj(Field field) {
+        try {
+            return field.get(mPhoneWindowManager);
+        } catch (IllegalAccessException e) {
+            throw new IllegalAccessError(e.getMessage());
+        }
     }
 
-    private static void setObj(String field, Object value) {
-        XposedHelpers.setObjectField(mPhoneWindowManager, field, value);
+    private static void setObj(Field field, Object value) {
+        try {
+            field.set(mPhoneWindowManager, value);
+        } catch (IllegalAccessException e) {
+            throw new IllegalAccessError(e.getMessage());
+        }
     }
 
-    private static boolean getBool(String field) {
-        return XposedHelpers.getBooleanField(mPhoneWindowManager, field);
+    private static boolean getBool(Field field) {
+        try {
+            return field.getBoolean(mPhoneWindowManager);
+        } catch (IllegalAccessException e) {
+            throw new IllegalAccessError(e.getMessage());
+        }
     }
 
-    private static void setBool(String field, boolean value) {
-        XposedHelpers.setBooleanField(mPhoneWindowManager, field, value);
+    private static void setBool(Field field, boolean value) {
+        try {
+            field.setBoolean(mPhoneWindowManager, value);
+        } catch (IllegalAccessException e) {
+            throw new IllegalAccessError(e.getMessage());
+        }
     }
 
-    private static Rect getRect(String field) {
+    private static Rect getRect(Field field) {
         return (Rect) getObj(field);
     }
 
-    private static int[] getIntArray(String field) {
+    private static int[] getIntArray(Field field) {
         return (int[]) getObj(field);
     }
 
+    private static void updateReplacementHooks() {
+        final boolean immersive = isStatusbarImmersive() || isNavbarImmersive();
+        if (mInsetHintHook != null) {
+            mInsetHintHook.setEnabled(immersive);
+        }
+        if (mBeginLayoutHook != null) {
+            // also handles left handed navbar layout
+            mBeginLayoutHook.setEnabled(immersive || mNavbarLeftHanded);
+        }
+        if (mUpdateSystemUiVisibilityHook != null) {
+            mUpdateSystemUiVisibilityHook.setEnabled(immersive);
+        }
+    }
+
     private static boolean isStatusbarImmersive() {
         return (mExpandedDesktop
                 && (mExpandedDesktopMode == GravityBoxSettings.ED_SEMI_IMMERSIVE ||
@@ -1179,7 +1383,7 @@ public class ModExpandedDesktop {
     private static boolean isKeyguardShowing() {
         try {
             return (Boolean) mIsStatusBarKeyguard.invoke(mPhoneWindowManager) &&
-                    !getBool("mHideLockScreen");
+                    !getBool(Pwm.mHideLockScreen);
         } catch (Throwable t) {
             return false;
         }
@@ -21,9 +21,7 @@ import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import android.app.ActivityManager;
 import android.app.KeyguardManager;
@@ -62,6 +60,7 @@ import android.widget.Toast;
 
 import com.wrbug.gravitybox.nougat.ledcontrol.QuietHoursActivity;
 import com.wrbug.gravitybox.nougat.managers.AppLauncher;
+import com.wrbug.gravitybox.nougat.managers.ForegroundAppTracker;
 import com.wrbug.gravitybox.nougat.shortcuts.AShortcut;
 import com.wrbug.gravitybox.nougat.shortcuts.RingerModeShortcut;
 import com.wrbug.gravitybox.nougat.shortcuts.ShortcutActivity;
@@ -140,7 +139,7 @@ public class ModHwKeys {
     private static int mLockscreenTorch = 0;
     private static boolean mHomeDoubletapDisabled;
     private static int mHomeDoubletapDefaultAction;
-    private static Map<HwKeyTrigger, HwKeyAction> mHwKeyActions;
+    private static volatile HwKeyActionTable mHwKeyActions;
     private static int mDoubletapSpeed = GravityBoxSettings.HWKEY_DOUBLETAP_SPEED_DEFAULT;
     private static int mKillDelay = GravityBoxSettings.HWKEY_KILL_DELAY_DEFAULT;
     private static String mVolumeRockerWake = "default";
@@ -160,6 +159,9 @@ public class ModHwKeys {
     private static String[] mHeadsetUri = new String[2]; // index 0 = unplugged, index 1 = plugged 
     private static Method mLaunchAssistAction = null;
     private static Method mLaunchAssistLongPressAction = null;
+    private static Method mKeyguardOn = null;
+    private static Method mPerformHapticFeedbackLw = null;
+    private static Handler mHandler;
     private static ActivityManager mActivityManager;
     private static AudioManager mAudioManager;
     private static PowerManager mPowerManager;
@@ -188,25 +190,33 @@ public class ModHwKeys {
     }
 
     private static enum HwKeyTrigger {
-        MENU_SINGLETAP,
-        MENU_LONGPRESS,
-        MENU_DOUBLETAP,
-        HOME_LONGPRESS,
-        HOME_DOUBLETAP,
-        BACK_SINGLETAP,
-        BACK_LONGPRESS,
-        BACK_DOUBLETAP,
-        RECENTS_SINGLETAP,
-        RECENTS_LONGPRESS,
-        RECENTS_DOUBLETAP,
-        CUSTOM_SINGLETAP,
-        CUSTOM_LONGPRESS,
-        CUSTOM_DOUBLETAP
+        MENU_SINGLETAP(GravityBoxSettings.PREF_KEY_HWKEY_MENU_SINGLETAP, "0"),
+        MENU_LONGPRESS(GravityBoxSettings.PREF_KEY_HWKEY_MENU_LONGPRESS, "0"),
+        MENU_DOUBLETAP(GravityBoxSettings.PREF_KEY_HWKEY_MENU_DOUBLETAP, "0"),
+        HOME_LONGPRESS(GravityBoxSettings.PREF_KEY_HWKEY_HOME_LONGPRESS, "0"),
+        HOME_DOUBLETAP(GravityBoxSettings.PREF_KEY_HWKEY_HOME_DOUBLETAP, "0"),
+        BACK_SINGLETAP(GravityBoxSettings.PREF_KEY_HWKEY_BACK_SINGLETAP, "0"),
+        BACK_LONGPRESS(GravityBoxSettings.PREF_KEY_HWKEY_BACK_LONGPRESS, "0"),
+        BACK_DOUBLETAP(GravityBoxSettings.PREF_KEY_HWKEY_BACK_DOUBLETAP, "0"),
+        RECENTS_SINGLETAP(GravityBoxSettings.PREF_KEY_HWKEY_RECENTS_SINGLETAP, "0"),
+        RECENTS_LONGPRESS(GravityBoxSettings.PREF_KEY_HWKEY_RECENTS_LONGPRESS, "0"),
+        RECENTS_DOUBLETAP(GravityBoxSettings.PREF_KEY_HWKEY_RECENTS_DOUBLETAP, "0"),
+        CUSTOM_SINGLETAP(GravityBoxSettings.PREF_KEY_NAVBAR_CUSTOM_KEY_SINGLETAP, "12"),
+        CUSTOM_LONGPRESS(GravityBoxSettings.PREF_KEY_NAVBAR_CUSTOM_KEY_LONGPRESS, "0"),
+        CUSTOM_DOUBLETAP(GravityBoxSettings.PREF_KEY_NAVBAR_CUSTOM_KEY_DOUBLETAP, "0");
+
+        final String prefKey;
+        final String defaultValue;
+
+        HwKeyTrigger(String prefKey, String defaultValue) {
+            this.prefKey = prefKey;
+            this.defaultValue = defaultValue;
+        }
     }
 
     public static class HwKeyAction {
-        public int actionId;
-        public String customApp;
+        public final int actionId;
+        public final String customApp;
 
         public HwKeyAction(int id, String cApp) {
             actionId = id;
@@ -218,6 +228,44 @@ public class ModHwKeys {
         }
     }
 
+    // Immutable action table indexed by HwKeyTrigger ordinal. Published tables
+    // and their entries are never modified; changes build a new table which is
+    // swapped in by a single volatile write so that key handling reads without locking.
+    private static final class HwKeyActionTable {
+        private final HwKeyAction[] mActions;
+
+        private HwKeyActionTable(HwKeyAction[] actions) {
+            mActions = actions;
+        }
+
+        static HwKeyActionTable fromPrefs(XSharedPreferences prefs) {
+            final HwKeyTrigger[] triggers = HwKeyTrigger.values();
+            final HwKeyAction[] actions = new HwKeyAction[triggers.length];
+            for (HwKeyTrigger trigger : triggers) {
+                int actionId;
+                try {
+                    actionId = Integer.parseInt(prefs.getString(trigger.prefKey, trigger.defaultValue));
+                } catch (NumberFormatException e) {
+                    log("Invalid action for " + trigger + ": " + e.getMessage());
+                    actionId = Integer.parseInt(trigger.defaultValue);
+                }
+                actions[trigger.ordinal()] = new HwKeyAction(actionId,
+                        prefs.getString(trigger.prefKey + "_custom", null));
+            }
+            return new HwKeyActionTable(actions);
+        }
+
+        HwKeyAction get(HwKeyTrigger trigger) {
+            return mActions[trigger.ordinal()];
+        }
+
+        HwKeyActionTable with(HwKeyTrigger trigger, int actionId, String customApp) {
+            final HwKeyAction[] actions = mActions.clone();
+            actions[trigger.ordinal()] = new HwKeyAction(actionId, customApp);
+            return new HwKeyActionTable(actions);
+        }
+    }
+
     private static BroadcastReceiver mBroadcastReceiver = new BroadcastReceiver() {
 
         @Override
@@ -430,78 +478,36 @@ public class ModHwKeys {
         } catch (Throwable t) {
             XposedBridge.log(t);
         }
+
+        try {
+            mKeyguardOn = classPhoneWindowManager.getDeclaredMethod("keyguardOn");
+            mKeyguardOn.setAccessible(true);
+        } catch (Throwable t) {
+            XposedBridge.log(t);
+        }
+
+        try {
+            mPerformHapticFeedbackLw = classPhoneWindowManager.getDeclaredMethod("performHapticFeedbackLw",
+                    XposedHelpers.findClass(CLASS_WINDOW_STATE, null), int.class, boolean.class);
+            mPerformHapticFeedbackLw.setAccessible(true);
+        } catch (Throwable t) {
+            XposedBridge.log(t);
+        }
     }
 
     public static void initAndroid(final XSharedPreferences prefs, final ClassLoader classLoader) {
         try {
             mPrefs = prefs;
 
-            Map<HwKeyTrigger, HwKeyAction> map = new HashMap<HwKeyTrigger, HwKeyAction>();
-            map.put(HwKeyTrigger.MENU_SINGLETAP, new HwKeyAction(0, null));
-            map.put(HwKeyTrigger.MENU_DOUBLETAP, new HwKeyAction(0, null));
-            map.put(HwKeyTrigger.MENU_LONGPRESS, new HwKeyAction(0, null));
-            map.put(HwKeyTrigger.HOME_LONGPRESS, new HwKeyAction(0, null));
-            map.put(HwKeyTrigger.HOME_DOUBLETAP, new HwKeyAction(0, null));
-            map.put(HwKeyTrigger.BACK_SINGLETAP, new HwKeyAction(0, null));
-            map.put(HwKeyTrigger.BACK_LONGPRESS, new HwKeyAction(0, null));
-            map.put(HwKeyTrigger.BACK_DOUBLETAP, new HwKeyAction(0, null));
-            map.put(HwKeyTrigger.RECENTS_SINGLETAP, new HwKeyAction(0, null));
-            map.put(HwKeyTrigger.RECENTS_LONGPRESS, new HwKeyAction(0, null));
-            map.put(HwKeyTrigger.RECENTS_DOUBLETAP, new HwKeyAction(0, null));
-            map.put(HwKeyTrigger.CUSTOM_SINGLETAP, new HwKeyAction(0, null));
-            map.put(HwKeyTrigger.CUSTOM_LONGPRESS, new HwKeyAction(0, null));
-            map.put(HwKeyTrigger.CUSTOM_DOUBLETAP, new HwKeyAction(0, null));
-            mHwKeyActions = Collections.unmodifiableMap(map);
+            mHwKeyActions = HwKeyActionTable.fromPrefs(prefs);
 
             try {
-                setActionFor(HwKeyTrigger.MENU_SINGLETAP, Integer.valueOf(
-                        prefs.getString(GravityBoxSettings.PREF_KEY_HWKEY_MENU_SINGLETAP, "0")),
-                        prefs.getString(GravityBoxSettings.PREF_KEY_HWKEY_MENU_SINGLETAP + "_custom", null));
-                setActionFor(HwKeyTrigger.MENU_LONGPRESS, Integer.valueOf(
-                        prefs.getString(GravityBoxSettings.PREF_KEY_HWKEY_MENU_LONGPRESS, "0")),
-                        prefs.getString(GravityBoxSettings.PREF_KEY_HWKEY_MENU_LONGPRESS + "_custom", null));
-                setActionFor(HwKeyTrigger.MENU_DOUBLETAP, Integer.valueOf(
-                        prefs.getString(GravityBoxSettings.PREF_KEY_HWKEY_MENU_DOUBLETAP, "0")),
-                        prefs.getString(GravityBoxSettings.PREF_KEY_HWKEY_MENU_DOUBLETAP + "_custom", null));
-                setActionFor(HwKeyTrigger.HOME_LONGPRESS, Integer.valueOf(
-                        prefs.getString(GravityBoxSettings.PREF_KEY_HWKEY_HOME_LONGPRESS, "0")),
-                        prefs.getString(GravityBoxSettings.PREF_KEY_HWKEY_HOME_LONGPRESS + "_custom", null));
-                setActionFor(HwKeyTrigger.HOME_DOUBLETAP, Integer.valueOf(
-                        prefs.getString(GravityBoxSettings.PREF_KEY_HWKEY_HOME_DOUBLETAP, "0")),
-                        prefs.getString(GravityBoxSettings.PREF_KEY_HWKEY_HOME_DOUBLETAP + "_custom", null));
-                setActionFor(HwKeyTrigger.BACK_SINGLETAP, Integer.valueOf(
-                        prefs.getString(GravityBoxSettings.PREF_KEY_HWKEY_BACK_SINGLETAP, "0")),
-                        prefs.getString(GravityBoxSettings.PREF_KEY_HWKEY_BACK_SINGLETAP + "_custom", null));
-                setActionFor(HwKeyTrigger.BACK_LONGPRESS, Integer.valueOf(
-                        prefs.getString(GravityBoxSettings.PREF_KEY_HWKEY_BACK_LONGPRESS, "0")),
-                        prefs.getString(GravityBoxSettings.PREF_KEY_HWKEY_BACK_LONGPRESS + "_custom", null));
-                setActionFor(HwKeyTrigger.BACK_DOUBLETAP, Integer.valueOf(
-                        prefs.getString(GravityBoxSettings.PREF_KEY_HWKEY_BACK_DOUBLETAP, "0")),
-                        prefs.getString(GravityBoxSettings.PREF_KEY_HWKEY_BACK_DOUBLETAP + "_custom", null));
-                setActionFor(HwKeyTrigger.RECENTS_SINGLETAP, Integer.valueOf(
-                        prefs.getString(GravityBoxSettings.PREF_KEY_HWKEY_RECENTS_SINGLETAP, "0")),
-                        prefs.getString(GravityBoxSettings.PREF_KEY_HWKEY_RECENTS_SINGLETAP + "_custom", null));
-                setActionFor(HwKeyTrigger.RECENTS_LONGPRESS, Integer.valueOf(
-                        prefs.getString(GravityBoxSettings.PREF_KEY_HWKEY_RECENTS_LONGPRESS, "0")),
-                        prefs.getString(GravityBoxSettings.PREF_KEY_HWKEY_RECENTS_LONGPRESS + "_custom", null));
-                setActionFor(HwKeyTrigger.RECENTS_DOUBLETAP, Integer.valueOf(
-                        prefs.getString(GravityBoxSettings.PREF_KEY_HWKEY_RECENTS_DOUBLETAP, "0")),
-                        prefs.getString(GravityBoxSettings.PREF_KEY_HWKEY_RECENTS_DOUBLETAP + "_custom", null));
                 mDoubletapSpeed = Integer.valueOf(
                         prefs.getString(GravityBoxSettings.PREF_KEY_HWKEY_DOUBLETAP_SPEED, "400"));
                 mKillDelay = Integer.valueOf(
                         prefs.getString(GravityBoxSettings.PREF_KEY_HWKEY_KILL_DELAY, "1000"));
                 mLockscreenTorch = Integer.valueOf(
                         prefs.getString(GravityBoxSettings.PREF_KEY_HWKEY_LOCKSCREEN_TORCH, "0"));
-                setActionFor(HwKeyTrigger.CUSTOM_SINGLETAP, Integer.valueOf(prefs.getString(
-                        GravityBoxSettings.PREF_KEY_NAVBAR_CUSTOM_KEY_SINGLETAP, "12")),
-                        prefs.getString(GravityBoxSettings.PREF_KEY_NAVBAR_CUSTOM_KEY_SINGLETAP + "_custom", null));
-                setActionFor(HwKeyTrigger.CUSTOM_LONGPRESS, Integer.valueOf(prefs.getString(
-                        GravityBoxSettings.PREF_KEY_NAVBAR_CUSTOM_KEY_LONGPRESS, "0")),
-                        prefs.getString(GravityBoxSettings.PREF_KEY_NAVBAR_CUSTOM_KEY_LONGPRESS + "_custom", null));
-                setActionFor(HwKeyTrigger.CUSTOM_DOUBLETAP, Integer.valueOf(prefs.getString(
-                        GravityBoxSettings.PREF_KEY_NAVBAR_CUSTOM_KEY_DOUBLETAP, "0")),
-                        prefs.getString(GravityBoxSettings.PREF_KEY_NAVBAR_CUSTOM_KEY_DOUBLETAP + "_custom", null));
             } catch (NumberFormatException e) {
                 XposedBridge.log(e);
             }
@@ -549,10 +555,6 @@ public class ModHwKeys {
                         protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
                             KeyEvent event = (KeyEvent) param.args[0];
                             int keyCode = event.getKeyCode();
-                            boolean down = event.getAction() == KeyEvent.ACTION_DOWN;
-                            boolean keyguardOn = (Boolean) XposedHelpers.callMethod(mPhoneWindowManager, "keyguardOn");
-                            boolean isFromSystem = (event.getFlags() & KeyEvent.FLAG_FROM_SYSTEM) != 0;
-                            Handler handler = (Handler) XposedHelpers.getObjectField(param.thisObject, "mHandler");
                             if (DEBUG) log("interceptKeyBeforeQueueing: keyCode=" + keyCode +
                                     "; action=" + event.getAction() + "; repeatCount=" + event.getRepeatCount() +
                                     "; flags=0x" + Integer.toHexString(event.getFlags()) +
@@ -571,6 +573,15 @@ public class ModHwKeys {
                                 return;
                             }
 
+                            // fast path for keys we never touch here
+                            if (!isQueueingKeyHandled(keyCode)) {
+                                return;
+                            }
+
+                            boolean down = event.getAction() == KeyEvent.ACTION_DOWN;
+                            boolean isFromSystem = (event.getFlags() & KeyEvent.FLAG_FROM_SYSTEM) != 0;
+                            Handler handler = mHandler;
+
                             if (keyCode == KeyEvent.KEYCODE_VOLUME_UP) {
                                 if (!down) {
                                     handler.removeCallbacks(mResetBrightnessRunnable);
@@ -617,14 +628,14 @@ public class ModHwKeys {
                                 } else {
                                     if (event.getRepeatCount() == 0) {
                                         mIsHomeLongPressed = false;
-                                        if (keyguardOn && mLockscreenTorch == GravityBoxSettings.HWKEY_TORCH_HOME_LONGPRESS) {
+                                        if (mLockscreenTorch == GravityBoxSettings.HWKEY_TORCH_HOME_LONGPRESS && isKeyguardOn()) {
                                             handler.postDelayed(mLockscreenTorchRunnable,
                                                     getLongpressTimeoutForAction(GravityBoxSettings.HWKEY_ACTION_TORCH));
                                         } else if (getActionFor(HwKeyTrigger.HOME_LONGPRESS).actionId != 0) {
                                             handler.postDelayed(mHomeLongPress, ViewConfiguration.getLongPressTimeout());
                                         }
                                     } else {
-                                        if ((keyguardOn && mLockscreenTorch == GravityBoxSettings.HWKEY_TORCH_HOME_LONGPRESS) ||
+                                        if ((mLockscreenTorch == GravityBoxSettings.HWKEY_TORCH_HOME_LONGPRESS && isKeyguardOn()) ||
                                                 getActionFor(HwKeyTrigger.HOME_LONGPRESS).actionId != 0) {
                                             param.setResult(0);
                                         }
@@ -658,8 +669,7 @@ public class ModHwKeys {
                                             handler.postDelayed(mCustomKeyDoubletapReset, mDoubletapSpeed);
                                         }
                                         if (isFromSystem) {
-                                            XposedHelpers.callMethod(param.thisObject, "performHapticFeedbackLw",
-                                                    new Class<?>[]{Class.forName(CLASS_WINDOW_STATE), int.class, boolean.class},
+                                            mPerformHapticFeedbackLw.invoke(param.thisObject,
                                                     null, HapticFeedbackConstants.VIRTUAL_KEY, false);
                                         }
                                     } else {
@@ -668,8 +678,7 @@ public class ModHwKeys {
                                         mIsCustomKeyLongPressed = true;
                                         if (DEBUG) log("Custom key long-press action");
                                         performAction(HwKeyTrigger.CUSTOM_LONGPRESS);
-                                        XposedHelpers.callMethod(param.thisObject, "performHapticFeedbackLw",
-                                                new Class<?>[]{Class.forName(CLASS_WINDOW_STATE), int.class, boolean.class},
+                                        mPerformHapticFeedbackLw.invoke(param.thisObject,
                                                 null, HapticFeedbackConstants.LONG_PRESS, false);
                                     }
                                 }
@@ -685,7 +694,7 @@ public class ModHwKeys {
 
                         @Override
                         protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
-                            if ((Boolean) XposedHelpers.callMethod(mPhoneWindowManager, "keyguardOn"))
+                            if (isKeyguardOn())
                                 return;
 
                             KeyEvent event = (KeyEvent) param.args[1];
@@ -705,8 +714,6 @@ public class ModHwKeys {
                                 return;
                             }
 
-                            Handler mHandler = (Handler) XposedHelpers.getObjectField(param.thisObject, "mHandler");
-
                             if (keyCode == KeyEvent.KEYCODE_MENU && isFromSystem && !isTaskLocked() &&
                                     (hasAction(HwKey.MENU) || !areHwKeysEnabled())) {
 
@@ -874,8 +881,7 @@ public class ModHwKeys {
                                 try {
                                     final Runnable r = (Runnable) XposedHelpers.getObjectField(param.thisObject,
                                             "toggleFloatAppLongPress");
-                                    final Handler h = (Handler) XposedHelpers.getObjectField(param.thisObject, "mHandler");
-                                    h.removeCallbacks(r);
+                                    mHandler.removeCallbacks(r);
                                 } catch (Throwable t) { /* be quiet */ }
                             }
                         }
@@ -999,6 +1005,7 @@ public class ModHwKeys {
         protected void afterHookedMethod(MethodHookParam param) throws Throwable {
             mPhoneWindowManager = param.thisObject;
             mContext = (Context) XposedHelpers.getObjectField(mPhoneWindowManager, "mContext");
+            mHandler = (Handler) XposedHelpers.getObjectField(mPhoneWindowManager, "mHandler");
             mGbContext = Utils.getGbContext(mContext);
             XposedHelpers.setIntField(mPhoneWindowManager, "mAllowAllRotations",
                     mPrefs.getBoolean(GravityBoxSettings.PREF_KEY_DISPLAY_ALLOW_ALL_ROTATIONS, false) ? 1 : 0);
@@ -1224,9 +1231,8 @@ public class ModHwKeys {
         return mHwKeyActions.get(keyTrigger);
     }
 
-    private static void setActionFor(HwKeyTrigger keyTrigger, int value, String customApp) {
-        mHwKeyActions.get(keyTrigger).actionId = value;
-        mHwKeyActions.get(keyTrigger).customApp = customApp;
+    private static synchronized void setActionFor(HwKeyTrigger keyTrigger, int value, String customApp) {
+        mHwKeyActions = mHwKeyActions.with(keyTrigger, value, customApp);
     }
 
     private static boolean hasAction(HwKey key) {
@@ -1331,7 +1337,7 @@ public class ModHwKeys {
     }
 
     private static void killForegroundApp() {
-        Handler handler = (Handler) XposedHelpers.getObjectField(mPhoneWindowManager, "mHandler");
+        Handler handler = mHandler;
         if (handler == null) return;
 
         handler.post(
@@ -1350,29 +1356,23 @@ public class ModHwKeys {
                             }
 
                             ActivityManager am = getActivityManager();
-                            List<RunningAppProcessInfo> apps = am.getRunningAppProcesses();
-
                             String targetKilled = null;
-                            for (RunningAppProcessInfo appInfo : apps) {
-                                int uid = appInfo.uid;
-                                // Make sure it's a foreground user application (not system,
-                                // root, phone, etc.)
-                                if (uid >= Process.FIRST_APPLICATION_UID && uid <= Process.LAST_APPLICATION_UID
-                                        && appInfo.importance == RunningAppProcessInfo.IMPORTANCE_FOREGROUND &&
-                                        !mKillIgnoreList.contains(appInfo.processName) &&
-                                        !appInfo.processName.startsWith(defaultHomePackage)) {
-                                    if (appInfo.pkgList != null && appInfo.pkgList.length > 0) {
-                                        for (String pkg : appInfo.pkgList) {
-                                            if (DEBUG) log("Force stopping: " + pkg);
-                                            XposedHelpers.callMethod(am, "forceStopPackage", pkg);
-                                        }
-                                    } else {
-                                        if (DEBUG)
-                                            log("Killing process ID " + appInfo.pid + ": " + appInfo.processName);
-                                        Process.killProcess(appInfo.pid);
+
+                            // tracked foreground app needs no process list query; its entry is
+                            // dropped by the tracker once the process dies
+                            ForegroundAppTracker.AppEntry fgApp = ForegroundAppTracker.getForegroundApp();
+                            if (fgApp != null && fgApp.pid > 0 && fgApp.processName != null &&
+                                    isKillable(fgApp.uid, fgApp.processName, defaultHomePackage)) {
+                                killProcess(am, fgApp.pid, fgApp.processName, fgApp.pkgList);
+                                targetKilled = fgApp.processName;
+                            } else {
+                                for (RunningAppProcessInfo appInfo : am.getRunningAppProcesses()) {
+                                    if (appInfo.importance == RunningAppProcessInfo.IMPORTANCE_FOREGROUND &&
+                                            isKillable(appInfo.uid, appInfo.processName, defaultHomePackage)) {
+                                        killProcess(am, appInfo.pid, appInfo.processName, appInfo.pkgList);
+                                        targetKilled = appInfo.processName;
+                                        break;
                                     }
-                                    targetKilled = appInfo.processName;
-                                    break;
                                 }
                             }
 
@@ -1383,12 +1383,8 @@ public class ModHwKeys {
                                 } catch (PackageManager.NameNotFoundException nfe) {
                                     //
                                 }
-                                Class<?>[] paramArgs = new Class<?>[3];
-                                paramArgs[0] = XposedHelpers.findClass(CLASS_WINDOW_STATE, null);
-                                paramArgs[1] = int.class;
-                                paramArgs[2] = boolean.class;
-                                XposedHelpers.callMethod(mPhoneWindowManager, "performHapticFeedbackLw",
-                                        paramArgs, null, HapticFeedbackConstants.FLAG_IGNORE_GLOBAL_SETTING, true);
+                                mPerformHapticFeedbackLw.invoke(mPhoneWindowManager,
+                                        null, HapticFeedbackConstants.FLAG_IGNORE_GLOBAL_SETTING, true);
                                 Toast.makeText(mContext,
                                         String.format(mStrAppKilled, targetKilled), Toast.LENGTH_SHORT).show();
                             } else {
@@ -1402,8 +1398,28 @@ public class ModHwKeys {
         );
     }
 
+    // Make sure it's a user application (not system, root, phone, etc.)
+    private static boolean isKillable(int uid, String processName, String homePackage) {
+        return uid >= Process.FIRST_APPLICATION_UID && uid <= Process.LAST_APPLICATION_UID &&
+                !mKillIgnoreList.contains(processName) &&
+                !processName.startsWith(homePackage);
+    }
+
+    // force stops all packages running in the process so that shared processes are handled too
+    private static void killProcess(ActivityManager am, int pid, String processName, String[] pkgList) {
+        if (pkgList != null && pkgList.length > 0) {
+            for (String pkg : pkgList) {
+                if (DEBUG) log("Force stopping: " + pkg);
+                XposedHelpers.callMethod(am, "forceStopPackage", pkg);
+            }
+        } else {
+            if (DEBUG) log("Killing process ID " + pid + ": " + processName);
+            Process.killProcess(pid);
+        }
+    }
+
     private static void switchToLastApp() {
-        Handler handler = (Handler) XposedHelpers.getObjectField(mPhoneWindowManager, "mHandler");
+        Handler handler = mHandler;
         if (handler == null) return;
 
         handler.post(
@@ -1421,7 +1437,15 @@ public class ModHwKeys {
                         if (res.activityInfo != null && !res.activityInfo.packageName.equals("android")) {
                             defaultHomePackage = res.activityInfo.packageName;
                         }
-                        List<ActivityManager.RunningTaskInfo> tasks = am.getRunningTasks(5);
+                        ForegroundAppTracker.AppEntry prevApp =
+                                ForegroundAppTracker.getPreviousApp(defaultHomePackage);
+                        // tracker drops entries of removed tasks
+                        if (prevApp != null && prevApp.taskId > 0) {
+                            lastAppId = prevApp.taskId;
+                        }
+                        List<ActivityManager.RunningTaskInfo> tasks = (lastAppId == 0 ?
+                                am.getRunningTasks(5) :
+                                Collections.<ActivityManager.RunningTaskInfo>emptyList());
                         // lets get enough tasks to find something to switch to
                         // Note, we'll only get as many as the system currently has - up to 5
                         while ((lastAppId == 0) && (looper < tasks.size())) {
@@ -1467,7 +1491,7 @@ public class ModHwKeys {
     private static void launchCustomApp(String uri) {
         if (uri == null) {
             try {
-                Handler handler = (Handler) XposedHelpers.getObjectField(mPhoneWindowManager, "mHandler");
+                Handler handler = mHandler;
                 handler.post(new Runnable() {
                     @Override
                     public void run() {
@@ -1488,7 +1512,7 @@ public class ModHwKeys {
     }
 
     private static void launchCustomApp(final Intent intent) {
-        Handler handler = (Handler) XposedHelpers.getObjectField(mPhoneWindowManager, "mHandler");
+        Handler handler = mHandler;
         if (handler == null) return;
 
         handler.post(
@@ -1537,7 +1561,7 @@ public class ModHwKeys {
     }
 
     public static void injectKey(final int keyCode) {
-        Handler handler = (Handler) XposedHelpers.getObjectField(mPhoneWindowManager, "mHandler");
+        Handler handler = mHandler;
         if (handler == null) return;
 
         handler.post(new Runnable() {
@@ -1653,7 +1677,7 @@ public class ModHwKeys {
     private static ServiceConnection mScreenshotConnection = null;
 
     private static void takeScreenshot(final long delayMs) {
-        final Handler handler = (Handler) XposedHelpers.getObjectField(mPhoneWindowManager, "mHandler");
+        final Handler handler = mHandler;
         if (handler == null) return;
 
         synchronized (mScreenshotLock) {
@@ -1727,7 +1751,7 @@ public class ModHwKeys {
 
     private static void showGlobalActionsDialog() {
         try {
-            Handler handler = (Handler) XposedHelpers.getObjectField(mPhoneWindowManager, "mHandler");
+            Handler handler = mHandler;
             handler.post(new Runnable() {
                 @Override
                 public void run() {
@@ -1761,7 +1785,7 @@ public class ModHwKeys {
 
     private static void showVolumePanel() {
         try {
-            Handler handler = (Handler) XposedHelpers.getObjectField(mPhoneWindowManager, "mHandler");
+            Handler handler = mHandler;
             handler.post(new Runnable() {
                 @Override
                 public void run() {
@@ -1956,6 +1980,27 @@ public class ModHwKeys {
         return mPowerManager;
     }
 
+    private static boolean isQueueingKeyHandled(int keyCode) {
+        switch (keyCode) {
+            case KeyEvent.KEYCODE_VOLUME_UP:
+            case KeyEvent.KEYCODE_VOLUME_DOWN:
+            case KeyEvent.KEYCODE_HOME:
+            case KeyEvent.KEYCODE_SOFT_LEFT:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isKeyguardOn() {
+        try {
+            return (Boolean) mKeyguardOn.invoke(mPhoneWindowManager);
+        } catch (Throwable t) {
+            // assume locked so that actions are not performed over keyguard
+            return true;
+        }
+    }
+
     private static boolean isTaskLocked() {
         return getActivityManager().getLockTaskModeState() !=
                 ActivityManager.LOCK_TASK_MODE_NONE;
@@ -23,6 +23,7 @@ import java.util.Map;
 
 import com.wrbug.gravitybox.nougat.ModStatusBar.StatusBarState;
 import com.wrbug.gravitybox.nougat.ledcontrol.LedSettings;
+import com.wrbug.gravitybox.nougat.ledcontrol.LedSettingsIndex;
 import com.wrbug.gravitybox.nougat.ledcontrol.QuietHours;
 import com.wrbug.gravitybox.nougat.ledcontrol.QuietHoursActivity;
 import com.wrbug.gravitybox.nougat.ledcontrol.LedSettings.ActiveScreenMode;
@@ -30,6 +31,7 @@ import com.wrbug.gravitybox.nougat.ledcontrol.LedSettings.HeadsUpMode;
 import com.wrbug.gravitybox.nougat.ledcontrol.LedSettings.LedMode;
 import com.wrbug.gravitybox.nougat.ledcontrol.LedSettings.Visibility;
 import com.wrbug.gravitybox.nougat.ledcontrol.LedSettings.VisibilityLs;
+import com.wrbug.gravitybox.nougat.managers.SysUiManagers;
 
 import android.app.ActivityManager;
 import android.app.KeyguardManager;
@@ -83,6 +85,7 @@ public class ModLedControl {
     public static final String ACTION_CLEAR_NOTIFICATIONS = "gravitybox.intent.action.CLEAR_NOTIFICATIONS";
 
     private static XSharedPreferences mPrefs;
+    private static LedSettingsIndex mLedSettingsIndex;
     private static XSharedPreferences mQhPrefs;
     private static Context mContext;
     private static PowerManager mPm;
@@ -130,7 +133,7 @@ public class ModLedControl {
         public void onReceive(Context context, Intent intent) {
             final String action = intent.getAction();
             if (action.equals(LedSettings.ACTION_UNC_SETTINGS_CHANGED)) {
-                mPrefs.reload();
+                mLedSettingsIndex.reload();
                 if (intent.hasExtra(LedSettings.EXTRA_UNC_AS_ENABLED)) {
                     toggleActiveScreenFeature(intent.getBooleanExtra(
                             LedSettings.EXTRA_UNC_AS_ENABLED, false));
@@ -138,6 +141,9 @@ public class ModLedControl {
             } else if (action.equals(QuietHoursActivity.ACTION_QUIET_HOURS_CHANGED)) {
                 mQhPrefs.reload();
                 mQuietHours = new QuietHours(mQhPrefs);
+            } else if (action.equals(Intent.ACTION_TIME_CHANGED) ||
+                    action.equals(Intent.ACTION_TIMEZONE_CHANGED)) {
+                mQuietHours.invalidateSchedule();
             } else if (action.equals(Intent.ACTION_USER_PRESENT)) {
                 if (DEBUG) log("User present");
                 mUserPresent = true;
@@ -162,6 +168,7 @@ public class ModLedControl {
     public static void initAndroid(final XSharedPreferences mainPrefs, final ClassLoader classLoader) {
         mPrefs = new XSharedPreferences(GravityBox.PACKAGE_NAME, "ledcontrol");
         mPrefs.makeWorldReadable();
+        mLedSettingsIndex = new LedSettingsIndex(mPrefs);
         mQhPrefs = new XSharedPreferences(GravityBox.PACKAGE_NAME, "quiet_hours");
         mQhPrefs.makeWorldReadable();
         mQuietHours = new QuietHours(mQhPrefs);
@@ -184,6 +191,8 @@ public class ModLedControl {
                         intentFilter.addAction(Intent.ACTION_SCREEN_OFF);
                         intentFilter.addAction(ACTION_CLEAR_NOTIFICATIONS);
                         intentFilter.addAction(GravityBoxSettings.ACTION_PREF_POWER_CHANGED);
+                        intentFilter.addAction(Intent.ACTION_TIME_CHANGED);
+                        intentFilter.addAction(Intent.ACTION_TIMEZONE_CHANGED);
                         mContext.registerReceiver(mBroadcastReceiver, intentFilter);
 
                         toggleActiveScreenFeature(!mPrefs.getBoolean(LedSettings.PREF_KEY_LOCKED, false) && 
@@ -243,10 +252,11 @@ public class ModLedControl {
                 Notification oldN = getNotificationFromRecord(oldRecord);
                 final String pkgName = (String) param.args[0];
 
-                LedSettings ls = LedSettings.deserialize(mPrefs.getStringSet(pkgName, null));
+                mLedSettingsIndex.reloadIfFileChanged();
+                LedSettings ls = mLedSettingsIndex.get(pkgName);
                 if (!ls.getEnabled()) {
                     // use default settings in case they are active
-                    ls = LedSettings.deserialize(mPrefs.getStringSet("default", null));
+                    ls = mLedSettingsIndex.getDefault();
                     if (!ls.getEnabled() && !mQuietHours.quietHoursActive(ls, n, mUserPresent)) {
                         return;
                     }
@@ -658,12 +668,19 @@ public class ModLedControl {
     // SystemUI package
     private static Object mStatusBar;
     private static XSharedPreferences mSysUiPrefs;
+    private static XSharedPreferences mSysUiUncPrefs;
+    private static LedSettingsIndex mSysUiLedSettingsIndex;
+    private static int mDndChecksFromMemory;
 
     private static BroadcastReceiver mSystemUiBroadcastReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
             if (intent.getAction().equals(GravityBoxSettings.ACTION_HEADS_UP_SETTINGS_CHANGED)) {
                 mSysUiPrefs.reload();
+            } else if (intent.getAction().equals(LedSettings.ACTION_UNC_SETTINGS_CHANGED)) {
+                mSysUiLedSettingsIndex.reload();
+                if (DEBUG) log("UNC settings snapshot reloaded; version=" +
+                        mSysUiLedSettingsIndex.getVersion());
             }
         }
     };
@@ -713,6 +730,8 @@ public class ModLedControl {
     public static void initHeadsUp(final XSharedPreferences prefs, final ClassLoader classLoader) {
         try {
             mSysUiPrefs = prefs;
+            mSysUiUncPrefs = new XSharedPreferences(GravityBox.PACKAGE_NAME, "ledcontrol");
+            mSysUiLedSettingsIndex = new LedSettingsIndex(mSysUiUncPrefs);
 
             XposedHelpers.findAndHookMethod(CLASS_PHONE_STATUSBAR, classLoader, "start", new XC_MethodHook() {
                 @Override
@@ -721,6 +740,7 @@ public class ModLedControl {
                     Context context = (Context) XposedHelpers.getObjectField(mStatusBar, "mContext");
                     IntentFilter intentFilter = new IntentFilter();
                     intentFilter.addAction(GravityBoxSettings.ACTION_HEADS_UP_SETTINGS_CHANGED);
+                    intentFilter.addAction(LedSettings.ACTION_UNC_SETTINGS_CHANGED);
                     context.registerReceiver(mSystemUiBroadcastReceiver, intentFilter);
                 }
             });
@@ -834,6 +854,9 @@ public class ModLedControl {
 
     @SuppressWarnings("deprecation")
     private static String getTopLevelPackageName(Context context) {
+        if (SysUiManagers.ForegroundTracker != null) {
+            return SysUiManagers.ForegroundTracker.getForegroundPackage();
+        }
         try {
             final ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
             List<ActivityManager.RunningTaskInfo> taskInfo = am.getRunningTasks(1);
@@ -847,9 +870,11 @@ public class ModLedControl {
 
     private static boolean shouldNotDisturb(Context context) {
         String pkgName = getTopLevelPackageName(context);
-        final XSharedPreferences uncPrefs = new XSharedPreferences(GravityBox.PACKAGE_NAME, "ledcontrol");
-        if(!uncPrefs.getBoolean(LedSettings.PREF_KEY_LOCKED, false) && pkgName != null) {
-            LedSettings ls = LedSettings.deserialize(uncPrefs.getStringSet(pkgName, null));
+        if(!mSysUiUncPrefs.getBoolean(LedSettings.PREF_KEY_LOCKED, false) && pkgName != null) {
+            LedSettings ls = mSysUiLedSettingsIndex.get(pkgName);
+            if (DEBUG) log("shouldNotDisturb: served from snapshot version " +
+                    mSysUiLedSettingsIndex.getVersion() + "; checks without disk access: " +
+                    (++mDndChecksFromMemory));
             return (ls.getEnabled() && ls.getHeadsUpDnd());
         } else {
             return false;
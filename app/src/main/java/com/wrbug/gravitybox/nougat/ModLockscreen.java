@@ -15,6 +15,7 @@
 
 package com.wrbug.gravitybox.nougat;
 
+import java.io.File;
 import java.lang.reflect.Method;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
@@ -812,8 +813,13 @@ public class ModLockscreen {
 
     private static synchronized void setLastScreenBackground(boolean refresh) {
         try {
-            String kisImageFile = mGbContext.getFilesDir() + "/kis_image.png";
-            mCustomBg = BitmapFactory.decodeFile(kisImageFile);
+            File kisImageFile = new File(mGbContext.getFilesDir(),
+                    KeyguardImageService.IMAGE_FILE_NAME);
+            if (!kisImageFile.isFile()) {
+                kisImageFile = new File(mGbContext.getFilesDir(),
+                        KeyguardImageService.LEGACY_IMAGE_FILE_NAME);
+            }
+            mCustomBg = BitmapFactory.decodeFile(kisImageFile.getAbsolutePath());
             if (refresh && mPhoneStatusBar != null) {
                 XposedHelpers.callMethod(mPhoneStatusBar, "updateMediaMetaData", false);
             }
@@ -243,11 +243,11 @@ public class ModNavigationBar {
                     GravityBoxSettings.ACTION_PREF_HWKEY_CHANGED) &&
                     GravityBoxSettings.PREF_KEY_HWKEY_RECENTS_SINGLETAP.equals(intent.getStringExtra(
                             GravityBoxSettings.EXTRA_HWKEY_KEY))) {
-                mRecentsSingletapAction.actionId = intent.getIntExtra(GravityBoxSettings.EXTRA_HWKEY_VALUE, 0);
-                mRecentsSingletapAction.customApp = intent.getStringExtra(GravityBoxSettings.EXTRA_HWKEY_CUSTOM_APP);
+                mRecentsSingletapAction = new ModHwKeys.HwKeyAction(
+                        intent.getIntExtra(GravityBoxSettings.EXTRA_HWKEY_VALUE, 0),
+                        intent.getStringExtra(GravityBoxSettings.EXTRA_HWKEY_CUSTOM_APP));
                 if (mRecentsSingletapAction.actionId != GravityBoxSettings.HWKEY_ACTION_CLEAR_ALL_RECENTS_SINGLETAP) {
-                    mRecentsSingletapActionBck.actionId = mRecentsSingletapAction.actionId;
-                    mRecentsSingletapActionBck.customApp = mRecentsSingletapAction.customApp;
+                    mRecentsSingletapActionBck = mRecentsSingletapAction;
                     if (DEBUG)
                         log("mRecentsSingletapActionBck.actionId = " + mRecentsSingletapActionBck.actionId);
                 }
@@ -256,15 +256,17 @@ public class ModNavigationBar {
                     GravityBoxSettings.ACTION_PREF_HWKEY_CHANGED) &&
                     GravityBoxSettings.PREF_KEY_HWKEY_RECENTS_LONGPRESS.equals(intent.getStringExtra(
                             GravityBoxSettings.EXTRA_HWKEY_KEY))) {
-                mRecentsLongpressAction.actionId = intent.getIntExtra(GravityBoxSettings.EXTRA_HWKEY_VALUE, 0);
-                mRecentsLongpressAction.customApp = intent.getStringExtra(GravityBoxSettings.EXTRA_HWKEY_CUSTOM_APP);
+                mRecentsLongpressAction = new ModHwKeys.HwKeyAction(
+                        intent.getIntExtra(GravityBoxSettings.EXTRA_HWKEY_VALUE, 0),
+                        intent.getStringExtra(GravityBoxSettings.EXTRA_HWKEY_CUSTOM_APP));
                 updateRecentsKeyCode();
             } else if (intent.getAction().equals(
                     GravityBoxSettings.ACTION_PREF_HWKEY_CHANGED) &&
                     GravityBoxSettings.PREF_KEY_HWKEY_RECENTS_DOUBLETAP.equals(intent.getStringExtra(
                             GravityBoxSettings.EXTRA_HWKEY_KEY))) {
-                mRecentsDoubletapAction.actionId = intent.getIntExtra(GravityBoxSettings.EXTRA_HWKEY_VALUE, 0);
-                mRecentsDoubletapAction.customApp = intent.getStringExtra(GravityBoxSettings.EXTRA_HWKEY_CUSTOM_APP);
+                mRecentsDoubletapAction = new ModHwKeys.HwKeyAction(
+                        intent.getIntExtra(GravityBoxSettings.EXTRA_HWKEY_VALUE, 0),
+                        intent.getStringExtra(GravityBoxSettings.EXTRA_HWKEY_CUSTOM_APP));
                 updateRecentsKeyCode();
             } else if (intent.getAction().equals(
                     GravityBoxSettings.ACTION_PREF_HWKEY_CHANGED) &&
@@ -305,8 +307,7 @@ public class ModNavigationBar {
                 mRecentsDoubletapAction = new ModHwKeys.HwKeyAction(Integer.valueOf(
                         prefs.getString(GravityBoxSettings.PREF_KEY_HWKEY_RECENTS_DOUBLETAP, "0")),
                         prefs.getString(GravityBoxSettings.PREF_KEY_HWKEY_RECENTS_DOUBLETAP + "_custom", null));
-                mRecentsSingletapActionBck.actionId = mRecentsSingletapAction.actionId;
-                mRecentsSingletapActionBck.customApp = mRecentsSingletapAction.customApp;
+                mRecentsSingletapActionBck = mRecentsSingletapAction;
                 mHomeLongpressAction = Integer.valueOf(
                         prefs.getString(GravityBoxSettings.PREF_KEY_HWKEY_HOME_LONGPRESS, "0"));
             } catch (NumberFormatException nfe) {
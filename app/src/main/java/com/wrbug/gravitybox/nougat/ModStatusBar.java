@@ -16,10 +16,9 @@
 package com.wrbug.gravitybox.nougat;
 
 import java.lang.reflect.Field;
-import java.util.ArrayList;
-import java.util.List;
 
 import com.wrbug.gravitybox.nougat.TrafficMeterAbstract.TrafficMeterMode;
+import com.wrbug.gravitybox.nougat.managers.ListenerRegistry;
 import com.wrbug.gravitybox.nougat.managers.SysUiManagers;
 import com.wrbug.gravitybox.nougat.quicksettings.QsQuickPulldownHandler;
 import com.wrbug.gravitybox.nougat.shortcuts.AShortcut;
@@ -156,9 +155,9 @@ public class ModStatusBar {
     private static int BRIGHTNESS_ON = 255;
     private static int statusBarBgAlpha;
     private static int statusBarBgColor;
-    private static List<BroadcastSubReceiver> mBroadcastSubReceivers = new ArrayList<BroadcastSubReceiver>();
-    private static List<StatusBarStateChangedListener> mStateChangeListeners =
-            new ArrayList<StatusBarStateChangedListener>();
+    private static BroadcastDispatcher mBroadcastDispatcher = new BroadcastDispatcher(TAG);
+    private static ListenerRegistry<StatusBarStateChangedListener> mStateChangeListeners =
+            new ListenerRegistry<>(TAG, StatusBarStateChangedListener.class);
 
     private static void log(String message) {
         XposedBridge.log(TAG + ": " + message);
@@ -170,9 +169,7 @@ public class ModStatusBar {
         public void onReceive(Context context, Intent intent) {
             if (DEBUG) log("Broadcast received: " + intent.toString());
 
-            for (BroadcastSubReceiver bsr : mBroadcastSubReceivers) {
-                bsr.onBroadcastReceived(context, intent);
-            }
+            mBroadcastDispatcher.dispatch(context, intent);
 
             if (intent.getAction().equals(GravityBoxSettings.ACTION_PREF_CLOCK_CHANGED)) {
                 if (intent.hasExtra(GravityBoxSettings.EXTRA_CENTER_CLOCK)) {
@@ -343,7 +340,7 @@ public class ModStatusBar {
                     if (SysUiManagers.IconManager != null) {
                         SysUiManagers.IconManager.registerListener(mClock);
                     }
-                    mBroadcastSubReceivers.add(mClock);
+                    mBroadcastDispatcher.add(mClock);
                 }
                 setClockPosition(mPrefs.getBoolean(
                         GravityBoxSettings.PREF_KEY_STATUSBAR_CENTER_CLOCK, false));
@@ -428,7 +425,7 @@ public class ModStatusBar {
                 LinearLayout view = (LinearLayout) container.findViewById(scResId);
                 if (view != null) {
                     StatusbarSignalCluster sc = StatusbarSignalCluster.create(containerType, view, mPrefs);
-                    mBroadcastSubReceivers.add(sc);
+                    mBroadcastDispatcher.add(sc);
                     if (sc.supportsDataActivityIndicators()) {
                         sc.setNetworkController(XposedHelpers.getObjectField(
                                 mPhoneStatusBar, "mNetworkController"));
@@ -462,7 +459,7 @@ public class ModStatusBar {
             if (container != null) {
                 BatteryStyleController bsc = new BatteryStyleController(
                         containerType, container, mPrefs);
-                mBroadcastSubReceivers.add(bsc);
+                mBroadcastDispatcher.add(bsc);
             }
         } catch (Throwable t) {
             XposedBridge.log(t);
@@ -509,7 +506,7 @@ public class ModStatusBar {
             }
             if (container != null) {
                 BatteryBarView bbView = new BatteryBarView(containerType, container, mPrefs);
-                mBroadcastSubReceivers.add(bbView);
+                mBroadcastDispatcher.add(bbView);
                 mProgressBarCtrl.registerListener(bbView);
                 mStateChangeListeners.add(bbView);
             }
@@ -624,7 +621,7 @@ public class ModStatusBar {
                     mStatusBarView = (ViewGroup) XposedHelpers.getObjectField(mPhoneStatusBar, "mStatusBarView");
                     mContext = (Context) XposedHelpers.getObjectField(mPhoneStatusBar, "mContext");
                     mProgressBarCtrl = new ProgressBarController(mContext, mPrefs);
-                    mBroadcastSubReceivers.add(mProgressBarCtrl);
+                    mBroadcastDispatcher.add(mProgressBarCtrl);
 
                     if (SysUiManagers.AppLauncher != null) {
                         SysUiManagers.AppLauncher.setStatusBar(mPhoneStatusBar);
@@ -924,7 +921,7 @@ public class ModStatusBar {
             }
 
             // Status bar Bluetooth icon policy
-            mBroadcastSubReceivers.add(new SystemIconController(classLoader, prefs));
+            mBroadcastDispatcher.add(new SystemIconController(classLoader, prefs));
 
             // status bar state change handling
             try {
@@ -937,7 +934,7 @@ public class ModStatusBar {
                                 mStatusBarState = (Integer) param.args[0];
                                 if (DEBUG)
                                     log("setStatusBarState: oldState=" + oldState + "; newState=" + mStatusBarState);
-                                for (StatusBarStateChangedListener listener : mStateChangeListeners) {
+                                for (StatusBarStateChangedListener listener : mStateChangeListeners.getListeners()) {
                                     listener.onStatusBarStateChanged(oldState, mStatusBarState);
                                 }
                                 // switch centered layout based on status bar state
@@ -965,7 +962,7 @@ public class ModStatusBar {
                         NotificationWallpaper nw =
                                 new NotificationWallpaper((FrameLayout) param.thisObject, prefs);
                         mStateChangeListeners.add(nw);
-                        mBroadcastSubReceivers.add(nw);
+                        mBroadcastDispatcher.add(nw);
                     }
                 });
             } catch (Throwable t) {
@@ -1157,9 +1154,7 @@ public class ModStatusBar {
 
         removeTrafficMeterView();
         if (mTrafficMeter != null) {
-            if (mBroadcastSubReceivers.contains(mTrafficMeter)) {
-                mBroadcastSubReceivers.remove(mTrafficMeter);
-            }
+            mBroadcastDispatcher.remove(mTrafficMeter);
             if (SysUiManagers.IconManager != null) {
                 SysUiManagers.IconManager.unregisterListener(mTrafficMeter);
             }
@@ -1179,7 +1174,7 @@ public class ModStatusBar {
             if (mProgressBarCtrl != null) {
                 mProgressBarCtrl.registerListener(mTrafficMeter);
             }
-            mBroadcastSubReceivers.add(mTrafficMeter);
+            mBroadcastDispatcher.add(mTrafficMeter);
         }
     }
 
@@ -0,0 +1,395 @@
+/*
+ * Copyright (C) 2017 Peter Gregus for GravityBox Project (C3C076@xda)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wrbug.gravitybox.nougat;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import android.util.SparseIntArray;
+
+/**
+ * Reads total rx/tx bytes of counted interfaces from xt_qtaguid iface stats.
+ * File is kept open and re-read into a reused buffer which is parsed in place,
+ * so sampling does not allocate once the buffer has grown to file size.
+ * The same pass keeps per-interface counters and, if enabled, per-UID counters
+ * from xt_qtaguid stats.
+ */
+class NetStatsSampler {
+    static final String IFACE_STAT_FILE = "/proc/net/xt_qtaguid/iface_stat_fmt";
+    static final String UID_STAT_FILE = "/proc/net/xt_qtaguid/stats";
+
+    private static final byte[] IFACE_HEADER = { 'i', 'f', 'n', 'a', 'm', 'e' };
+    private static final byte[] IFACE_LO = { 'l', 'o' };
+    private static final byte[] IFACE_TUN = { 't', 'u', 'n' };
+    private static final byte[] UID_HEADER = { 'i', 'd', 'x' };
+    private static final byte[] TAG_NONE = { '0', 'x', '0' };
+
+    private final ProcFile mIfaceFile;
+    private final ProcFile mUidFile;
+
+    private final Counters mIfaceCounters = new Counters();
+    private byte[][] mIfaceKeys = new byte[8][];
+    private String[] mIfaceNames = new String[8];
+    private int mIfaceCount;
+
+    private final Counters mUidCounters = new Counters();
+    private final SparseIntArray mUidSlots = new SparseIntArray();
+    private int[] mSlotUids = new int[8];
+    private int mUidCount;
+    private boolean mUidStatsEnabled;
+    private boolean mUidStatsAvailable = true;
+
+    NetStatsSampler() {
+        this(IFACE_STAT_FILE, UID_STAT_FILE);
+    }
+
+    NetStatsSampler(String ifacePath, String uidPath) {
+        mIfaceFile = new ProcFile(ifacePath);
+        mUidFile = new ProcFile(uidPath);
+    }
+
+    /**
+     * Stores total rx bytes in out[0] and tx bytes in out[1].
+     * Throws if file cannot be read or has unexpected format.
+     */
+    void sample(long[] out) throws IOException {
+        mIfaceFile.read();
+        final byte[] buf = mIfaceFile.buffer;
+        final int length = mIfaceFile.length;
+
+        long rx = 0;
+        long tx = 0;
+        mIfaceCounters.begin();
+        int pos = 0;
+        while (pos < length) {
+            final int lineEnd = lineEnd(buf, pos, length);
+
+            // ifname rx_bytes rx_packets tx_bytes tx_packets
+            final int ifStart = skipSpaces(buf, pos, lineEnd);
+            final int ifEnd = skipToken(buf, ifStart, lineEnd);
+            if (ifStart < lineEnd) {
+                final int rxStart = skipSpaces(buf, ifEnd, lineEnd);
+                final int rxEnd = skipToken(buf, rxStart, lineEnd);
+                final int rxpEnd = skipToken(buf, skipSpaces(buf, rxEnd, lineEnd), lineEnd);
+                final int txStart = skipSpaces(buf, rxpEnd, lineEnd);
+                final int txEnd = skipToken(buf, txStart, lineEnd);
+                if (txStart == txEnd)
+                    throw new UnsupportedOperationException("Unsupported length of net params");
+
+                if (isCountedInterface(buf, ifStart, ifEnd)) {
+                    final long ifRx = parseLong(buf, rxStart, rxEnd);
+                    final long ifTx = parseLong(buf, txStart, txEnd);
+                    mIfaceCounters.add(getIfaceSlot(buf, ifStart, ifEnd), ifRx, ifTx);
+                    rx += ifRx;
+                    tx += ifTx;
+                }
+            }
+            pos = lineEnd + 1;
+        }
+        mIfaceCounters.commit();
+
+        out[0] = rx;
+        out[1] = tx;
+
+        if (mUidStatsEnabled && mUidStatsAvailable) {
+            try {
+                sampleUids();
+            } catch (Throwable t) {
+                // usually missing permission to see other UIDs; don't try again
+                mUidStatsAvailable = false;
+                mUidFile.close();
+            }
+        }
+    }
+
+    private void sampleUids() throws IOException {
+        mUidFile.read();
+        final byte[] buf = mUidFile.buffer;
+        final int length = mUidFile.length;
+
+        mUidCounters.begin();
+        int pos = 0;
+        while (pos < length) {
+            final int lineEnd = lineEnd(buf, pos, length);
+
+            // idx iface acct_tag_hex uid_tag_int cnt_set rx_bytes rx_packets tx_bytes ...
+            final int idxStart = skipSpaces(buf, pos, lineEnd);
+            final int idxEnd = skipToken(buf, idxStart, lineEnd);
+            if (idxStart < lineEnd && !tokenEquals(buf, idxStart, idxEnd, UID_HEADER)) {
+                final int ifStart = skipSpaces(buf, idxEnd, lineEnd);
+                final int ifEnd = skipToken(buf, ifStart, lineEnd);
+                final int tagStart = skipSpaces(buf, ifEnd, lineEnd);
+                final int tagEnd = skipToken(buf, tagStart, lineEnd);
+                final int uidStart = skipSpaces(buf, tagEnd, lineEnd);
+                final int uidEnd = skipToken(buf, uidStart, lineEnd);
+                final int setEnd = skipToken(buf, skipSpaces(buf, uidEnd, lineEnd), lineEnd);
+                final int rxStart = skipSpaces(buf, setEnd, lineEnd);
+                final int rxEnd = skipToken(buf, rxStart, lineEnd);
+                final int rxpEnd = skipToken(buf, skipSpaces(buf, rxEnd, lineEnd), lineEnd);
+                final int txStart = skipSpaces(buf, rxpEnd, lineEnd);
+                final int txEnd = skipToken(buf, txStart, lineEnd);
+
+                // only untagged rows carry complete per-UID totals
+                if (txStart < txEnd && tokenEquals(buf, tagStart, tagEnd, TAG_NONE) &&
+                        isCountedInterface(buf, ifStart, ifEnd)) {
+                    final int uid = (int) parseLong(buf, uidStart, uidEnd);
+                    mUidCounters.add(getUidSlot(uid),
+                            parseLong(buf, rxStart, rxEnd), parseLong(buf, txStart, txEnd));
+                }
+            }
+            pos = lineEnd + 1;
+        }
+        mUidCounters.commit();
+    }
+
+    void setUidStatsEnabled(boolean enabled) {
+        mUidStatsEnabled = enabled;
+        if (!enabled) {
+            mUidFile.close();
+        }
+    }
+
+    boolean isUidStatsAvailable() {
+        return (mUidStatsEnabled && mUidStatsAvailable);
+    }
+
+    Counters getInterfaceCounters() {
+        return mIfaceCounters;
+    }
+
+    String getInterfaceName(int slot) {
+        return mIfaceNames[slot];
+    }
+
+    Counters getUidCounters() {
+        return mUidCounters;
+    }
+
+    int getUid(int slot) {
+        return mSlotUids[slot];
+    }
+
+    void close() {
+        mIfaceFile.close();
+        mUidFile.close();
+    }
+
+    private int getIfaceSlot(byte[] buf, int start, int end) {
+        for (int i = 0; i < mIfaceCount; i++) {
+            if (tokenEquals(buf, start, end, mIfaceKeys[i])) {
+                return i;
+            }
+        }
+        if (mIfaceCount == mIfaceKeys.length) {
+            mIfaceKeys = Arrays.copyOf(mIfaceKeys, mIfaceCount * 2);
+            mIfaceNames = Arrays.copyOf(mIfaceNames, mIfaceCount * 2);
+        }
+        // new interface; the only place where name is materialized
+        mIfaceKeys[mIfaceCount] = Arrays.copyOfRange(buf, start, end);
+        mIfaceNames[mIfaceCount] = new String(buf, start, end - start, StandardCharsets.US_ASCII);
+        return mIfaceCount++;
+    }
+
+    private int getUidSlot(int uid) {
+        int slot = mUidSlots.get(uid, -1);
+        if (slot < 0) {
+            if (mUidCount == mSlotUids.length) {
+                mSlotUids = Arrays.copyOf(mSlotUids, mUidCount * 2);
+            }
+            slot = mUidCount++;
+            mSlotUids[slot] = uid;
+            mUidSlots.put(uid, slot);
+        }
+        return slot;
+    }
+
+    private static int lineEnd(byte[] buf, int pos, int end) {
+        while (pos < end && buf[pos] != '\n') pos++;
+        return pos;
+    }
+
+    private static boolean isSpace(byte b) {
+        return (b == ' ' || b == '\t' || b == '\r');
+    }
+
+    private static int skipSpaces(byte[] buf, int pos, int end) {
+        while (pos < end && isSpace(buf[pos])) pos++;
+        return pos;
+    }
+
+    private static int skipToken(byte[] buf, int pos, int end) {
+        while (pos < end && !isSpace(buf[pos])) pos++;
+        return pos;
+    }
+
+    private static boolean isCountedInterface(byte[] buf, int start, int end) {
+        return (!tokenEquals(buf, start, end, IFACE_HEADER) &&
+                !tokenEquals(buf, start, end, IFACE_LO) &&
+                !tokenStartsWith(buf, start, end, IFACE_TUN));
+    }
+
+    private static boolean tokenEquals(byte[] buf, int start, int end, byte[] value) {
+        return (end - start == value.length && tokenStartsWith(buf, start, end, value));
+    }
+
+    private static boolean tokenStartsWith(byte[] buf, int start, int end, byte[] value) {
+        if (end - start < value.length) return false;
+        for (int i = 0; i < value.length; i++) {
+            if (buf[start + i] != value[i]) return false;
+        }
+        return true;
+    }
+
+    private static long parseLong(byte[] buf, int start, int end) {
+        if (start == end) return 0;
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            final int digit = buf[i] - '0';
+            if (digit < 0 || digit > 9) return 0;
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * Per-slot rx/tx counters of the last sample and their deltas since the previous one.
+     */
+    static final class Counters {
+        private int mSize;
+        private long[] mRx = new long[8];
+        private long[] mTx = new long[8];
+        private long[] mLastRx = new long[8];
+        private long[] mLastTx = new long[8];
+        private long[] mDeltaRx = new long[8];
+        private long[] mDeltaTx = new long[8];
+        private boolean[] mSeen = new boolean[8];
+        private boolean[] mHasLast = new boolean[8];
+        private int mTopSlot = -1;
+
+        private void begin() {
+            for (int i = 0; i < mSize; i++) {
+                mRx[i] = 0;
+                mTx[i] = 0;
+                mSeen[i] = false;
+            }
+        }
+
+        private void add(int slot, long rx, long tx) {
+            if (slot >= mRx.length) {
+                final int capacity = Math.max(slot + 1, mRx.length * 2);
+                mRx = Arrays.copyOf(mRx, capacity);
+                mTx = Arrays.copyOf(mTx, capacity);
+                mLastRx = Arrays.copyOf(mLastRx, capacity);
+                mLastTx = Arrays.copyOf(mLastTx, capacity);
+                mDeltaRx = Arrays.copyOf(mDeltaRx, capacity);
+                mDeltaTx = Arrays.copyOf(mDeltaTx, capacity);
+                mSeen = Arrays.copyOf(mSeen, capacity);
+                mHasLast = Arrays.copyOf(mHasLast, capacity);
+            }
+            if (slot >= mSize) {
+                mSize = slot + 1;
+            }
+            mRx[slot] += rx;
+            mTx[slot] += tx;
+            mSeen[slot] = true;
+        }
+
+        private void commit() {
+            long top = 0;
+            mTopSlot = -1;
+            for (int i = 0; i < mSize; i++) {
+                if (mSeen[i] && mHasLast[i]) {
+                    mDeltaRx[i] = Math.max(0, mRx[i] - mLastRx[i]);
+                    mDeltaTx[i] = Math.max(0, mTx[i] - mLastTx[i]);
+                } else {
+                    mDeltaRx[i] = 0;
+                    mDeltaTx[i] = 0;
+                }
+                mHasLast[i] = mSeen[i];
+                mLastRx[i] = mRx[i];
+                mLastTx[i] = mTx[i];
+                if (mDeltaRx[i] + mDeltaTx[i] > top) {
+                    top = mDeltaRx[i] + mDeltaTx[i];
+                    mTopSlot = i;
+                }
+            }
+        }
+
+        int size() {
+            return mSize;
+        }
+
+        /**
+         * Slot with the most traffic since previous sample or -1 if there was none.
+         */
+        int getTopSlot() {
+            return mTopSlot;
+        }
+
+        long getDeltaRx(int slot) {
+            return mDeltaRx[slot];
+        }
+
+        long getDeltaTx(int slot) {
+            return mDeltaTx[slot];
+        }
+    }
+
+    private static final class ProcFile {
+        private final String mPath;
+        private RandomAccessFile mFile;
+        byte[] buffer = new byte[1024];
+        int length;
+
+        ProcFile(String path) {
+            mPath = path;
+        }
+
+        void read() throws IOException {
+            if (mFile == null) {
+                mFile = new RandomAccessFile(mPath, "r");
+            }
+            try {
+                mFile.seek(0);
+                length = 0;
+                int read;
+                while ((read = mFile.read(buffer, length, buffer.length - length)) > 0) {
+                    length += read;
+                    if (length == buffer.length) {
+                        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                    }
+                }
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        void close() {
+            if (mFile != null) {
+                try {
+                    mFile.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+                mFile = null;
+            }
+        }
+    }
+}
@@ -36,11 +36,13 @@ import android.os.Parcelable;
 import android.os.PowerManager;
 import android.service.notification.StatusBarNotification;
 import android.widget.RemoteViews;
+import com.wrbug.gravitybox.nougat.managers.ListenerRegistry;
+
 import de.robv.android.xposed.XSharedPreferences;
 import de.robv.android.xposed.XposedBridge;
 import de.robv.android.xposed.XposedHelpers;
 
-public class ProgressBarController implements BroadcastSubReceiver {
+public class ProgressBarController implements FilteredBroadcastSubReceiver {
     private static final String TAG = "GB:ProgressBarController";
     private static final boolean DEBUG = BuildConfig.DEBUG;
 
@@ -97,7 +99,7 @@ public class ProgressBarController implements BroadcastSubReceiver {
     public enum Mode { OFF, TOP, BOTTOM };
 
     private Context mContext;
-    private List<ProgressStateListener> mListeners;
+    private ListenerRegistry<ProgressStateListener> mListeners;
     private Mode mMode;
     private Map<String, ProgressInfo> mProgressList;
     private boolean mSoundEnabled;
@@ -124,7 +126,7 @@ public class ProgressBarController implements BroadcastSubReceiver {
 
     public ProgressBarController(Context ctx, XSharedPreferences prefs) {
         mContext = ctx;
-        mListeners = new ArrayList<ProgressStateListener>();
+        mListeners = new ListenerRegistry<>(TAG, ProgressStateListener.class);
         mProgressList = new LinkedHashMap<String, ProgressInfo>();
 
         mMode = Mode.valueOf(prefs.getString(GravityBoxSettings.PREF_KEY_STATUSBAR_DOWNLOAD_PROGRESS, "OFF"));
@@ -140,75 +142,53 @@ public class ProgressBarController implements BroadcastSubReceiver {
 
     public void registerListener(ProgressStateListener listener) {
         if (listener == null) return;
-        synchronized (mListeners) {
-            if (!mListeners.contains(listener)) {
-                mListeners.add(listener);
-            }
-        }
+        mListeners.add(listener);
     }
 
     public void unregisterListener(ProgressStateListener listener) {
         if (listener == null) return;
-        synchronized (mListeners) {
-            if (mListeners.contains(listener)) {
-                mListeners.remove(listener);
-            }
-        }
+        mListeners.remove(listener);
     }
 
     private void notifyProgressTrackingStarted() {
-        synchronized (mListeners) {
-            for (ProgressStateListener l : mListeners) {
-                l.onProgressTrackingStarted(mMode);
-            }
+        for (ProgressStateListener l : mListeners.getListeners()) {
+            l.onProgressTrackingStarted(mMode);
         }
     }
 
     private void notifyProgressTrackingStopped() {
-        synchronized (mListeners) {
-            for (ProgressStateListener l : mListeners) {
-                l.onProgressTrackingStopped();
-            }
+        for (ProgressStateListener l : mListeners.getListeners()) {
+            l.onProgressTrackingStopped();
         }
     }
 
     private void notifyProgressAdded(ProgressInfo pi) {
-        synchronized (mListeners) {
-            for (ProgressStateListener l : mListeners) {
-                l.onProgressAdded(pi);
-            }
+        for (ProgressStateListener l : mListeners.getListeners()) {
+            l.onProgressAdded(pi);
         }
     }
 
     private void notifyProgressUpdated(ProgressInfo pInfo) {
-        synchronized (mListeners) {
-            for (ProgressStateListener l : mListeners) {
-                l.onProgressUpdated(pInfo);
-            }
+        for (ProgressStateListener l : mListeners.getListeners()) {
+            l.onProgressUpdated(pInfo);
         }
     }
 
     private void notifyProgressRemoved(String id) {
-        synchronized (mListeners) {
-            for (ProgressStateListener l : mListeners) {
-                l.onProgressRemoved(id);
-            }
+        for (ProgressStateListener l : mListeners.getListeners()) {
+            l.onProgressRemoved(id);
         }
     }
 
     private void notifyModeChanged() {
-        synchronized (mListeners) {
-            for (ProgressStateListener l : mListeners) {
-                l.onProgressModeChanged(mMode);
-            }
+        for (ProgressStateListener l : mListeners.getListeners()) {
+            l.onProgressModeChanged(mMode);
         }
     }
 
     private void notifyPreferencesChanged(Intent intent) {
-        synchronized (mListeners) {
-            for (ProgressStateListener l : mListeners) {
-                l.onProgressPreferencesChanged(intent);
-            }
+        for (ProgressStateListener l : mListeners.getListeners()) {
+            l.onProgressPreferencesChanged(intent);
         }
     }
 
@@ -421,6 +401,13 @@ public class ProgressBarController implements BroadcastSubReceiver {
         }
     }
 
+    @Override
+    public String[] getBroadcastActions() {
+        return new String[] {
+                GravityBoxSettings.ACTION_PREF_STATUSBAR_DOWNLOAD_PROGRESS_CHANGED
+        };
+    }
+
     @Override
     public void onBroadcastReceived(Context context, Intent intent) {
         if (intent.getAction().equals(GravityBoxSettings.ACTION_PREF_STATUSBAR_DOWNLOAD_PROGRESS_CHANGED)) {
@@ -20,6 +20,7 @@ import de.robv.android.xposed.XSharedPreferences;
 import com.wrbug.gravitybox.nougat.managers.StatusBarIconManager;
 import com.wrbug.gravitybox.nougat.managers.SysUiManagers;
 import com.wrbug.gravitybox.nougat.ModStatusBar.ContainerType;
+import com.wrbug.gravitybox.nougat.managers.BatteryInfoManager;
 import com.wrbug.gravitybox.nougat.managers.BatteryInfoManager.BatteryData;
 import com.wrbug.gravitybox.nougat.managers.BatteryInfoManager.BatteryStatusListener;
 import com.wrbug.gravitybox.nougat.managers.StatusBarIconManager.ColorInfo;
@@ -74,7 +75,9 @@ public class StatusbarBatteryPercentage implements IconManagerListener, BatteryS
             SysUiManagers.IconManager.registerListener(this);
         }
         if (SysUiManagers.BatteryInfoManager != null) {
-            SysUiManagers.BatteryInfoManager.registerListener(this);
+            SysUiManagers.BatteryInfoManager.registerListener(this,
+                    BatteryInfoManager.FLAG_LEVEL_CHANGED |
+                    BatteryInfoManager.FLAG_CHARGING_CHANGED);
         }
     }
 
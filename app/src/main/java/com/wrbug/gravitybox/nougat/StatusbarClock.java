@@ -43,7 +43,7 @@ import android.view.View;
 import android.view.View.OnAttachStateChangeListener;
 import android.widget.TextView;
 
-public class StatusbarClock implements IconManagerListener, BroadcastSubReceiver {
+public class StatusbarClock implements IconManagerListener, FilteredBroadcastSubReceiver {
     private static final String TAG = "GB:StatusbarClock";
     private static final boolean DEBUG = false;
 
@@ -288,6 +288,16 @@ public class StatusbarClock implements IconManagerListener, BroadcastSubReceiver
         }
     }
 
+    @Override
+    public String[] getBroadcastActions() {
+        return new String[] {
+                GravityBoxSettings.ACTION_PREF_CLOCK_CHANGED,
+                Intent.ACTION_SCREEN_ON,
+                Intent.ACTION_SCREEN_OFF,
+                Intent.ACTION_CONFIGURATION_CHANGED
+        };
+    }
+
     @Override
     public void onBroadcastReceived(Context context, Intent intent) {
         if (intent.getAction().equals(GravityBoxSettings.ACTION_PREF_CLOCK_CHANGED)) {
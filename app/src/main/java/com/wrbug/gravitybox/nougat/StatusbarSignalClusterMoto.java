@@ -18,6 +18,7 @@ package com.wrbug.gravitybox.nougat;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -60,6 +61,14 @@ public class StatusbarSignalClusterMoto extends StatusbarSignalCluster {
                 mResources.getDisplayMetrics()));
     }
 
+    @Override
+    public String[] getBroadcastActions() {
+        String[] actions = super.getBroadcastActions();
+        actions = Arrays.copyOf(actions, actions.length + 1);
+        actions[actions.length - 1] = GravityBoxSettings.ACTION_PREF_SIGNAL_CLUSTER_CHANGED;
+        return actions;
+    }
+
     @Override
     public void onBroadcastReceived(Context context, Intent intent) { 
         super.onBroadcastReceived(context, intent);
@@ -1,5 +1,7 @@
 package com.wrbug.gravitybox.nougat;
 
+import java.util.Arrays;
+
 import de.robv.android.xposed.XposedHelpers;
 
 import com.wrbug.gravitybox.nougat.ModStatusBar.ContainerType;
@@ -18,6 +20,14 @@ public class StatusbarSignalClusterMtk extends StatusbarSignalCluster {
         super(containerType, view);
     }
 
+    @Override
+    public String[] getBroadcastActions() {
+        String[] actions = super.getBroadcastActions();
+        actions = Arrays.copyOf(actions, actions.length + 1);
+        actions[actions.length - 1] = GravityBoxSettings.ACTION_DISABLE_ROAMING_INDICATORS_CHANGED;
+        return actions;
+    }
+
     @Override
     public void onBroadcastReceived(Context context, Intent intent) {
         super.onBroadcastReceived(context, intent);
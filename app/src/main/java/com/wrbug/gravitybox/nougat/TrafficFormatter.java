@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2017 Peter Gregus for GravityBox Project (C3C076@xda)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wrbug.gravitybox.nougat;
+
+import java.text.DecimalFormatSymbols;
+
+/**
+ * Formats traffic amounts for TrafficMeter into a reused char buffer using
+ * fixed-point integer math. Result is read with {@link #getChars()} and {@link #length()}
+ * so that no String is created per sample.
+ */
+class TrafficFormatter {
+    private static final long KB = 1024;
+    private static final long MB = KB * KB;
+
+    private final char mDecimalSeparator;
+    private final char mGroupingSeparator;
+    private String mB = "B";
+    private String mKB = "KB";
+    private String mMB = "MB";
+    private String mS = "s";
+
+    private char[] mBuffer = new char[32];
+    private int mLength;
+    private final char[] mDigits = new char[20];
+
+    TrafficFormatter() {
+        DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance();
+        mDecimalSeparator = symbols.getDecimalSeparator();
+        mGroupingSeparator = symbols.getGroupingSeparator();
+    }
+
+    void setUnits(String b, String kb, String mb, String s) {
+        mB = b;
+        mKB = kb;
+        mMB = mb;
+        mS = s;
+    }
+
+    /**
+     * Formats amount as speed (e.g. 1.5MB/s) or as burst summary (e.g. (1.5MB)).
+     * Buffer returned by {@link #getChars()} is overwritten by the next call.
+     */
+    void format(long bytes, boolean speed) {
+        mLength = 0;
+        if (!speed) append('(');
+
+        String unit;
+        if (bytes > 10 * MB) {
+            appendInteger(bytes / MB, true);
+            unit = mMB;
+        } else if (bytes > MB) {
+            appendTenths(bytes, MB);
+            unit = mMB;
+        } else if (bytes > 10 * KB) {
+            appendInteger(bytes / KB, true);
+            unit = mKB;
+        } else if (bytes > KB) {
+            appendTenths(bytes, KB);
+            unit = mKB;
+        } else {
+            appendInteger(bytes, true);
+            unit = mB;
+        }
+
+        append(unit);
+        if (speed) {
+            append('/');
+            append(mS);
+        } else {
+            append(')');
+        }
+    }
+
+    char[] getChars() {
+        return mBuffer;
+    }
+
+    int length() {
+        return mLength;
+    }
+
+    // value / unit with one decimal, rounded half to even like DecimalFormat
+    private void appendTenths(long value, long unit) {
+        long tenths = value * 10 / unit;
+        final long remainder = value * 10 % unit;
+        if (remainder * 2 > unit || (remainder * 2 == unit && tenths % 2 != 0)) {
+            tenths++;
+        }
+        appendInteger(tenths / 10, false);
+        append(mDecimalSeparator);
+        append((char) ('0' + tenths % 10));
+    }
+
+    private void appendInteger(long value, boolean grouping) {
+        if (value < 0) {
+            append('-');
+            value = -value;
+        }
+        int count = 0;
+        do {
+            mDigits[count++] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        for (int i = count - 1; i >= 0; i--) {
+            append(mDigits[i]);
+            if (grouping && i > 0 && i % 3 == 0) {
+                append(mGroupingSeparator);
+            }
+        }
+    }
+
+    private void append(char c) {
+        if (mLength == mBuffer.length) {
+            char[] buffer = new char[mBuffer.length * 2];
+            System.arraycopy(mBuffer, 0, buffer, 0, mLength);
+            mBuffer = buffer;
+        }
+        mBuffer[mLength++] = c;
+    }
+
+    private void append(String s) {
+        final int length = s.length();
+        while (mLength + length > mBuffer.length) {
+            char[] buffer = new char[mBuffer.length * 2];
+            System.arraycopy(mBuffer, 0, buffer, 0, mLength);
+            mBuffer = buffer;
+        }
+        s.getChars(0, length, mBuffer, mLength);
+        mLength += length;
+    }
+}
@@ -24,9 +24,6 @@ import android.os.SystemClock;
 import android.util.TypedValue;
 import android.view.View;
 
-import java.text.DecimalFormat;
-import java.text.NumberFormat;
-
 import de.robv.android.xposed.XSharedPreferences;
 
 public class TrafficMeter extends TrafficMeterAbstract {
@@ -34,32 +31,28 @@ public class TrafficMeter extends TrafficMeterAbstract {
     public static final int INACTIVITY_MODE_HIDDEN = 1;
     public static final int INACTIVITY_MODE_SUMMARY = 2;
 
-    boolean mTrafficMeterHide;
-    int mTrafficMeterSummaryTime;
+    volatile boolean mTrafficMeterHide;
+    volatile int mTrafficMeterSummaryTime;
     long mTotalRxBytes;
     long mLastUpdateTime;
     long mTrafficBurstStartTime;
     long mTrafficBurstStartBytes;
     long mKeepOnUntil = Long.MIN_VALUE;
-    String mB = "B";
-    String mKB = "KB";
-    String mMB = "MB";
-    String mS = "s";
-
-    NumberFormat mDecimalFormat = new DecimalFormat("##0.0");
-    NumberFormat mIntegerFormat = NumberFormat.getIntegerInstance();
+    // used from sampler thread only
+    final TrafficFormatter mFormatter = new TrafficFormatter();
 
     public TrafficMeter(Context context) {
         super(context);
+        mStableWidth = true;
     }
 
     @Override
     protected void onInitialize(XSharedPreferences prefs) throws Throwable {
         Context gbContext = Utils.getGbContext(getContext());
-        mB = gbContext.getString(R.string.byte_abbr);
-        mKB = gbContext.getString(R.string.kilobyte_abbr);
-        mMB = gbContext.getString(R.string.megabyte_abbr);
-        mS = gbContext.getString(R.string.second_abbr);
+        mFormatter.setUnits(gbContext.getString(R.string.byte_abbr),
+                gbContext.getString(R.string.kilobyte_abbr),
+                gbContext.getString(R.string.megabyte_abbr),
+                gbContext.getString(R.string.second_abbr));
 
         try {
             int inactivityMode = Integer.valueOf(prefs.getString(
@@ -76,6 +69,7 @@ public class TrafficMeter extends TrafficMeterAbstract {
     protected void onPreferenceChanged(Intent intent) {
         if (intent.hasExtra(GravityBoxSettings.EXTRA_DT_SIZE)) {
             setTextSize(TypedValue.COMPLEX_UNIT_DIP, mSize);
+            resetStableWidth();
         }
         if (intent.hasExtra(GravityBoxSettings.EXTRA_DT_INACTIVITY_MODE)) {
             setInactivityMode(intent.getIntExtra(
@@ -85,52 +79,37 @@ public class TrafficMeter extends TrafficMeterAbstract {
 
     @Override
     protected void startTrafficUpdates() {
-        mTotalRxBytes = getTotalRxTxBytes()[0];
-        mLastUpdateTime = SystemClock.elapsedRealtime();
-        mTrafficBurstStartTime = Long.MIN_VALUE;
-
-        getHandler().removeCallbacks(mRunnable);
-        getHandler().post(mRunnable);
+        final Handler h = getSamplerHandler();
+        h.removeCallbacks(mStartRunnable);
+        h.removeCallbacks(mRunnable);
+        h.post(mStartRunnable);
     }
 
     @Override
     protected void stopTrafficUpdates() {
-        final Handler h = getHandler();
-        if (h != null && mRunnable != null) {
-            h.removeCallbacks(mRunnable);
-        }
+        final Handler h = getSamplerHandler();
+        h.removeCallbacks(mStartRunnable);
+        h.removeCallbacks(mRunnable);
     }
 
-    private String formatTraffic(long bytes, boolean speed) {
-        if (bytes > 10485760) { // 1024 * 1024 * 10
-            return (speed ? "" : "(")
-                    + mIntegerFormat.format(bytes / 1048576)
-                    + (speed ? mMB + "/" + mS : mMB + ")");
-        } else if (bytes > 1048576) { // 1024 * 1024
-            return (speed ? "" : "(")
-                    + mDecimalFormat.format(((float) bytes) / 1048576f)
-                    + (speed ? mMB + "/" + mS : mMB + ")");
-        } else if (bytes > 10240) { // 1024 * 10
-            return (speed ? "" : "(")
-                    + mIntegerFormat.format(bytes / 1024)
-                    + (speed ? mKB + "/" + mS : mKB + ")");
-        } else if (bytes > 1024) { // 1024
-            return (speed ? "" : "(")
-                    + mDecimalFormat.format(((float) bytes) / 1024f)
-                    + (speed ? mKB + "/" + mS : mKB + ")");
-        } else {
-            return (speed ? "" : "(")
-                    + mIntegerFormat.format(bytes)
-                    + (speed ? mB + "/" + mS : mB + ")");
+    Runnable mStartRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (!isUpdatesActive()) return;
+            mTotalRxBytes = getTotalRxTxBytes()[0];
+            mLastUpdateTime = SystemClock.elapsedRealtime();
+            mTrafficBurstStartTime = Long.MIN_VALUE;
+            mRunnable.run();
         }
-    }
+    };
 
+    // runs on sampler thread
     Runnable mRunnable = new Runnable() {
         @Override
         public void run() {
             long td = SystemClock.elapsedRealtime() - mLastUpdateTime;
 
-            if (!mAttached) {
+            if (!mAttached || !isUpdatesActive()) {
                 return;
             }
 
@@ -145,13 +124,16 @@ public class TrafficMeter extends TrafficMeterAbstract {
                 disconnected = true;
             }
 
+            // formatted text is in mFormatter buffer when true
+            boolean formatted = false;
             if (mTrafficMeterHide && newBytes == 0) {
                 long trafficBurstBytes = (canReadFromFile() && disconnected) ?
                         mTotalRxBytes - mTrafficBurstStartBytes : 
                             currentRxBytes - mTrafficBurstStartBytes;
 
                 if (trafficBurstBytes != 0 && mTrafficMeterSummaryTime != 0) {
-                    setText(formatTraffic(trafficBurstBytes, false));
+                    mFormatter.format(trafficBurstBytes, false);
+                    formatted = true;
 
                     if (DEBUG) log("Traffic burst ended: " + trafficBurstBytes + "B in "
                                     + (SystemClock.elapsedRealtime() - mTrafficBurstStartTime)
@@ -166,27 +148,42 @@ public class TrafficMeter extends TrafficMeterAbstract {
                     mTrafficBurstStartBytes = mTotalRxBytes;
                 }
                 if (td > 0) {
-                    setText(formatTraffic(newBytes * 1000 / td, true));
+                    mFormatter.format(newBytes * 1000 / td, true);
+                    formatted = true;
                 }
             }
 
             // Hide if there is no traffic
+            int visibility = VISIBILITY_UNCHANGED;
+            boolean clear = false;
             if (mTrafficMeterHide && newBytes == 0) {
-                if (getVisibility() != GONE
-                        && mKeepOnUntil < SystemClock.elapsedRealtime()) {
-                    setText("");
-                    setVisibility(View.GONE);
+                if (mKeepOnUntil < SystemClock.elapsedRealtime()) {
+                    clear = true;
+                    visibility = View.GONE;
                 }
             } else {
-                if (getVisibility() != VISIBLE) {
-                    setVisibility(View.VISIBLE);
-                }
+                visibility = View.VISIBLE;
+            }
+            if (clear) {
+                publishUpdate("", visibility);
+            } else if (formatted) {
+                publishUpdate(mFormatter.getChars(), mFormatter.length(), visibility);
+            } else {
+                publishUpdate((CharSequence) null, visibility);
             }
 
             mTotalRxBytes = (canReadFromFile() && disconnected) ? 
                     mTotalRxBytes : currentRxBytes;
             mLastUpdateTime = SystemClock.elapsedRealtime();
-            getHandler().postDelayed(mRunnable, mInterval);
+
+            // don't let backed off sampling keep burst summary longer than intended
+            long delay = getNextSampleDelay(newBytes != 0);
+            if (mKeepOnUntil > mLastUpdateTime) {
+                delay = Math.min(delay, mKeepOnUntil - mLastUpdateTime + 1);
+            }
+            if (isUpdatesActive()) {
+                getSamplerHandler().postDelayed(mRunnable, delay);
+            }
         }
     };
 
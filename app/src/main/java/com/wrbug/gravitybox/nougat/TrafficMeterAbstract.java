@@ -22,10 +22,7 @@ import com.wrbug.gravitybox.nougat.managers.StatusBarIconManager;
 import com.wrbug.gravitybox.nougat.managers.StatusBarIconManager.ColorInfo;
 import com.wrbug.gravitybox.nougat.managers.StatusBarIconManager.IconManagerListener;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
-import java.io.IOException;
 
 import android.content.BroadcastReceiver;
 import android.content.Context;
@@ -34,8 +31,13 @@ import android.content.IntentFilter;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.net.TrafficStats;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
 import android.telephony.PhoneStateListener;
 import android.telephony.TelephonyManager;
+import android.text.TextUtils;
 import android.util.TypedValue;
 import android.view.Gravity;
 import android.view.View;
@@ -47,13 +49,13 @@ import de.robv.android.xposed.XSharedPreferences;
 import de.robv.android.xposed.XposedBridge;
 
 public abstract class TrafficMeterAbstract extends TextView
-        implements BroadcastSubReceiver, IconManagerListener,
+        implements FilteredBroadcastSubReceiver, IconManagerListener,
         ProgressBarController.ProgressStateListener {
     protected static final String PACKAGE_NAME = "com.android.systemui";
     protected static final String TAG = "GB:NetworkTraffic";
     protected static final boolean DEBUG = false;
 
-    public static enum TrafficMeterMode {OFF, SIMPLE, OMNI}
+    public static enum TrafficMeterMode {OFF, SIMPLE, OMNI, BREAKDOWN}
 
     ;
 
@@ -62,8 +64,8 @@ public abstract class TrafficMeterAbstract extends TextView
     ;
 
     protected Context mGbContext;
-    protected boolean mAttached;
-    protected int mInterval = 1000;
+    protected volatile boolean mAttached;
+    protected volatile int mInterval = 1000;
     protected int mPosition;
     protected int mSize;
     protected int mMargin;
@@ -77,6 +79,29 @@ public abstract class TrafficMeterAbstract extends TextView
     protected boolean mIsTrackingProgress;
     protected boolean mAllowInLockscreen;
     private Boolean mCanReadFromFile;
+    // sampler and rx/tx array are accessed from sampler thread only
+    protected final NetStatsSampler mSampler = new NetStatsSampler();
+    private final long[] mRxTxBytes = new long[2];
+
+    protected static final int VISIBILITY_UNCHANGED = -1;
+    private static final int MAX_SAMPLE_DELAY = 8000;
+    private volatile int mSampleDelay;
+    private static HandlerThread sSamplerThread;
+    private static Handler sSamplerHandler;
+    private final Handler mUiHandler = new Handler(Looper.getMainLooper());
+    private final Object mPendingLock = new Object();
+    private CharSequence mPendingText;
+    // pending chars published by publishUpdate(char[], ...); length -1 if none
+    private char[] mPendingChars = new char[32];
+    private int mPendingCharsLength = -1;
+    // chars handed to TextView; modified only right before next setText(char[], ...)
+    private char[] mShownChars = new char[32];
+    private int mPendingVisibility = VISIBILITY_UNCHANGED;
+    // written on UI thread, checked on sampler thread before sampling and re-posting
+    private volatile boolean mUpdatesActive;
+    // grow-only minimum width so that changing digits don't resize the view on every update
+    protected boolean mStableWidth;
+    private int mStableMinWidth;
 
     protected static void log(String message) {
         XposedBridge.log(TAG + ": " + message);
@@ -87,6 +112,8 @@ public abstract class TrafficMeterAbstract extends TextView
             return new TrafficMeter(context);
         } else if (mode == TrafficMeterMode.OMNI) {
             return new TrafficMeterOmni(context);
+        } else if (mode == TrafficMeterMode.BREAKDOWN) {
+            return new TrafficMeterBreakdown(context);
         } else {
             throw new IllegalArgumentException("Invalid traffic meter mode supplied");
         }
@@ -164,9 +191,8 @@ public abstract class TrafficMeterAbstract extends TextView
                     && intent.hasExtra(ModDownloadProvider.EXTRA_ACTIVE)) {
                 mIsDownloadActive = intent.getBooleanExtra(ModDownloadProvider.EXTRA_ACTIVE, false);
                 if (DEBUG) log("ACTION_DOWNLOAD_STATE_CHANGED; active=" + mIsDownloadActive);
-                if (mDisplayMode == DisplayMode.DOWNLOAD_MANAGER) {
-                    updateState();
-                }
+                // also wakes up sampling that backed off while idle
+                updateState();
             }
         }
     };
@@ -221,6 +247,15 @@ public abstract class TrafficMeterAbstract extends TextView
         return mAllowInLockscreen;
     }
 
+    @Override
+    public String[] getBroadcastActions() {
+        return new String[] {
+                GravityBoxSettings.ACTION_PREF_DATA_TRAFFIC_CHANGED,
+                Intent.ACTION_SCREEN_ON,
+                Intent.ACTION_SCREEN_OFF
+        };
+    }
+
     @Override
     public void onBroadcastReceived(Context context, Intent intent) {
         String action = intent.getAction();
@@ -285,11 +320,17 @@ public abstract class TrafficMeterAbstract extends TextView
 
     protected void updateState() {
         if (shoudStartTrafficUpdates()) {
-            startTrafficUpdates();
+            mUpdatesActive = true;
+            mSampleDelay = mInterval;
+            postSamplerState(mStartSampling);
+            onTrafficUpdatesStarted();
             setVisibility(View.VISIBLE);
             if (DEBUG) log("traffic updates started");
         } else {
-            stopTrafficUpdates();
+            mUpdatesActive = false;
+            postSamplerState(mStopSampling);
+            resetStableWidth();
+            mUiHandler.removeCallbacks(mApplyPendingUpdate);
             setVisibility(View.GONE);
             setText("");
             if (DEBUG) log("traffic updates stopped");
@@ -332,14 +373,187 @@ public abstract class TrafficMeterAbstract extends TextView
     public void onProgressPreferencesChanged(Intent intent) {
     }
 
+    /**
+     * Shared low priority thread where all traffic meters read and format stats.
+     */
+    protected static synchronized Handler getSamplerHandler() {
+        if (sSamplerHandler == null) {
+            sSamplerThread = new HandlerThread(TAG + ".Sampler",
+                    Process.THREAD_PRIORITY_BACKGROUND);
+            sSamplerThread.start();
+            sSamplerHandler = new Handler(sSamplerThread.getLooper());
+        }
+        return sSamplerHandler;
+    }
+
+    /**
+     * Called from sampler thread to get delay before next sample.
+     * Backs off exponentially while there is no traffic and returns to
+     * configured interval as soon as traffic appears.
+     */
+    protected int getNextSampleDelay(boolean trafficSeen) {
+        if (trafficSeen) {
+            mSampleDelay = mInterval;
+        } else {
+            mSampleDelay = Math.min(mSampleDelay * 2, Math.max(mInterval, MAX_SAMPLE_DELAY));
+        }
+        return mSampleDelay;
+    }
+
+    // start and stop run on sampler thread so that they are serialized with sampling
+    private void postSamplerState(Runnable r) {
+        final Handler h = getSamplerHandler();
+        h.removeCallbacks(mStartSampling);
+        h.removeCallbacks(mStopSampling);
+        h.post(r);
+    }
+
+    private final Runnable mStartSampling = new Runnable() {
+        @Override
+        public void run() {
+            if (mUpdatesActive) {
+                startTrafficUpdates();
+            }
+        }
+    };
+
+    private final Runnable mStopSampling = new Runnable() {
+        @Override
+        public void run() {
+            stopTrafficUpdates();
+            mSampler.close();
+        }
+    };
+
+    /**
+     * Can be called from sampler thread. Sampling runnables must check it before
+     * reading stats and before posting next sample.
+     */
+    protected boolean isUpdatesActive() {
+        return mUpdatesActive;
+    }
+
+    /**
+     * Called from sampler thread to hand over precomputed state to UI thread.
+     * Updates not yet applied are coalesced; null text or VISIBILITY_UNCHANGED keep current value.
+     */
+    protected void publishUpdate(CharSequence text, int visibility) {
+        synchronized (mPendingLock) {
+            if (text != null) {
+                mPendingText = text;
+                mPendingCharsLength = -1;
+            }
+            if (visibility != VISIBILITY_UNCHANGED) {
+                mPendingVisibility = visibility;
+            }
+        }
+        mUiHandler.removeCallbacks(mApplyPendingUpdate);
+        mUiHandler.post(mApplyPendingUpdate);
+    }
+
+    /**
+     * Same as {@link #publishUpdate(CharSequence, int)} but copies text from chars so that
+     * callers can format into reused buffer. Text is applied with setText(char[], int, int)
+     * which doesn't create a String either.
+     */
+    protected void publishUpdate(char[] chars, int length, int visibility) {
+        synchronized (mPendingLock) {
+            if (mPendingChars.length < length) {
+                mPendingChars = new char[length];
+            }
+            System.arraycopy(chars, 0, mPendingChars, 0, length);
+            mPendingCharsLength = length;
+            mPendingText = null;
+            if (visibility != VISIBILITY_UNCHANGED) {
+                mPendingVisibility = visibility;
+            }
+        }
+        mUiHandler.removeCallbacks(mApplyPendingUpdate);
+        mUiHandler.post(mApplyPendingUpdate);
+    }
+
+    private final Runnable mApplyPendingUpdate = new Runnable() {
+        @Override
+        public void run() {
+            final CharSequence text;
+            final int visibility;
+            int charsLength = -1;
+            synchronized (mPendingLock) {
+                text = mPendingText;
+                visibility = mPendingVisibility;
+                mPendingText = null;
+                mPendingVisibility = VISIBILITY_UNCHANGED;
+                if (mPendingCharsLength >= 0 && mUpdatesActive &&
+                        !contentEquals(getText(), mPendingChars, mPendingCharsLength)) {
+                    if (mShownChars.length < mPendingCharsLength) {
+                        mShownChars = new char[mPendingChars.length];
+                    }
+                    System.arraycopy(mPendingChars, 0, mShownChars, 0, mPendingCharsLength);
+                    charsLength = mPendingCharsLength;
+                }
+                mPendingCharsLength = -1;
+            }
+            // late update of already stopped meter
+            if (!mUpdatesActive) return;
+
+            if (text != null && !TextUtils.equals(text, getText())) {
+                if (mStableWidth) {
+                    ensureStableWidth(text);
+                }
+                setText(text);
+            } else if (charsLength >= 0) {
+                if (mStableWidth) {
+                    ensureStableWidth(getPaint().measureText(mShownChars, 0, charsLength));
+                }
+                setText(mShownChars, 0, charsLength);
+            }
+            if (visibility != VISIBILITY_UNCHANGED && visibility != getVisibility()) {
+                setVisibility(visibility);
+            }
+        }
+    };
+
+    private static boolean contentEquals(CharSequence text, char[] chars, int length) {
+        if (text == null || text.length() != length) return false;
+        for (int i = 0; i < length; i++) {
+            if (text.charAt(i) != chars[i]) return false;
+        }
+        return true;
+    }
+
+    private void ensureStableWidth(CharSequence text) {
+        ensureStableWidth(getPaint().measureText(text, 0, text.length()));
+    }
+
+    private void ensureStableWidth(float textWidth) {
+        final int width = (int) Math.ceil(textWidth) +
+                getCompoundPaddingLeft() + getCompoundPaddingRight();
+        if (width > mStableMinWidth) {
+            mStableMinWidth = width;
+            setMinWidth(width);
+        }
+    }
+
+    protected void resetStableWidth() {
+        if (mStableMinWidth != 0) {
+            mStableMinWidth = 0;
+            setMinWidth(0);
+        }
+    }
+
     protected abstract void onInitialize(XSharedPreferences prefs) throws Throwable;
 
     protected abstract void onPreferenceChanged(Intent intent);
 
+    // called on sampler thread
     protected abstract void startTrafficUpdates();
 
+    // called on sampler thread
     protected abstract void stopTrafficUpdates();
 
+    // called on UI thread when updates get started
+    protected void onTrafficUpdatesStarted() { }
+
     protected boolean canReadFromFile() {
         if (mCanReadFromFile == null) {
             File f = new File("/proc/net/dev");
@@ -348,61 +562,32 @@ public abstract class TrafficMeterAbstract extends TextView
         return mCanReadFromFile;
     }
 
+    /**
+     * Returns total rx/tx bytes in an array reused by subsequent calls.
+     * Must be called from sampler thread.
+     */
     protected long[] getTotalRxTxBytes() {
-        return (canReadFromFile() ? getTotalRxTxBytesFromFile() :
-                getTotalRxTxBytesFromStats());
-    }
-
-    private static boolean isCountedInterface(String iface) {
-        return (iface != null &&
-                !iface.equals("ifname") &&
-                !iface.equals("lo") &&
-                !iface.startsWith("tun"));
-    }
-
-    private static long tryParseLong(String obj) {
-        try {
-            return Long.parseLong(obj);
-        } catch (Exception e) {
-            return 0;
+        if (canReadFromFile()) {
+            getTotalRxTxBytesFromFile(mRxTxBytes);
+        } else {
+            getTotalRxTxBytesFromStats(mRxTxBytes);
         }
+        return mRxTxBytes;
     }
 
-    private static long[] getTotalRxTxBytesFromFile() {
-        String line;
-        String[] segs;
-        BufferedReader in = null;
-        long[] bytes = new long[]{0, 0};
+    private void getTotalRxTxBytesFromFile(long[] bytes) {
         try {
-            FileReader fr = new FileReader("/proc/net/xt_qtaguid/iface_stat_fmt");
-            in = new BufferedReader(fr);
-            while ((line = in.readLine()) != null) {
-                segs = line.split(" ");
-                if (segs.length < 4)
-                    throw new UnsupportedOperationException("Unsupported length of net params");
-
-                if (isCountedInterface(segs[0])) {
-                    if (DEBUG) log("iface:" + segs[0] + "; RX=" + segs[1] + "; TX=" + segs[3]);
-                    bytes[0] += tryParseLong(segs[1]);
-                    bytes[1] += tryParseLong(segs[3]);
-                }
-            }
+            mSampler.sample(bytes);
+            if (DEBUG) log("RX=" + bytes[0] + "; TX=" + bytes[1]);
         } catch (Throwable t) {
             if (DEBUG) XposedBridge.log(t);
             // fallback to TrafficStats
-            bytes = getTotalRxTxBytesFromStats();
-        } finally {
-            if (in != null) try {
-                in.close();
-            } catch (IOException e) {
-            }
-            ;
+            getTotalRxTxBytesFromStats(bytes);
         }
-        return bytes;
     }
 
-    private static long[] getTotalRxTxBytesFromStats() {
-        return new long[]{TrafficStats.getTotalRxBytes(),
-                TrafficStats.getTotalTxBytes()};
+    private static void getTotalRxTxBytesFromStats(long[] bytes) {
+        bytes[0] = TrafficStats.getTotalRxBytes();
+        bytes[1] = TrafficStats.getTotalTxBytes();
     }
 }
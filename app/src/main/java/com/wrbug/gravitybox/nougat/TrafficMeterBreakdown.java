@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2017 Peter Gregus for GravityBox Project (C3C076@xda)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wrbug.gravitybox.nougat;
+
+import java.text.DecimalFormat;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.os.Handler;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.SparseArray;
+import android.util.TypedValue;
+import android.view.View;
+
+import de.robv.android.xposed.XSharedPreferences;
+
+/**
+ * Shows which network interface or, if per-UID stats are readable, which app
+ * is currently driving most of the traffic together with its rate.
+ * Uses counters collected by the same sample as totals, no extra polling.
+ */
+public class TrafficMeterBreakdown extends TrafficMeterAbstract {
+    private static final int KILOBYTE = 1024;
+    private static final String SYMBOL_DOWN = "\u2193";
+    private static final String SYMBOL_UP = "\u2191";
+
+    private DecimalFormat mDecimalFormat = new DecimalFormat("##0.#");
+    private String mByteSymbol = "B/s";
+    private String mKiloSymbol = "k";
+    private String mMegaSymbol = "M";
+    private String mGigaSymbol = "G";
+    private String mSystemLabel = "Android";
+    private volatile boolean mShowTopApp;
+    private long mLastUpdateTime;
+    private int mTxtSizeMulti;
+    // accessed on sampler thread only
+    private final SparseArray<String> mUidLabels = new SparseArray<String>();
+    private boolean mPackageReceiverRegistered;
+
+    public TrafficMeterBreakdown(Context context) {
+        super(context);
+        mDecimalFormat.setMaximumIntegerDigits(4);
+        mDecimalFormat.setMaximumFractionDigits(1);
+    }
+
+    @Override
+    protected void onInitialize(XSharedPreferences prefs) throws Throwable {
+        mGbContext = Utils.getGbContext(getContext());
+        mByteSymbol = mGbContext.getString(R.string.byte_per_sec_abbr);
+        mKiloSymbol = mGbContext.getString(R.string.kilo_abbr);
+        mMegaSymbol = mGbContext.getString(R.string.mega_abbr);
+        mGigaSymbol = mGbContext.getString(R.string.giga_abbr);
+        mSystemLabel = mGbContext.getString(R.string.dt_breakdown_system_label);
+
+        mShowTopApp = prefs.getBoolean(GravityBoxSettings.PREF_KEY_DATA_TRAFFIC_BREAKDOWN_UID, true);
+        getSamplerHandler().post(mApplyUidStatsEnabled);
+        setSize();
+    }
+
+    @Override
+    protected void onPreferenceChanged(Intent intent) {
+        if (intent.hasExtra(GravityBoxSettings.EXTRA_DT_SIZE)) {
+            setSize();
+        }
+        if (intent.hasExtra(GravityBoxSettings.EXTRA_DT_BREAKDOWN_UID)) {
+            mShowTopApp = intent.getBooleanExtra(GravityBoxSettings.EXTRA_DT_BREAKDOWN_UID, true);
+            getSamplerHandler().post(mApplyUidStatsEnabled);
+        }
+    }
+
+    private void setSize() {
+        mTxtSizeMulti = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, mSize - 4,
+                getResources().getDisplayMetrics());
+        setTextSize(TypedValue.COMPLEX_UNIT_PX, mTxtSizeMulti);
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        if (!mPackageReceiverRegistered) {
+            IntentFilter filter = new IntentFilter();
+            filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+            filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+            filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+            filter.addDataScheme("package");
+            getContext().registerReceiver(mPackageReceiver, filter);
+            mPackageReceiverRegistered = true;
+            // packages might have changed while detached
+            getSamplerHandler().post(mClearUidLabels);
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        if (mPackageReceiverRegistered) {
+            getContext().unregisterReceiver(mPackageReceiver);
+            mPackageReceiverRegistered = false;
+        }
+    }
+
+    // uids get reused after uninstall so cached labels must be dropped
+    private BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            getSamplerHandler().post(mClearUidLabels);
+        }
+    };
+
+    private Runnable mClearUidLabels = new Runnable() {
+        @Override
+        public void run() {
+            mUidLabels.clear();
+        }
+    };
+
+    private Runnable mApplyUidStatsEnabled = new Runnable() {
+        @Override
+        public void run() {
+            mSampler.setUidStatsEnabled(mShowTopApp);
+        }
+    };
+
+    @Override
+    protected void startTrafficUpdates() {
+        final Handler h = getSamplerHandler();
+        h.removeCallbacks(mStartRunnable);
+        h.removeCallbacks(mRunnable);
+        h.post(mStartRunnable);
+    }
+
+    @Override
+    protected void stopTrafficUpdates() {
+        final Handler h = getSamplerHandler();
+        h.removeCallbacks(mStartRunnable);
+        h.removeCallbacks(mRunnable);
+    }
+
+    private Runnable mStartRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (!isUpdatesActive()) return;
+            // first sample only establishes baseline for deltas
+            getTotalRxTxBytes();
+            mLastUpdateTime = SystemClock.elapsedRealtime();
+            getSamplerHandler().postDelayed(mRunnable, mInterval);
+        }
+    };
+
+    // runs on sampler thread
+    private Runnable mRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (!mAttached || !isUpdatesActive()) {
+                return;
+            }
+
+            getTotalRxTxBytes();
+            final long now = SystemClock.elapsedRealtime();
+            final long td = Math.max(1, now - mLastUpdateTime);
+            mLastUpdateTime = now;
+
+            String label = null;
+            long rx = 0;
+            long tx = 0;
+            if (mSampler.isUidStatsAvailable()) {
+                NetStatsSampler.Counters uids = mSampler.getUidCounters();
+                int slot = uids.getTopSlot();
+                if (slot >= 0) {
+                    label = getUidLabel(mSampler.getUid(slot));
+                    rx = uids.getDeltaRx(slot);
+                    tx = uids.getDeltaTx(slot);
+                }
+            }
+            if (label == null) {
+                NetStatsSampler.Counters ifaces = mSampler.getInterfaceCounters();
+                int slot = ifaces.getTopSlot();
+                if (slot >= 0) {
+                    label = mSampler.getInterfaceName(slot);
+                    rx = ifaces.getDeltaRx(slot);
+                    tx = ifaces.getDeltaTx(slot);
+                }
+            }
+
+            if (label == null) {
+                publishUpdate("", View.GONE);
+            } else {
+                publishUpdate(label + "\n" +
+                        SYMBOL_DOWN + formatSpeed(rx * 1000 / td) + " " +
+                        SYMBOL_UP + formatSpeed(tx * 1000 / td), View.VISIBLE);
+            }
+
+            if (isUpdatesActive()) {
+                getSamplerHandler().postDelayed(mRunnable, getNextSampleDelay(label != null));
+            }
+        }
+    };
+
+    private String formatSpeed(long speed) {
+        if (speed < KILOBYTE) {
+            return mDecimalFormat.format(speed) + mByteSymbol;
+        } else if (speed < KILOBYTE * KILOBYTE) {
+            return mDecimalFormat.format(speed / (float) KILOBYTE) + mKiloSymbol + mByteSymbol;
+        } else if (speed < KILOBYTE * KILOBYTE * KILOBYTE) {
+            return mDecimalFormat.format(speed / (float) (KILOBYTE * KILOBYTE)) +
+                    mMegaSymbol + mByteSymbol;
+        }
+        return mDecimalFormat.format(speed / (float) (KILOBYTE * KILOBYTE * KILOBYTE)) +
+                mGigaSymbol + mByteSymbol;
+    }
+
+    private String getUidLabel(int uid) {
+        String label = mUidLabels.get(uid);
+        if (label == null) {
+            label = resolveUidLabel(uid);
+            mUidLabels.put(uid, label);
+        }
+        return label;
+    }
+
+    private String resolveUidLabel(int uid) {
+        if (uid < Process.FIRST_APPLICATION_UID) {
+            return mSystemLabel;
+        }
+        final PackageManager pm = getContext().getPackageManager();
+        final String[] pkgs = pm.getPackagesForUid(uid);
+        if (pkgs != null && pkgs.length > 0) {
+            try {
+                ApplicationInfo ai = pm.getApplicationInfo(pkgs[0], 0);
+                return String.valueOf(ai.loadLabel(pm));
+            } catch (PackageManager.NameNotFoundException e) {
+                return pkgs[0];
+            }
+        }
+        return String.valueOf(uid);
+    }
+}
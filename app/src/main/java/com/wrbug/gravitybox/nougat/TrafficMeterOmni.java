@@ -57,22 +57,24 @@ public class TrafficMeterOmni extends TrafficMeterAbstract {
 
     private enum Mode { IN, OUT, IN_OUT };
 
-    private long[] totalRxTxBytes = new long[] { 0, 0 };
+    private final long[] totalRxTxBytes = new long[] { 0, 0 };
     private long lastUpdateTime;
     private int txtSizeSingle;
     private int txtSizeMulti;
     private int KB = KILOBYTE;
     private int MB = KB * KB;
     private int GB = MB * KB;
-    private Mode mMode;
+    private volatile Mode mMode;
     private int mIconColor;
     private boolean mShowIcon;
-    private boolean mAutoHide;
-    private int mAutoHideThreshold;
+    private volatile boolean mAutoHide;
+    private volatile int mAutoHideThreshold;
 
-    private Handler mTrafficHandler = new Handler() {
+    // runs on sampler thread
+    private Handler mTrafficHandler = new Handler(getSamplerHandler().getLooper()) {
         @Override
         public void handleMessage(Message msg) {
+            if (!isUpdatesActive()) return;
             long timeDelta = SystemClock.elapsedRealtime() - lastUpdateTime;
 
             if (timeDelta < mInterval * .95) {
@@ -93,8 +95,7 @@ public class TrafficMeterOmni extends TrafficMeterAbstract {
             long txData = newTotalRxTxBytes[1] - totalRxTxBytes[1];
 
             if (shouldHide(rxData, txData, timeDelta)) {
-                setText("");
-                setVisibility(View.GONE);
+                publishUpdate("", View.GONE);
             } else {
                 // If bit/s convert from Bytes to bits
                 String symbol;
@@ -112,13 +113,8 @@ public class TrafficMeterOmni extends TrafficMeterAbstract {
                     output = formatOutput(timeDelta, txData, symbol);
                 }
     
-                // Ensure text size is where it needs to be
-                int textSize;
                 if (mMode == Mode.IN_OUT) {
                     output += "\n";
-                    textSize = txtSizeMulti;
-                } else {
-                    textSize = txtSizeSingle;
                 }
     
                 // Add information for downlink if it's called for
@@ -126,19 +122,17 @@ public class TrafficMeterOmni extends TrafficMeterAbstract {
                     output += formatOutput(timeDelta, rxData, symbol);
                 }
     
-                // Update view if there's anything new to show
-                if (!output.contentEquals(getText()) || msg.what == 1) {
-                    setTextSize(TypedValue.COMPLEX_UNIT_PX, (float)textSize);
-                    setText(output);
-                }
-                setVisibility(View.VISIBLE);
+                // View is updated only if there's anything new to show
+                publishUpdate(output, View.VISIBLE);
             }
 
-            // Post delayed message to refresh in ~1000ms
+            // Post delayed message to refresh in ~1000ms or later if idle
             totalRxTxBytes[0] = newTotalRxTxBytes[0];
             totalRxTxBytes[1] = newTotalRxTxBytes[1];
             clearHandlerCallbacks();
-            mTrafficHandler.postDelayed(mRunnable, mInterval);
+            if (isUpdatesActive()) {
+                mTrafficHandler.postDelayed(mRunnable, getNextSampleDelay(rxData != 0 || txData != 0));
+            }
         }
 
         private String formatOutput(long timeDelta, long data, String symbol) {
@@ -173,6 +167,18 @@ public class TrafficMeterOmni extends TrafficMeterAbstract {
         }
     };
 
+    private Runnable mStartRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (!isUpdatesActive()) return;
+            long[] rxTxBytes = getTotalRxTxBytes();
+            totalRxTxBytes[0] = rxTxBytes[0];
+            totalRxTxBytes[1] = rxTxBytes[1];
+            lastUpdateTime = SystemClock.elapsedRealtime();
+            mTrafficHandler.sendEmptyMessage(1);
+        }
+    };
+
     public TrafficMeterOmni(Context context) {
         super(context);
     }
@@ -197,6 +203,7 @@ public class TrafficMeterOmni extends TrafficMeterAbstract {
     protected void onPreferenceChanged(Intent intent) {
         if (intent.hasExtra(GravityBoxSettings.EXTRA_DT_OMNI_MODE)) {
             mMode = Mode.valueOf(intent.getStringExtra(GravityBoxSettings.EXTRA_DT_OMNI_MODE));
+            updateTextSize();
         }
         if (intent.hasExtra(GravityBoxSettings.EXTRA_DT_OMNI_SHOW_ICON)) {
             mShowIcon = intent.getBooleanExtra(GravityBoxSettings.EXTRA_DT_OMNI_SHOW_ICON, true);
@@ -218,19 +225,30 @@ public class TrafficMeterOmni extends TrafficMeterAbstract {
                 resources.getDisplayMetrics()));
         txtSizeMulti = (int) (TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, mSize-4,
                 resources.getDisplayMetrics()));
+        updateTextSize();
+    }
+
+    private void updateTextSize() {
+        setTextSize(TypedValue.COMPLEX_UNIT_PX,
+                (float) (mMode == Mode.IN_OUT ? txtSizeMulti : txtSizeSingle));
     }
 
     @Override
     protected void startTrafficUpdates() {
-        totalRxTxBytes = getTotalRxTxBytes();
-        lastUpdateTime = SystemClock.elapsedRealtime();
-        mTrafficHandler.sendEmptyMessage(1);
+        clearHandlerCallbacks();
+        mTrafficHandler.removeCallbacks(mStartRunnable);
+        mTrafficHandler.post(mStartRunnable);
+    }
+
+    @Override
+    protected void onTrafficUpdatesStarted() {
         updateTrafficDrawable();
     }
 
     @Override
     protected void stopTrafficUpdates() {
         clearHandlerCallbacks();
+        mTrafficHandler.removeCallbacks(mStartRunnable);
     }
 
     private void clearHandlerCallbacks() {
@@ -18,7 +18,8 @@ package com.wrbug.gravitybox.nougat;
 import de.robv.android.xposed.XposedBridge;
 import de.robv.android.xposed.XposedHelpers;
 
-import android.annotation.SuppressLint;
+import com.wrbug.gravitybox.nougat.util.BlurEngine;
+
 import android.app.ActivityManager;
 import android.content.Context;
 import android.content.pm.PackageInfo;
@@ -47,12 +48,7 @@ import android.os.IBinder;
 import android.os.Looper;
 import android.os.UserHandle;
 import android.os.Vibrator;
-import android.renderscript.Allocation;
-import android.renderscript.Allocation.MipmapControl;
 import android.telecom.TelecomManager;
-import android.renderscript.Element;
-import android.renderscript.RenderScript;
-import android.renderscript.ScriptIntrinsicBlur;
 import android.telephony.TelephonyManager;
 import android.util.DisplayMetrics;
 import android.view.View;
@@ -67,7 +63,6 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.reflect.Constructor;
 import java.util.*;
-import java.util.Map.Entry;
 
 import static de.robv.android.xposed.XposedHelpers.callStaticMethod;
 import static de.robv.android.xposed.XposedHelpers.findClass;
@@ -546,52 +541,59 @@ public class Utils {
     }
 
     public static Bitmap blurBitmap(Context context, Bitmap bmp, float radius) {
-        Bitmap out = Bitmap.createBitmap(bmp);
-        RenderScript rs = RenderScript.create(context);
-        radius = Math.min(Math.max(radius, 0), 25);
-
-        Allocation input = Allocation.createFromBitmap(
-                rs, bmp, MipmapControl.MIPMAP_NONE, Allocation.USAGE_SCRIPT);
-        Allocation output = Allocation.createTyped(rs, input.getType());
-
-        ScriptIntrinsicBlur script = ScriptIntrinsicBlur.create(rs, Element.U8_4(rs));
-        script.setInput(input);
-        script.setRadius(radius);
-        script.forEach(output);
-
-        output.copyTo(out);
-
-        rs.destroy();
-        return out;
+        return BlurEngine.getInstance(context).blur(bmp, radius);
     }
 
-    @SuppressLint("UseSparseArrays")
-    public static int getBitmapPredominantColor(Bitmap bmp) {
-        int width = bmp.getWidth();
-        int height = bmp.getHeight();
-        int[] pixels = new int[width * height];
+    // max pixels sampled by default so that large bitmaps stay cheap to scan
+    private static final int PREDOMINANT_COLOR_MAX_SAMPLES = 1 << 22;
 
-        bmp.getPixels(pixels, 0, width, 0, 0, width, height);
+    public static int getBitmapPredominantColor(Bitmap bmp) {
+        final long pixels = (long) bmp.getWidth() * bmp.getHeight();
+        final int stride = pixels <= PREDOMINANT_COLOR_MAX_SAMPLES ? 1 :
+                (int) Math.ceil(Math.sqrt((double) pixels / PREDOMINANT_COLOR_MAX_SAMPLES));
+        return getBitmapPredominantColor(bmp, stride);
+    }
 
-        Map<Integer, Integer> tmpMap = new HashMap<Integer, Integer>();
-        for (int i = 0; i < pixels.length; i++) {
-            Integer counter = (Integer) tmpMap.get(pixels[i]);
-            if (counter == null) counter = 0;
-            counter++;
-            tmpMap.put(pixels[i], counter);
+    /**
+     * Finds predominant color using RGB444 histogram of every stride-th pixel of every stride-th row.
+     * Returns average color of the most populated bucket ignoring fully transparent pixels.
+     */
+    public static int getBitmapPredominantColor(Bitmap bmp, int stride) {
+        final int width = bmp.getWidth();
+        final int height = bmp.getHeight();
+        stride = Math.max(1, stride);
+
+        final int[] row = new int[width];
+        final int[] counts = new int[4096];
+        // long sums so that explicit small strides on huge bitmaps cannot overflow
+        final long[] sums = new long[4096 * 3];
+        for (int y = 0; y < height; y += stride) {
+            bmp.getPixels(row, 0, width, 0, y, width, 1);
+            for (int x = 0; x < width; x += stride) {
+                final int c = row[x];
+                if ((c >>> 24) == 0) continue;
+                final int r = (c >> 16) & 0xFF;
+                final int g = (c >> 8) & 0xFF;
+                final int b = c & 0xFF;
+                final int bucket = ((r >> 4) << 8) | ((g >> 4) << 4) | (b >> 4);
+                counts[bucket]++;
+                sums[bucket * 3] += r;
+                sums[bucket * 3 + 1] += g;
+                sums[bucket * 3 + 2] += b;
+            }
         }
 
-        Entry<Integer, Integer> maxEntry = null;
-        for (Entry<Integer, Integer> entry : tmpMap.entrySet()) {
-            // discard transparent pixels
-            if (entry.getKey() == Color.TRANSPARENT) continue;
-
-            if (maxEntry == null || entry.getValue() > maxEntry.getValue()) {
-                maxEntry = entry;
+        int maxBucket = -1;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0 && (maxBucket < 0 || counts[i] > counts[maxBucket])) {
+                maxBucket = i;
             }
         }
+        if (maxBucket < 0) return Color.TRANSPARENT;
 
-        return maxEntry.getKey();
+        final int n = counts[maxBucket];
+        return Color.rgb((int) (sums[maxBucket * 3] / n), (int) (sums[maxBucket * 3 + 1] / n),
+                (int) (sums[maxBucket * 3 + 2] / n));
     }
 
     public static Bitmap getCircleBitmap(Bitmap bitmap) {
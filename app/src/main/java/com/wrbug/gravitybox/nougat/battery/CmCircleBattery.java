@@ -18,6 +18,7 @@ package com.wrbug.gravitybox.nougat.battery;
 
 import android.content.Context;
 import android.content.res.Resources;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.DashPathEffect;
@@ -28,13 +29,15 @@ import android.graphics.RectF;
 import android.os.Handler;
 import android.support.v7.widget.AppCompatImageView;
 import android.util.TypedValue;
-import android.widget.ImageView;
+import android.view.View;
 
 import com.wrbug.gravitybox.nougat.BatteryStyleController;
 import com.wrbug.gravitybox.nougat.BuildConfig;
+import com.wrbug.gravitybox.nougat.FrameTicker;
 import com.wrbug.gravitybox.nougat.ModStatusBar;
 import com.wrbug.gravitybox.nougat.ModStatusBar.ContainerType;
 import com.wrbug.gravitybox.nougat.Utils;
+import com.wrbug.gravitybox.nougat.managers.BatteryInfoManager;
 import com.wrbug.gravitybox.nougat.managers.BatteryInfoManager.BatteryData;
 import com.wrbug.gravitybox.nougat.managers.BatteryInfoManager.BatteryStatusListener;
 import com.wrbug.gravitybox.nougat.managers.StatusBarIconManager;
@@ -48,6 +51,9 @@ public class CmCircleBattery extends AppCompatImageView implements IconManagerLi
     private static final String TAG = "GB:CircleBattery";
     private static final boolean DEBUG = BuildConfig.DEBUG;
 
+    private static final long ANIM_FRAME_DELAY = 50; // ms
+    private static final int ANIM_STEP = 3; // degrees per ANIM_FRAME_DELAY
+
     public enum Style {SOLID, DASHED}
 
     ;
@@ -61,6 +67,8 @@ public class CmCircleBattery extends AppCompatImageView implements IconManagerLi
     private boolean mIsPowerSaving; // whether power saving mode is on
     private int mAnimOffset;    // current level of charging animation
     private boolean mIsAnimating;   // stores charge-animation status to reliably remove callbacks
+    private long mLastAnimFrameNanos; // frame time of last animation step
+    private boolean mScreenOn = true;
     private int mDockLevel;     // current dock battery level
     private boolean mDockIsCharging;// whether or not dock battery is currently charging
     private boolean mPercentage;    // whether to show percentage
@@ -83,6 +91,11 @@ public class CmCircleBattery extends AppCompatImageView implements IconManagerLi
     private float mStrokeWidthFactor;
     private DashPathEffect mPathEffect;
 
+    // gray ring and percentage text do not change during charge animation
+    // so they are rendered once into bitmap and only the level arc is drawn per frame
+    private Bitmap mStaticLayer;
+    private boolean mStaticLayerDirty = true;
+
     private static void log(String message) {
         XposedBridge.log(TAG + ": " + message);
     }
@@ -96,13 +109,36 @@ public class CmCircleBattery extends AppCompatImageView implements IconManagerLi
         }
     };
 
+    // advances charge animation on shared FrameTicker which wakes up only once per
+    // ANIM_FRAME_DELAY; frames are aligned with vsync and stop arriving when the display is off
+    private final FrameTicker.Callback mAnimFrame = new FrameTicker.Callback() {
+        @Override
+        public boolean onFrame(long frameTimeNanos) {
+            if (!mIsAnimating) return false;
+            if (mLastAnimFrameNanos == 0) {
+                mLastAnimFrameNanos = frameTimeNanos;
+                return true;
+            }
+            // advance by elapsed time so that skipped frames do not slow down rotation
+            final long steps = (frameTimeNanos - mLastAnimFrameNanos) / (ANIM_FRAME_DELAY * 1000000);
+            if (steps > 0) {
+                mLastAnimFrameNanos = frameTimeNanos;
+                mAnimOffset = (int) ((mAnimOffset + steps * ANIM_STEP) % 360);
+                invalidate();
+            }
+            return true;
+        }
+    };
+
     // keeps track of current battery level and charger-plugged-state
     @Override
     public void onBatteryStatusChanged(BatteryData batteryData) {
         mLevel = batteryData.level;
         mIsCharging = batteryData.charging;
         mIsPowerSaving = batteryData.isPowerSaving;
+        mStaticLayerDirty = true;
         if (mAttached) {
+            updateChargeAnim();
             invalidate();
         }
     }
@@ -159,6 +195,7 @@ public class CmCircleBattery extends AppCompatImageView implements IconManagerLi
 
     public void setPercentage(boolean enable) {
         mPercentage = enable;
+        mStaticLayerDirty = true;
         if (mAttached) {
             invalidate();
         }
@@ -175,6 +212,8 @@ public class CmCircleBattery extends AppCompatImageView implements IconManagerLi
                 mPathEffect = new DashPathEffect(new float[]{3, 2}, 0);
                 break;
         }
+        mPaintSystem.setPathEffect(mPathEffect);
+        mPaintRed.setPathEffect(mPathEffect);
         mRectLeft = null;
         if (mAttached) {
             invalidate();
@@ -190,9 +229,13 @@ public class CmCircleBattery extends AppCompatImageView implements IconManagerLi
                 SysUiManagers.IconManager.registerListener(this);
             }
             if (SysUiManagers.BatteryInfoManager != null) {
-                SysUiManagers.BatteryInfoManager.registerListener(this);
+                SysUiManagers.BatteryInfoManager.registerListener(this,
+                        BatteryInfoManager.FLAG_LEVEL_CHANGED |
+                        BatteryInfoManager.FLAG_CHARGING_CHANGED |
+                        BatteryInfoManager.FLAG_POWER_SAVING_CHANGED);
             }
             mHandler.postDelayed(mInvalidate, 250);
+            updateChargeAnim();
         }
     }
 
@@ -207,13 +250,38 @@ public class CmCircleBattery extends AppCompatImageView implements IconManagerLi
             if (SysUiManagers.BatteryInfoManager != null) {
                 SysUiManagers.BatteryInfoManager.unregisterListener(this);
             }
+            mHandler.removeCallbacks(mInvalidate);
+            updateChargeAnim();
             mRectLeft = null; // makes sure, size based variables get
             // recalculated on next attach
             mCircleSize = 0;    // makes sure, mCircleSize is reread from icons on
             // next attach
+            if (mStaticLayer != null) {
+                mStaticLayer.recycle();
+                mStaticLayer = null;
+            }
         }
     }
 
+    @Override
+    protected void onVisibilityChanged(View changedView, int visibility) {
+        super.onVisibilityChanged(changedView, visibility);
+        updateChargeAnim();
+    }
+
+    @Override
+    protected void onWindowVisibilityChanged(int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+        updateChargeAnim();
+    }
+
+    @Override
+    public void onScreenStateChanged(int screenState) {
+        super.onScreenStateChanged(screenState);
+        mScreenOn = screenState == SCREEN_STATE_ON;
+        updateChargeAnim();
+    }
+
     @Override
     protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
         if (mCircleSize == 0) {
@@ -228,37 +296,59 @@ public class CmCircleBattery extends AppCompatImageView implements IconManagerLi
         initSizeBasedStuff();
     }
 
-    private void drawCircle(Canvas canvas, int level, int animOffset, float textX, RectF drawRect) {
-        final Paint usePaint = level <= 15 &&
+    private Paint getLevelPaint(int level) {
+        return level <= 15 &&
                 (!mIsPowerSaving ||
                         mController.getContainerType() != ContainerType.STATUSBAR ||
                         mController.isBatterySaverIndicationDisabled()) ?
                 mPaintRed : mPaintSystem;
-        usePaint.setAntiAlias(true);
-        usePaint.setPathEffect(mPathEffect);
+    }
 
-        // pad circle percentage to 100% once it reaches 97%
-        // for one, the circle looks odd with a too small gap,
-        // for another, some phones never reach 100% due to hardware design
-        int padLevel = level;
-        if (padLevel >= 97) {
-            padLevel = 100;
+    private void updateStaticLayer(int level, Paint usePaint) {
+        final int width = Math.max(1, mCircleSize + getPaddingLeft());
+        final int height = Math.max(1, mCircleSize);
+        if (mStaticLayer == null || mStaticLayer.getWidth() != width ||
+                mStaticLayer.getHeight() != height) {
+            if (mStaticLayer != null) {
+                mStaticLayer.recycle();
+            }
+            mStaticLayer = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        } else {
+            mStaticLayer.eraseColor(Color.TRANSPARENT);
         }
 
+        Canvas canvas = new Canvas(mStaticLayer);
         // draw thin gray ring first
-        canvas.drawArc(drawRect, 270, 360, false, mPaintGray);
-        // draw colored arc representing charge level
-        canvas.drawArc(drawRect, 270 + animOffset, 3.6f * padLevel, false, usePaint);
+        canvas.drawArc(mRectLeft, 270, 360, false, mPaintGray);
         // if chosen by options, draw percentage text in the middle
         // always skip percentage when 100, so layout doesnt break
         if (level < 100 && mPercentage) {
             mPaintFont.setColor(usePaint.getColor());
             // Workarround for drawing bug on Samsung Roms
             if (Utils.isSamsungRom()) mPaintFont.setStyle(Paint.Style.FILL);
-            canvas.drawText(Integer.toString(level), textX, mTextY, mPaintFont);
+            canvas.drawText(Integer.toString(level), mTextLeftX, mTextY, mPaintFont);
             if (Utils.isSamsungRom()) mPaintFont.setStyle(Paint.Style.STROKE);
         }
+        mStaticLayerDirty = false;
+    }
+
+    private void drawCircle(Canvas canvas, int level, int animOffset, RectF drawRect) {
+        final Paint usePaint = getLevelPaint(level);
+
+        // pad circle percentage to 100% once it reaches 97%
+        // for one, the circle looks odd with a too small gap,
+        // for another, some phones never reach 100% due to hardware design
+        int padLevel = level;
+        if (padLevel >= 97) {
+            padLevel = 100;
+        }
 
+        if (mStaticLayerDirty || mStaticLayer == null) {
+            updateStaticLayer(level, usePaint);
+        }
+        canvas.drawBitmap(mStaticLayer, 0, 0, null);
+        // draw colored arc representing charge level
+        canvas.drawArc(drawRect, 270 + animOffset, 3.6f * padLevel, false, usePaint);
     }
 
     @Override
@@ -267,36 +357,34 @@ public class CmCircleBattery extends AppCompatImageView implements IconManagerLi
             initSizeBasedStuff();
         }
 
-        updateChargeAnim();
+        drawCircle(canvas, mLevel, (mIsCharging ? mAnimOffset : 0), mRectLeft);
+    }
 
-        drawCircle(canvas, mLevel, (mIsCharging ? mAnimOffset : 0), mTextLeftX, mRectLeft);
+    private boolean isChargeAnimNeeded() {
+        // pad level makes circle full from 97% so there is nothing to animate above it
+        return (mIsCharging && mLevel < 97) || (mDockIsCharging && mDockLevel < 97);
     }
 
     /***
-     * updates the animation counter
-     * cares for timed callbacks to continue animation cycles
-     * uses mInvalidate for delayed invalidate() callbacks
+     * starts or stops charge animation frame callbacks
+     * animation runs only while charging and the view is actually visible on a screen that is on
      */
     private void updateChargeAnim() {
-        if (!(mIsCharging || mDockIsCharging) || (mLevel >= 97 && mDockLevel >= 97)) {
-            if (mIsAnimating) {
-                mIsAnimating = false;
-                mAnimOffset = 0;
-                mHandler.removeCallbacks(mInvalidate);
-            }
-            return;
+        final boolean needed = isChargeAnimNeeded();
+        final boolean run = needed && mAttached && mScreenOn &&
+                getWindowVisibility() == VISIBLE && isShown();
+        if (run && !mIsAnimating) {
+            mIsAnimating = true;
+            mLastAnimFrameNanos = 0;
+            FrameTicker.getInstance().start(mAnimFrame, ANIM_FRAME_DELAY);
+        } else if (!run && mIsAnimating) {
+            mIsAnimating = false;
+            FrameTicker.getInstance().stop(mAnimFrame);
         }
-
-        mIsAnimating = true;
-
-        if (mAnimOffset > 360) {
+        if (!needed && mAnimOffset != 0) {
             mAnimOffset = 0;
-        } else {
-            mAnimOffset += 3;
+            invalidate();
         }
-
-        mHandler.removeCallbacks(mInvalidate);
-        mHandler.postDelayed(mInvalidate, 50);
     }
 
     /***
@@ -315,6 +403,7 @@ public class CmCircleBattery extends AppCompatImageView implements IconManagerLi
         mPaintRed.setStrokeWidth(strokeWidth);
         mPaintSystem.setStrokeWidth(strokeWidth);
         mPaintGray.setStrokeWidth(strokeWidth);
+        mStaticLayerDirty = true;
 
         // calculate rectangle for drawArc calls
         int pLeft = getPaddingLeft();
@@ -348,6 +437,7 @@ public class CmCircleBattery extends AppCompatImageView implements IconManagerLi
     public void setColor(int color) {
         mPaintSystem.setColor(color);
         mPaintFont.setColor(color);
+        mStaticLayerDirty = true;
         invalidate();
     }
 
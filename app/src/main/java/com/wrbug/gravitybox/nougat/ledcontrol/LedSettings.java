@@ -20,6 +20,7 @@ import java.util.Set;
 
 import com.wrbug.gravitybox.nougat.GravityBoxSettings;
 import com.wrbug.gravitybox.nougat.Utils;
+import com.wrbug.gravitybox.nougat.util.KeywordMatcher;
 import com.wrbug.gravitybox.nougat.util.SharedPreferencesUtils;
 
 import android.app.Notification;
@@ -92,6 +93,7 @@ public class LedSettings {
     private LedMode mLedMode;
     private boolean mQhIgnore;
     private String mQhIgnoreList;
+    private KeywordMatcher mQhIgnoreMatcher;
     private HeadsUpMode mHeadsUpMode;
     private boolean mHeadsUpDnd;
     private int mHeadsUpTimeout;
@@ -401,6 +403,7 @@ public class LedSettings {
 
     protected void setQhIgnoreList(String ignoreList) {
         mQhIgnoreList = ignoreList;
+        mQhIgnoreMatcher = null;
     }
 
     protected void setHeadsUpMode(HeadsUpMode mode) {
@@ -551,6 +554,17 @@ public class LedSettings {
         return mQhIgnoreList;
     }
 
+    /**
+     * Keyword matcher compiled from ignore list, or null if ignore list is empty.
+     */
+    public KeywordMatcher getQhIgnoreMatcher() {
+        if (mQhIgnoreMatcher == null && mQhIgnoreList != null &&
+                !mQhIgnoreList.trim().isEmpty()) {
+            mQhIgnoreMatcher = KeywordMatcher.compile(mQhIgnoreList.trim().split(","));
+        }
+        return mQhIgnoreMatcher;
+    }
+
     public HeadsUpMode getHeadsUpMode() {
         return mHeadsUpMode;
     }
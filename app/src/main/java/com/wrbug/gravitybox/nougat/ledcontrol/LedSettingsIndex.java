@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2015 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wrbug.gravitybox.nougat.ledcontrol;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import android.os.SystemClock;
+import de.robv.android.xposed.XSharedPreferences;
+import de.robv.android.xposed.XposedBridge;
+
+/**
+ * Precompiled per-package LedSettings built from ledcontrol preferences.
+ * Lookups never parse strings; the index is rebuilt only on explicit reload
+ * or when preferences file on disk changes.
+ */
+public class LedSettingsIndex {
+    public static final String KEY_DEFAULT = "default";
+    private static final long FILE_CHECK_INTERVAL_MS = 1000;
+
+    private final XSharedPreferences mPrefs;
+    private final LedSettings mEmpty;
+    private volatile Map<String, LedSettings> mIndex;
+    private volatile long mLastFileCheck;
+    private volatile int mVersion;
+
+    public LedSettingsIndex(XSharedPreferences prefs) {
+        mPrefs = prefs;
+        mEmpty = LedSettings.deserialize((Set<String>) null);
+        rebuild();
+    }
+
+    public synchronized void reload() {
+        mPrefs.reload();
+        rebuild();
+    }
+
+    public void reloadIfFileChanged() {
+        final long now = SystemClock.uptimeMillis();
+        if (now - mLastFileCheck < FILE_CHECK_INTERVAL_MS) return;
+        mLastFileCheck = now;
+        if (mPrefs.hasFileChanged()) {
+            reload();
+        }
+    }
+
+    public LedSettings get(String pkgName) {
+        LedSettings ls = mIndex.get(pkgName);
+        return (ls == null ? mEmpty : ls);
+    }
+
+    public LedSettings getDefault() {
+        return get(KEY_DEFAULT);
+    }
+
+    public int size() {
+        return mIndex.size();
+    }
+
+    public int getVersion() {
+        return mVersion;
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized void rebuild() {
+        Map<String, LedSettings> index = new HashMap<String, LedSettings>();
+        try {
+            for (Map.Entry<String, ?> entry : mPrefs.getAll().entrySet()) {
+                if (!(entry.getValue() instanceof Set)) continue;
+                LedSettings ls = LedSettings.deserialize((Set<String>) entry.getValue());
+                ls.setPackageName(entry.getKey());
+                index.put(entry.getKey(), ls);
+            }
+        } catch (Throwable t) {
+            XposedBridge.log(t);
+        }
+        mIndex = Collections.unmodifiableMap(index);
+        mVersion++;
+    }
+}
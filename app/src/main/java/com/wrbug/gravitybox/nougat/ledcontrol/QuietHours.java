@@ -16,15 +16,13 @@ package com.wrbug.gravitybox.nougat.ledcontrol;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Calendar;
-import java.util.GregorianCalendar;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Locale;
 import java.util.Set;
+import java.util.TimeZone;
 
 import com.wrbug.gravitybox.nougat.ModLedControl;
-import com.wrbug.gravitybox.nougat.Utils;
+import com.wrbug.gravitybox.nougat.util.KeywordMatcher;
 
 import android.app.Notification;
 import android.content.SharedPreferences;
@@ -62,6 +60,29 @@ public class QuietHours {
     Set<String> weekDays;
     public boolean muteSystemVibe;
 
+    private static final int MINUTES_PER_DAY = 1440;
+    private static final int MINUTES_PER_WEEK = 7 * MINUTES_PER_DAY;
+    private static final long MS_PER_MINUTE = 60000;
+    // upper bound for validity of cached state so DST and time zone shifts get picked up
+    private static final long MAX_STATE_VALIDITY_MS = 30 * MS_PER_MINUTE;
+
+    // weekly schedule with minute resolution; bit index = (dayOfWeek - 1) * 1440 + minuteOfDay
+    private long[] mSchedule;
+    private boolean[] mWeekDayFlags;
+    private volatile ScheduleState mState;
+
+    private static final class ScheduleState {
+        final boolean active;
+        final long validFromMs;
+        final long validUntilMs;
+
+        ScheduleState(boolean active, long validFromMs, long validUntilMs) {
+            this.active = active;
+            this.validFromMs = validFromMs;
+            this.validUntilMs = validUntilMs;
+        }
+    }
+
     public QuietHours(SharedPreferences prefs) {
         uncLocked = prefs.getBoolean(QuietHoursActivity.PREF_KEY_QH_LOCKED, false);
         enabled = prefs.getBoolean(QuietHoursActivity.PREF_KEY_QH_ENABLED, false);
@@ -89,19 +110,18 @@ public class QuietHours {
         }
 
         if (ls.getEnabled() && ls.getQhIgnore()) {
-            if (ls.getQhIgnoreList() == null || ls.getQhIgnoreList().trim().isEmpty()) {
+            final KeywordMatcher matcher = ls.getQhIgnoreMatcher();
+            if (matcher == null) {
                 if (ModLedControl.DEBUG) ModLedControl.log("QH ignored for all notifications");
                 return false;
             } else {
-                List<String> notifTexts = getNotificationTexts(n);
-                String[] keywords = ls.getQhIgnoreList().trim().split(",");
-                boolean ignore = false;
-                for (String kw : keywords) {
-                    kw = kw.toLowerCase(Locale.getDefault());
-                    ignore |= n.tickerText != null && n.tickerText.toString()
-                            .toLowerCase(Locale.getDefault()).contains(kw);
-                    for (String notifText : notifTexts) {
-                        ignore |= notifText.toLowerCase(Locale.getDefault()).contains(kw);
+                boolean ignore = matcher.matches(n.tickerText);
+                if (!ignore) {
+                    for (String notifText : getNotificationTexts(n)) {
+                        if (matcher.matches(notifText)) {
+                            ignore = true;
+                            break;
+                        }
                     }
                 }
                 if (ModLedControl.DEBUG) ModLedControl.log("QH ignore list contains keyword?: " + ignore);
@@ -119,13 +139,82 @@ public class QuietHours {
             return (mode == Mode.ON || mode == Mode.WEAR);
         }
 
-        Calendar c = new GregorianCalendar();
-        c.setTimeInMillis(System.currentTimeMillis());
-        int curMin = c.get(Calendar.HOUR_OF_DAY) * 60 + c.get(Calendar.MINUTE);
-        int dayOfWeek = c.get(Calendar.DAY_OF_WEEK);
+        return getScheduleState().active;
+    }
+
+    /**
+     * Returns wall clock time of the next scheduled on/off transition,
+     * or 0 if quiet hours are not driven by schedule.
+     */
+    public long getNextTransitionTime() {
+        if (uncLocked || !enabled || mode != Mode.AUTO) return 0;
+        return getScheduleState().validUntilMs;
+    }
+
+    public void invalidateSchedule() {
+        mState = null;
+    }
+
+    private ScheduleState getScheduleState() {
+        final long now = System.currentTimeMillis();
+        ScheduleState state = mState;
+        if (state == null || now >= state.validUntilMs || now < state.validFromMs) {
+            state = updateScheduleState(now);
+        }
+        return state;
+    }
+
+    private synchronized ScheduleState updateScheduleState(long now) {
+        if (mSchedule == null) {
+            mSchedule = compileSchedule();
+        }
+        final long localNow = now + TimeZone.getDefault().getOffset(now);
+        // 1 Jan 1970 was Thursday; Calendar.SUNDAY == 1
+        final int dayOfWeek = (int) ((localNow / (MINUTES_PER_DAY * MS_PER_MINUTE) + 4) % 7) + 1;
+        final int curMin = (int) ((localNow % (MINUTES_PER_DAY * MS_PER_MINUTE)) / MS_PER_MINUTE);
+        final int index = (dayOfWeek - 1) * MINUTES_PER_DAY + curMin;
+        final boolean active = isScheduled(index);
+
+        int minutes = 1;
+        while (minutes < MINUTES_PER_WEEK &&
+                isScheduled((index + minutes) % MINUTES_PER_WEEK) == active) {
+            minutes++;
+        }
+        final long minuteStart = now - localNow % MS_PER_MINUTE;
+        final long validUntil = Math.min(minuteStart + minutes * MS_PER_MINUTE,
+                now + MAX_STATE_VALIDITY_MS - localNow % MAX_STATE_VALIDITY_MS);
+
+        mState = new ScheduleState(active, minuteStart, validUntil);
+        if (ModLedControl.DEBUG) ModLedControl.log("QH schedule state: active=" + active +
+                "; valid for " + (validUntil - now) + "ms");
+        return mState;
+    }
+
+    private boolean isScheduled(int index) {
+        return (mSchedule[index >> 6] & (1L << (index & 63))) != 0;
+    }
+
+    private long[] compileSchedule() {
+        mWeekDayFlags = new boolean[8];
+        for (int day = 1; day <= 7; day++) {
+            mWeekDayFlags[day] = weekDays.contains(String.valueOf(day));
+        }
+        long[] schedule = new long[(MINUTES_PER_WEEK + 63) >> 6];
+        for (int day = 1; day <= 7; day++) {
+            for (int min = 0; min < MINUTES_PER_DAY; min++) {
+                if (isActiveAt(day, min)) {
+                    final int index = (day - 1) * MINUTES_PER_DAY + min;
+                    schedule[index >> 6] |= 1L << (index & 63);
+                }
+            }
+        }
+        return schedule;
+    }
+
+    private boolean isActiveAt(int dayOfWeek, int curMin) {
         int s = start; 
         int e = end;
-        if (!weekDays.contains(String.valueOf(dayOfWeek))) {
+        if (!mWeekDayFlags[dayOfWeek]) {
             s = startAlt;
             e = endAlt;
         }
@@ -139,10 +228,8 @@ public class QuietHours {
                     // weekend range spans midnight
                     // let's apply weekend start time instead
                     s = startAlt;
-                    if (ModLedControl.DEBUG) ModLedControl.log("Applying weekend start time for day before weekend");
                 } else {
                     // weekend range happens on the next day
-                    if (ModLedControl.DEBUG) ModLedControl.log("Ignoring quiet hours for day before weekend");
                     return false;
                 }
             }
@@ -155,16 +242,20 @@ public class QuietHours {
                     // weekday range spans midnight
                     // let's apply weekday start time instead
                     s = start;
-                    if (ModLedControl.DEBUG) ModLedControl.log("Applying weekday start time for day before weekday");
                 } else {
                     // weekday range happens on the next day
-                    if (ModLedControl.DEBUG) ModLedControl.log("Ignoring quiet hours for day before weekday");
                     return false;
                 }
             }
         }
 
-        return (Utils.isTimeOfDayInRange(System.currentTimeMillis(), s, e));
+        if (s == e) {
+            return false;
+        } else if (s > e) {
+            return (curMin >= s || curMin < e);
+        } else {
+            return (curMin >= s && curMin < e);
+        }
     }
 
     public boolean isSystemSoundMuted(String systemSound) {
@@ -173,14 +264,12 @@ public class QuietHours {
 
     private boolean isTransitionToWeekend(int day) {
         int nextDay = (day==7 ? 1 : day+1);
-        return (weekDays.contains(String.valueOf(day)) &&
-                    !weekDays.contains(String.valueOf(nextDay)));
+        return (mWeekDayFlags[day] && !mWeekDayFlags[nextDay]);
     }
 
     private boolean isTransitionToWeekDay(int day) {
         int nextDay = (day==7 ? 1 : day+1);
-        return (!weekDays.contains(String.valueOf(day)) &&
-                    weekDays.contains(String.valueOf(nextDay)));
+        return (!mWeekDayFlags[day] && mWeekDayFlags[nextDay]);
     }
 
     private List<String> getNotificationTexts(Notification notification) {
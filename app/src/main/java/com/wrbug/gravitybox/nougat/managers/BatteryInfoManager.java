@@ -15,8 +15,6 @@
 
 package com.wrbug.gravitybox.nougat.managers;
 
-import java.util.ArrayList;
-
 import com.wrbug.gravitybox.nougat.BroadcastSubReceiver;
 import com.wrbug.gravitybox.nougat.GravityBox;
 import com.wrbug.gravitybox.nougat.GravityBoxSettings;
@@ -35,10 +33,15 @@ import android.net.Uri;
 import android.os.BatteryManager;
 import android.os.PowerManager;
 import android.telephony.TelephonyManager;
+import android.view.Choreographer;
 
 public class BatteryInfoManager implements BroadcastSubReceiver {
+    private static final String TAG = "GB:BatteryInfoManager";
+
     private BatteryData mBatteryData;
-    private ArrayList<BatteryStatusListener> mListeners;
+    private ListenerRegistry<Subscription> mListeners;
+    private Choreographer mChoreographer;
+    private int mPendingChanges;
     private Context mContext;
     private Uri[] mSounds;
     private TelephonyManager mTelephonyManager;
@@ -50,6 +53,14 @@ public class BatteryInfoManager implements BroadcastSubReceiver {
     public static final int SOUND_UNPLUGGED = 2;
     public static final int SOUND_WIRELESS = 3;
 
+    public static final int FLAG_LEVEL_CHANGED = 1 << 0;
+    public static final int FLAG_CHARGING_CHANGED = 1 << 1;
+    public static final int FLAG_POWER_SOURCE_CHANGED = 1 << 2;
+    public static final int FLAG_TEMPERATURE_CHANGED = 1 << 3;
+    public static final int FLAG_VOLTAGE_CHANGED = 1 << 4;
+    public static final int FLAG_POWER_SAVING_CHANGED = 1 << 5;
+    public static final int FLAG_ALL = 0x3F;
+
     public enum LowBatteryWarningPolicy { DEFAULT, NONINTRUSIVE, OFF };
 
     public static final String ACTION_POWER_SAVE_MODE_CHANGING = 
@@ -63,6 +74,8 @@ public class BatteryInfoManager implements BroadcastSubReceiver {
         public int temperature;
         public int voltage;
         public boolean isPowerSaving;
+        // FLAG_* bits of fields changed since previous dispatch
+        public int changedFlags;
 
         public float getTempCelsius() {
             return ((float)temperature/10f);
@@ -89,6 +102,7 @@ public class BatteryInfoManager implements BroadcastSubReceiver {
             bd.temperature = this.temperature;
             bd.voltage = this.voltage;
             bd.isPowerSaving = this.isPowerSaving;
+            bd.changedFlags = this.changedFlags;
             return bd;
         }
 
@@ -97,7 +111,8 @@ public class BatteryInfoManager implements BroadcastSubReceiver {
                     "; powerSource="+this.powerSource+
                     "; temperature="+this.temperature+
                     "; voltage="+this.voltage+
-                    "; isPowerSaving="+this.isPowerSaving;
+                    "; isPowerSaving="+this.isPowerSaving+
+                    "; changedFlags="+this.changedFlags;
                     
         }
     }
@@ -106,10 +121,30 @@ public class BatteryInfoManager implements BroadcastSubReceiver {
         void onBatteryStatusChanged(BatteryData batteryData);
     }
 
+    private static class Subscription {
+        final BatteryStatusListener listener;
+        final int flags;
+
+        Subscription(BatteryStatusListener listener, int flags) {
+            this.listener = listener;
+            this.flags = flags;
+        }
+    }
+
+    // dispatches changes accumulated since last frame at most once per frame
+    private final Choreographer.FrameCallback mDispatchCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            final int changes = mPendingChanges;
+            mPendingChanges = 0;
+            notifyListeners(changes);
+        }
+    };
+
     protected BatteryInfoManager(Context context, XSharedPreferences prefs) {
         mContext = context;
         mBatteryData = new BatteryData();
-        mListeners = new ArrayList<BatteryStatusListener>();
+        mListeners = new ListenerRegistry<>(TAG, Subscription.class);
         mSounds = new Uri[4];
         mPowerManager = (PowerManager) mContext.getSystemService(Context.POWER_SERVICE);
         mBatteryData.isPowerSaving = mPowerManager.isPowerSaveMode();
@@ -130,30 +165,71 @@ public class BatteryInfoManager implements BroadcastSubReceiver {
     }
 
     public void registerListener(BatteryStatusListener listener) {
+        registerListener(listener, FLAG_ALL);
+    }
+
+    /**
+     * Registers listener to be notified only when any of fields given by FLAG_* bits change.
+     * Listener receives current state immediately.
+     */
+    public void registerListener(BatteryStatusListener listener, int flags) {
         if (listener == null) return;
-        synchronized(mListeners) {
-            if (!mListeners.contains(listener)) {
-                mListeners.add(listener);
-                listener.onBatteryStatusChanged(mBatteryData);
-            }
+        for (Subscription s : mListeners.getListeners()) {
+            if (s.listener == listener) return;
         }
+        mListeners.add(new Subscription(listener, flags));
+        BatteryData bd = mBatteryData.clone();
+        bd.changedFlags = FLAG_ALL;
+        listener.onBatteryStatusChanged(bd);
     }
 
     public void unregisterListener(BatteryStatusListener listener) {
         if (listener == null) return;
-        synchronized(mListeners) {
-            if (mListeners.contains(listener)) {
-                mListeners.remove(listener);
+        for (Subscription s : mListeners.getListeners()) {
+            if (s.listener == listener) {
+                mListeners.remove(s);
+                return;
+            }
+        }
+    }
+
+    private void scheduleNotify(int changes) {
+        if (mPendingChanges == 0) {
+            if (mChoreographer == null) {
+                mChoreographer = Choreographer.getInstance();
             }
+            mChoreographer.postFrameCallback(mDispatchCallback);
         }
+        mPendingChanges |= changes;
     }
 
-    private void notifyListeners() {
-        synchronized(mListeners) {
-            for (BatteryStatusListener listener : mListeners) {
-                listener.onBatteryStatusChanged(mBatteryData.clone());
+    // dispatch state used by reusable mDispatcher; nested dispatches restore it
+    private int mDispatchChanges;
+    private BatteryData mDispatchData;
+
+    private final ListenerRegistry.Dispatcher<Subscription> mDispatcher =
+            new ListenerRegistry.Dispatcher<Subscription>() {
+        @Override
+        public void dispatch(Subscription s) {
+            if ((s.flags & mDispatchChanges) == 0) return;
+            if (mDispatchData == null) {
+                mDispatchData = mBatteryData.clone();
             }
+            // listeners only read the data so single copy can be shared
+            s.listener.onBatteryStatusChanged(mDispatchData);
         }
+    };
+
+    private void notifyListeners(int changes) {
+        if (changes == 0) return;
+        mBatteryData.changedFlags = changes;
+        final int prevChanges = mDispatchChanges;
+        final BatteryData prevData = mDispatchData;
+        mDispatchChanges = changes;
+        mDispatchData = null;
+        mListeners.dispatch(changes, mDispatcher);
+        mDispatchChanges = prevChanges;
+        mDispatchData = prevData;
     }
 
     private void updateBatteryInfo(Intent intent) {
@@ -167,10 +243,14 @@ public class BatteryInfoManager implements BroadcastSubReceiver {
         int newTemp = intent.getIntExtra(BatteryManager.EXTRA_TEMPERATURE, 0);
         int newVoltage = intent.getIntExtra(BatteryManager.EXTRA_VOLTAGE, 0);
 
-        if (mBatteryData.level != newLevel || mBatteryData.charging != newCharging ||
-                mBatteryData.powerSource != newPowerSource ||
-                mBatteryData.temperature != newTemp || 
-                mBatteryData.voltage != newVoltage) {
+        int changes = 0;
+        if (mBatteryData.level != newLevel) changes |= FLAG_LEVEL_CHANGED;
+        if (mBatteryData.charging != newCharging) changes |= FLAG_CHARGING_CHANGED;
+        if (mBatteryData.powerSource != newPowerSource) changes |= FLAG_POWER_SOURCE_CHANGED;
+        if (mBatteryData.temperature != newTemp) changes |= FLAG_TEMPERATURE_CHANGED;
+        if (mBatteryData.voltage != newVoltage) changes |= FLAG_VOLTAGE_CHANGED;
+
+        if (changes != 0) {
             if (newLevel == 100 && mBatteryData.level < 100 && mBatteryData.level > 0) {
                 playSound(SOUND_CHARGED);
             }
@@ -190,14 +270,14 @@ public class BatteryInfoManager implements BroadcastSubReceiver {
             mBatteryData.temperature = newTemp;
             mBatteryData.voltage = newVoltage;
 
-            notifyListeners();
+            scheduleNotify(changes);
         }
     }
 
     private void updatePowerSavingInfo(boolean enabled) {
         if (mBatteryData.isPowerSaving != enabled) {
             mBatteryData.isPowerSaving = enabled;
-            notifyListeners();
+            scheduleNotify(FLAG_POWER_SAVING_CHANGED);
         }
     }
 
@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2017 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrbug.gravitybox.nougat.managers;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.wrbug.gravitybox.nougat.BroadcastSubReceiver;
+import com.wrbug.gravitybox.nougat.BuildConfig;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ActivityInfo;
+import android.os.Handler;
+import de.robv.android.xposed.XC_MethodHook;
+import de.robv.android.xposed.XposedBridge;
+import de.robv.android.xposed.XposedHelpers;
+
+public class ForegroundAppTracker implements BroadcastSubReceiver {
+    private static final String TAG = "GB:ForegroundAppTracker";
+    private static final boolean DEBUG = BuildConfig.DEBUG;
+    private static final String CLASS_ACTIVITY_MANAGER_SERVICE = "com.android.server.am.ActivityManagerService";
+    private static final String CLASS_ACTIVITY_STACK_SUPERVISOR = "com.android.server.am.ActivityStackSupervisor";
+    private static final String PACKAGE_NAME_SYSTEMUI = "com.android.systemui";
+    private static final int RING_SIZE = 8; // must be power of 2
+
+    public static final String ACTION_FOREGROUND_APP_CHANGED =
+            "gravitybox.intent.action.FOREGROUND_APP_CHANGED";
+    public static final String EXTRA_PACKAGE_NAME = "packageName";
+
+    private static void log(String message) {
+        XposedBridge.log(TAG + ": " + message);
+    }
+
+    public static final class AppEntry {
+        public final String packageName;
+        public final String processName;
+        public final int taskId;
+        public final int uid;
+        // process details; pid is 0 and pkgList null when activity had no process yet
+        public final int pid;
+        public final String[] pkgList;
+
+        private AppEntry(String packageName, String processName, int taskId, int uid,
+                         int pid, String[] pkgList) {
+            this.packageName = packageName;
+            this.processName = processName;
+            this.taskId = taskId;
+            this.uid = uid;
+            this.pid = pid;
+            this.pkgList = pkgList;
+        }
+
+        @Override
+        public String toString() {
+            return "AppEntry{" + packageName + "; process=" + processName +
+                    "; taskId=" + taskId + "; uid=" + uid + "; pid=" + pid + "}";
+        }
+    }
+
+    // Activity manager service
+    // Ring is written only under activity manager lock, readers never block.
+    // Entries of removed tasks and dead processes are cleared so that readers
+    // don't need to validate them with activity manager.
+    private static final AtomicReferenceArray<AppEntry> sRing = new AtomicReferenceArray<>(RING_SIZE);
+    private static final AtomicInteger sHead = new AtomicInteger(-1);
+
+    public static void initAndroid(final ClassLoader classLoader) {
+        try {
+            XposedBridge.hookAllMethods(XposedHelpers.findClass(
+                    CLASS_ACTIVITY_MANAGER_SERVICE, classLoader),
+                    "setFocusedActivityLocked", new XC_MethodHook() {
+                @Override
+                protected void afterHookedMethod(MethodHookParam param) throws Throwable {
+                    Object r = XposedHelpers.getObjectField(param.thisObject, "mFocusedActivity");
+                    if (r != null) {
+                        onActivityFocused(param.thisObject, r);
+                    }
+                }
+            });
+        } catch (Throwable t) {
+            XposedBridge.log(t);
+        }
+
+        try {
+            XposedBridge.hookAllMethods(XposedHelpers.findClass(
+                    CLASS_ACTIVITY_MANAGER_SERVICE, classLoader),
+                    "handleAppDiedLocked", new XC_MethodHook() {
+                @Override
+                protected void afterHookedMethod(MethodHookParam param) throws Throwable {
+                    final Object app = param.args[0];
+                    onProcessDied(XposedHelpers.getIntField(app, "uid"),
+                            (String) XposedHelpers.getObjectField(app, "processName"));
+                }
+            });
+        } catch (Throwable t) {
+            XposedBridge.log(t);
+        }
+
+        try {
+            XposedBridge.hookAllMethods(XposedHelpers.findClass(
+                    CLASS_ACTIVITY_STACK_SUPERVISOR, classLoader),
+                    "removeTaskByIdLocked", new XC_MethodHook() {
+                @Override
+                protected void afterHookedMethod(MethodHookParam param) throws Throwable {
+                    if (param.getResult() == Boolean.TRUE) {
+                        onTaskRemoved((Integer) param.args[0]);
+                    }
+                }
+            });
+        } catch (Throwable t) {
+            XposedBridge.log(t);
+        }
+    }
+
+    private static void onActivityFocused(Object ams, Object activityRecord) {
+        try {
+            final String pkgName = (String) XposedHelpers.getObjectField(activityRecord, "packageName");
+            final String procName = (String) XposedHelpers.getObjectField(activityRecord, "processName");
+            final ActivityInfo info = (ActivityInfo) XposedHelpers.getObjectField(activityRecord, "info");
+            final Object task = XposedHelpers.getObjectField(activityRecord, "task");
+            final int taskId = (task == null ? -1 : XposedHelpers.getIntField(task, "taskId"));
+            final int uid = (info == null || info.applicationInfo == null ? -1 : info.applicationInfo.uid);
+            if (pkgName == null) return;
+
+            AppEntry top = getForegroundApp();
+            final Object app = XposedHelpers.getObjectField(activityRecord, "app");
+            if (top != null && top.taskId == taskId && top.packageName.equals(pkgName) &&
+                    (top.pid != 0 || app == null)) return;
+
+            int pid = 0;
+            String[] pkgList = null;
+            if (app != null) {
+                pid = XposedHelpers.getIntField(app, "pid");
+                Map<?, ?> pkgs = (Map<?, ?>) XposedHelpers.getObjectField(app, "pkgList");
+                if (pkgs != null && !pkgs.isEmpty()) {
+                    pkgList = pkgs.keySet().toArray(new String[pkgs.size()]);
+                }
+            }
+
+            final int next = (sHead.get() + 1) & (RING_SIZE - 1);
+            sRing.set(next, new AppEntry(pkgName, procName, taskId, uid, pid, pkgList));
+            sHead.set(next);
+            if (DEBUG) log("Foreground app: " + sRing.get(next));
+
+            if (top == null || !top.packageName.equals(pkgName)) {
+                notifyForegroundAppChanged(ams, pkgName);
+            }
+        } catch (Throwable t) {
+            XposedBridge.log(t);
+        }
+    }
+
+    private static void notifyForegroundAppChanged(Object ams, final String pkgName) {
+        final Context context = (Context) XposedHelpers.getObjectField(ams, "mContext");
+        final Handler handler = (Handler) XposedHelpers.getObjectField(ams, "mHandler");
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                Intent intent = new Intent(ACTION_FOREGROUND_APP_CHANGED);
+                intent.addFlags(Intent.FLAG_RECEIVER_REGISTERED_ONLY);
+                // foreground app is private information; deliver to SystemUI only
+                intent.setPackage(PACKAGE_NAME_SYSTEMUI);
+                intent.putExtra(EXTRA_PACKAGE_NAME, pkgName);
+                context.sendBroadcast(intent);
+            }
+        });
+    }
+
+    private static void onTaskRemoved(int taskId) {
+        for (int i = 0; i < RING_SIZE; i++) {
+            AppEntry e = sRing.get(i);
+            if (e != null && e.taskId == taskId) {
+                sRing.compareAndSet(i, e, null);
+                if (DEBUG) log("Task removed: " + e);
+            }
+        }
+    }
+
+    private static void onProcessDied(int uid, String processName) {
+        for (int i = 0; i < RING_SIZE; i++) {
+            AppEntry e = sRing.get(i);
+            if (e != null && e.uid == uid && e.processName != null &&
+                    e.processName.equals(processName)) {
+                sRing.compareAndSet(i, e, null);
+                if (DEBUG) log("Process died: " + e);
+            }
+        }
+    }
+
+    /**
+     * Returns tracked foreground app or null if unknown or its task or process is gone.
+     */
+    public static AppEntry getForegroundApp() {
+        final int head = sHead.get();
+        return (head < 0 ? null : sRing.get(head));
+    }
+
+    public static AppEntry getPreviousApp(String homePackage) {
+        final int head = sHead.get();
+        if (head < 0) return null;
+        final AppEntry top = sRing.get(head);
+        for (int i = 1; i < RING_SIZE; i++) {
+            AppEntry e = sRing.get((head - i) & (RING_SIZE - 1));
+            // slots of removed tasks are cleared
+            if (e == null) continue;
+            if ((top != null && e.taskId == top.taskId) || e.packageName.equals(homePackage) ||
+                    e.packageName.equals(PACKAGE_NAME_SYSTEMUI)) {
+                continue;
+            }
+            return e;
+        }
+        return null;
+    }
+
+    // SystemUI
+    private volatile String mForegroundPackage;
+
+    @SuppressWarnings("deprecation")
+    protected ForegroundAppTracker(Context context) {
+        try {
+            // seed once; further changes are pushed from activity manager
+            ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+            List<ActivityManager.RunningTaskInfo> taskInfo = am.getRunningTasks(1);
+            if (taskInfo != null && !taskInfo.isEmpty()) {
+                mForegroundPackage = taskInfo.get(0).topActivity.getPackageName();
+            }
+        } catch (Throwable t) {
+            log("Error getting initial foreground package: " + t.getMessage());
+        }
+    }
+
+    public String getForegroundPackage() {
+        return mForegroundPackage;
+    }
+
+    @Override
+    public void onBroadcastReceived(Context context, Intent intent) {
+        if (intent.getAction().equals(ACTION_FOREGROUND_APP_CHANGED)) {
+            mForegroundPackage = intent.getStringExtra(EXTRA_PACKAGE_NAME);
+            if (DEBUG) log("Foreground package: " + mForegroundPackage);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2017 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wrbug.gravitybox.nougat.managers;
+
+import java.lang.reflect.Array;
+
+import android.os.SystemClock;
+import android.util.SparseArray;
+
+import de.robv.android.xposed.XposedBridge;
+
+/**
+ * Copy-on-write listener registry. Registration copies the backing array under lock
+ * while dispatching iterates the current array snapshot without locking or allocating.
+ * Plain loops iterate {@link #getListeners()}; {@link #dispatch(int, Dispatcher)} additionally
+ * times each listener call when DEBUG_LATENCY is enabled. Latencies are collected into
+ * a log2 histogram per event type and periodically logged together with the slowest listener.
+ */
+public class ListenerRegistry<T> {
+    private static final String TAG = "GB:ListenerRegistry";
+    private static final boolean DEBUG_LATENCY = false;
+    private static final int HISTOGRAM_BUCKETS = 16;
+    private static final int LOG_INTERVAL = 200;
+
+    private final String mName;
+    private final Class<T> mType;
+    private final T[] mEmpty;
+    private volatile T[] mListeners;
+    private final SparseArray<LatencyStats> mStats = new SparseArray<>();
+
+    public interface Dispatcher<T> {
+        void dispatch(T listener);
+    }
+
+    private static class LatencyStats {
+        // bucket i holds calls that took less than 2^i microseconds
+        final long[] buckets = new long[HISTOGRAM_BUCKETS];
+        long samples;
+        long maxNs;
+        String maxListener;
+    }
+
+    private static void log(String message) {
+        XposedBridge.log(TAG + ": " + message);
+    }
+
+    public ListenerRegistry(String name, Class<T> type) {
+        mName = name;
+        mType = type;
+        mEmpty = newArray(0);
+        mListeners = mEmpty;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T[] newArray(int length) {
+        return (T[]) Array.newInstance(mType, length);
+    }
+
+    /**
+     * Adds listener unless already registered. Returns true if it was added.
+     */
+    public synchronized boolean add(T listener) {
+        final T[] current = mListeners;
+        for (T l : current) {
+            if (l == listener) return false;
+        }
+        T[] updated = newArray(current.length + 1);
+        System.arraycopy(current, 0, updated, 0, current.length);
+        updated[current.length] = listener;
+        mListeners = updated;
+        return true;
+    }
+
+    /**
+     * Removes listener if registered. Returns true if it was removed.
+     */
+    public synchronized boolean remove(T listener) {
+        final T[] current = mListeners;
+        int index = -1;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == listener) {
+                index = i;
+                break;
+            }
+        }
+        if (index < 0) return false;
+        if (current.length == 1) {
+            mListeners = mEmpty;
+        } else {
+            T[] updated = newArray(current.length - 1);
+            System.arraycopy(current, 0, updated, 0, index);
+            System.arraycopy(current, index + 1, updated, index, current.length - index - 1);
+            mListeners = updated;
+        }
+        return true;
+    }
+
+    public boolean contains(T listener) {
+        for (T l : mListeners) {
+            if (l == listener) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns current snapshot of listeners. The array must not be modified.
+     */
+    public T[] getListeners() {
+        return mListeners;
+    }
+
+    public int size() {
+        return mListeners.length;
+    }
+
+    /**
+     * Calls dispatcher for each registered listener, recording call latencies under eventType.
+     * Callers keep a reusable dispatcher instance so that dispatching does not allocate.
+     */
+    public void dispatch(int eventType, Dispatcher<T> dispatcher) {
+        for (T l : mListeners) {
+            if (DEBUG_LATENCY) {
+                final long start = SystemClock.elapsedRealtimeNanos();
+                dispatcher.dispatch(l);
+                recordLatency(eventType, l, SystemClock.elapsedRealtimeNanos() - start);
+            } else {
+                dispatcher.dispatch(l);
+            }
+        }
+    }
+
+    private void recordLatency(int eventType, T listener, long tookNs) {
+        synchronized (mStats) {
+            LatencyStats stats = mStats.get(eventType);
+            if (stats == null) {
+                stats = new LatencyStats();
+                mStats.put(eventType, stats);
+            }
+            final long us = tookNs / 1000;
+            final int bucket = Math.min(64 - Long.numberOfLeadingZeros(us), HISTOGRAM_BUCKETS - 1);
+            stats.buckets[bucket]++;
+            if (tookNs > stats.maxNs) {
+                stats.maxNs = tookNs;
+                stats.maxListener = listener.getClass().getName();
+            }
+            if (++stats.samples % LOG_INTERVAL == 0) {
+                log(mName + ": event=" + eventType + "; " + formatStats(stats));
+            }
+        }
+    }
+
+    private static String formatStats(LatencyStats stats) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("samples=").append(stats.samples).append("; histogram(us)=[");
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+            if (stats.buckets[i] == 0) continue;
+            sb.append(" <").append(1L << i).append(':').append(stats.buckets[i]);
+        }
+        sb.append(" ]; slowest=").append(stats.maxListener)
+                .append(" (").append(stats.maxNs / 1000).append("us)");
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("ListenerRegistry{").append(mName).append("; listeners=").append(size());
+        synchronized (mStats) {
+            for (int i = 0; i < mStats.size(); i++) {
+                sb.append("; event=").append(mStats.keyAt(i)).append(": ")
+                        .append(formatStats(mStats.valueAt(i)));
+            }
+        }
+        return sb.append("}").toString();
+    }
+}
@@ -15,11 +15,8 @@
 
 package com.wrbug.gravitybox.nougat.managers;
 
-import java.lang.ref.SoftReference;
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 import com.wrbug.gravitybox.nougat.BroadcastSubReceiver;
@@ -27,6 +24,7 @@ import com.wrbug.gravitybox.nougat.BuildConfig;
 import com.wrbug.gravitybox.nougat.GravityBoxSettings;
 import com.wrbug.gravitybox.nougat.R;
 import com.wrbug.gravitybox.nougat.Utils;
+import com.wrbug.gravitybox.nougat.util.DrawableCache;
 
 import de.robv.android.xposed.XSharedPreferences;
 import de.robv.android.xposed.XposedBridge;
@@ -61,9 +59,11 @@ public class StatusBarIconManager implements BroadcastSubReceiver {
     private Resources mGbResources;
     private Resources mSystemUiRes;
     private Map<String, Integer[]> mBasicIconIds;
-    private Map<String, SoftReference<Drawable>> mIconCache;
+    private static final int ICON_CACHE_MAX_BYTES = 1024 * 1024;
+
+    private DrawableCache<Drawable> mIconCache;
     private ColorInfo mColorInfo;
-    private List<IconManagerListener> mListeners;
+    private ListenerRegistry<IconManagerListener> mListeners;
 
     public interface IconManagerListener {
         void onIconManagerStatusChanged(int flags, ColorInfo colorInfo);
@@ -114,11 +114,12 @@ public class StatusBarIconManager implements BroadcastSubReceiver {
         basicIconMap.put("stat_sys_hotspot", new Integer[] { null, null });
         mBasicIconIds = Collections.unmodifiableMap(basicIconMap);
 
-        mIconCache = new HashMap<String, SoftReference<Drawable>>();
+        mIconCache = new DrawableCache<Drawable>(ICON_CACHE_MAX_BYTES);
+        mContext.registerComponentCallbacks(mIconCache);
 
         initColorInfo();
 
-        mListeners = new ArrayList<IconManagerListener>();
+        mListeners = new ListenerRegistry<>(TAG, IconManagerListener.class);
 
         setIconColor(prefs.getInt(GravityBoxSettings.PREF_KEY_STATUSBAR_ICON_COLOR, 
                 getDefaultIconColor()));
@@ -197,22 +198,31 @@ public class StatusBarIconManager implements BroadcastSubReceiver {
     }
 
     public void registerListener(IconManagerListener listener) {
-        if (!mListeners.contains(listener)) {
-            mListeners.add(listener);
+        if (mListeners.add(listener)) {
             listener.onIconManagerStatusChanged(FLAG_ALL, mColorInfo);
         }
     }
 
     public void unregisterListener(IconManagerListener listener) {
-        if (mListeners.contains(listener)) {
-            mListeners.remove(listener);
-        }
+        mListeners.remove(listener);
     }
 
-    private void notifyListeners(int flags) {
-        for (IconManagerListener listener : mListeners) {
-            listener.onIconManagerStatusChanged(flags, mColorInfo);
+    // flags of current dispatch used by reusable mDispatcher; nested dispatches restore it
+    private int mDispatchFlags;
+
+    private final ListenerRegistry.Dispatcher<IconManagerListener> mDispatcher =
+            new ListenerRegistry.Dispatcher<IconManagerListener>() {
+        @Override
+        public void dispatch(IconManagerListener listener) {
+            listener.onIconManagerStatusChanged(mDispatchFlags, mColorInfo);
         }
+    };
+
+    private void notifyListeners(int flags) {
+        final int prevFlags = mDispatchFlags;
+        mDispatchFlags = flags;
+        mListeners.dispatch(flags, mDispatcher);
+        mDispatchFlags = prevFlags;
     }
 
     public void refreshState() {
@@ -343,20 +353,18 @@ public class StatusBarIconManager implements BroadcastSubReceiver {
     }
 
     public void clearCache() {
-        mIconCache.clear();
-        if (DEBUG) log("Cache cleared");
+        mIconCache.evictAll();
+        if (DEBUG) log("Cache cleared: " + mIconCache);
     }
 
     private Drawable getCachedDrawable(String key) {
-        if (mIconCache.containsKey(key)) {
-            if (DEBUG) log("getCachedDrawable('" + key + "') - cached drawable found");
-            return mIconCache.get(key).get();
-        }
-        return null;
+        Drawable d = mIconCache.get(key);
+        if (DEBUG && d != null) log("getCachedDrawable('" + key + "') - cached drawable found");
+        return d;
     }
 
     private void setCachedDrawable(String key, Drawable d) {
-        mIconCache.put(key, new SoftReference<Drawable>(d));
+        mIconCache.put(key, d);
         if (DEBUG) log("setCachedDrawable('" + key + "') - storing to cache");
     }
 
@@ -26,10 +26,14 @@ import com.wrbug.gravitybox.nougat.ledcontrol.QuietHoursActivity;
 
 import de.robv.android.xposed.XSharedPreferences;
 import de.robv.android.xposed.XposedBridge;
+import android.app.AlarmManager;
+import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
 
 public class StatusbarQuietHoursManager implements BroadcastSubReceiver {
+    public static final String ACTION_QUIET_HOURS_TRANSITION =
+            "gravitybox.intent.action.QUIET_HOURS_TRANSITION";
 
     private static final Object lock = new Object();
     private static StatusbarQuietHoursManager sManager;
@@ -38,9 +42,13 @@ public class StatusbarQuietHoursManager implements BroadcastSubReceiver {
     private XSharedPreferences mPrefs;
     private QuietHours mQuietHours;
     private List<QuietHoursListener> mListeners;
+    private AlarmManager mAlarmManager;
+    private PendingIntent mTransitionIntent;
+    private boolean mLastActive;
 
     public interface QuietHoursListener {
         public void onQuietHoursChanged();
+        // called on scheduled on/off transitions and on system time changes
         public void onTimeTick();
     }
 
@@ -56,6 +64,9 @@ public class StatusbarQuietHoursManager implements BroadcastSubReceiver {
     private StatusbarQuietHoursManager(Context context) {
         mContext = context;
         mListeners = new ArrayList<QuietHoursListener>();
+        mAlarmManager = (AlarmManager) mContext.getSystemService(Context.ALARM_SERVICE);
+        mTransitionIntent = PendingIntent.getBroadcast(mContext, 0,
+                new Intent(ACTION_QUIET_HOURS_TRANSITION), 0);
 
         refreshState();
     }
@@ -63,10 +74,19 @@ public class StatusbarQuietHoursManager implements BroadcastSubReceiver {
     @Override
     public void onBroadcastReceived(Context context, Intent intent) {
         final String action = intent.getAction();
-        if (action.equals(Intent.ACTION_TIME_TICK) ||
-                action.equals(Intent.ACTION_TIME_CHANGED) ||
+        if (action.equals(Intent.ACTION_TIME_CHANGED) ||
                 action.equals(Intent.ACTION_TIMEZONE_CHANGED)) {
+            if (mQuietHours != null) {
+                mQuietHours.invalidateSchedule();
+            }
+            scheduleNextTransition();
             notifyTimeTick();
+        } else if (action.equals(ACTION_QUIET_HOURS_TRANSITION)) {
+            final boolean wasActive = mLastActive;
+            scheduleNextTransition();
+            if (wasActive != mLastActive) {
+                notifyTimeTick();
+            }
         } else if (action.equals(QuietHoursActivity.ACTION_QUIET_HOURS_CHANGED)) {
             refreshState();
             notifyQuietHoursChange();
@@ -97,11 +117,23 @@ public class StatusbarQuietHoursManager implements BroadcastSubReceiver {
                 mPrefs.reload();
             }
             mQuietHours = new QuietHours(mPrefs);
+            scheduleNextTransition();
         } catch (Throwable t) {
             XposedBridge.log(t);
         }
     }
 
+    private void scheduleNextTransition() {
+        if (mQuietHours == null) return;
+        mLastActive = mQuietHours.quietHoursActive();
+        mAlarmManager.cancel(mTransitionIntent);
+        final long nextTransition = mQuietHours.getNextTransitionTime();
+        if (nextTransition > 0) {
+            // non-wakeup alarm: icon only needs to be correct once device is awake
+            mAlarmManager.setExact(AlarmManager.RTC, nextTransition, mTransitionIntent);
+        }
+    }
+
     private void notifyTimeTick() {
         for (QuietHoursListener l : mListeners) {
             l.onTimeTick();
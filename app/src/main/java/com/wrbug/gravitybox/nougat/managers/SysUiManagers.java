@@ -39,6 +39,7 @@ public class SysUiManagers {
     public static NotificationDataMonitor NotifDataMonitor;
     public static GpsStatusMonitor GpsMonitor;
     public static SubscriptionManager SubscriptionMgr;
+    public static ForegroundAppTracker ForegroundTracker;
 
     private static void log(String message) {
         XposedBridge.log(TAG + ": " + message);
@@ -105,6 +106,13 @@ public class SysUiManagers {
             }
         }
 
+        try {
+            ForegroundTracker = new ForegroundAppTracker(context);
+        } catch (Throwable t) {
+            log("Error creating ForegroundAppTracker: ");
+            XposedBridge.log(t);
+        }
+
         if (PhoneWrapper.hasMsimSupport()) {
             try {
                 SubscriptionMgr = new SubscriptionManager(context);
@@ -125,10 +133,10 @@ public class SysUiManagers {
         intentFilter.addAction(GravityBoxSettings.ACTION_PREF_STATUSBAR_COLOR_CHANGED);
 
         // quiet hours manager
-        intentFilter.addAction(Intent.ACTION_TIME_TICK);
         intentFilter.addAction(Intent.ACTION_TIME_CHANGED);
         intentFilter.addAction(Intent.ACTION_TIMEZONE_CHANGED);
         intentFilter.addAction(QuietHoursActivity.ACTION_QUIET_HOURS_CHANGED);
+        intentFilter.addAction(StatusbarQuietHoursManager.ACTION_QUIET_HOURS_TRANSITION);
 
         // AppLauncher
         intentFilter.addAction(GravityBoxSettings.ACTION_PREF_APP_LAUNCHER_CHANGED);
@@ -157,6 +165,9 @@ public class SysUiManagers {
             intentFilter.addAction(SubscriptionManager.ACTION_GET_DEFAULT_SIM_SLOT);
         }
 
+        // ForegroundAppTracker
+        intentFilter.addAction(ForegroundAppTracker.ACTION_FOREGROUND_APP_CHANGED);
+
         context.registerReceiver(sBroadcastReceiver, intentFilter);
     }
 
@@ -197,6 +208,9 @@ public class SysUiManagers {
             if (SubscriptionMgr != null) {
                 SubscriptionMgr.onBroadcastReceived(context, intent);
             }
+            if (ForegroundTracker != null) {
+                ForegroundTracker.onBroadcastReceived(context, intent);
+            }
         }
     };
 }
@@ -84,8 +84,7 @@ public class PieLongPressHandler implements PieItem.PieOnLongPressListener {
 
         ButtonType btnType = ButtonType.valueOf(button);
         if (btnType != null && mActions.containsKey(btnType)) {
-            mActions.get(btnType).actionId = action;
-            mActions.get(btnType).customApp = customApp;
+            mActions.put(btnType, new ModHwKeys.HwKeyAction(action, customApp));
             if (DEBUG) log("Action for " + btnType + ": " + action);
         }
     }
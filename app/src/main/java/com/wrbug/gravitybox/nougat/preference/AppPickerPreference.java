@@ -39,6 +39,7 @@ import com.wrbug.gravitybox.nougat.adapters.BasicIconListItem;
 import com.wrbug.gravitybox.nougat.adapters.IIconListAdapterItem;
 import com.wrbug.gravitybox.nougat.adapters.IconListAdapter;
 import com.wrbug.gravitybox.nougat.shortcuts.ShortcutActivity;
+import com.wrbug.gravitybox.nougat.util.DrawableCache;
 import com.wrbug.gravitybox.nougat.util.SharedPreferencesUtils;
 
 import android.app.AlertDialog;
@@ -66,7 +67,6 @@ import android.text.Editable;
 import android.text.TextWatcher;
 import android.util.AttributeSet;
 import android.util.Log;
-import android.util.LruCache;
 import android.util.TypedValue;
 import android.view.Gravity;
 import android.view.View;
@@ -122,16 +122,12 @@ public class AppPickerPreference extends DialogPreference
     private boolean mAllowGravityBoxActions;
     private Bundle mExtraData;
 
-    private static LruCache<String, BitmapDrawable> sAppIconCache;
+    private static DrawableCache<BitmapDrawable> sAppIconCache;
+    private static boolean sAppIconCacheRegistered;
 
     static {
         final int cacheSize = Math.min((int) Runtime.getRuntime().maxMemory() / 6, 4194304);
-        sAppIconCache = new LruCache<String, BitmapDrawable>(cacheSize) {
-            @Override
-            protected int sizeOf(String key, BitmapDrawable d) {
-                return d.getBitmap().getByteCount();
-            }
-        };
+        sAppIconCache = new DrawableCache<BitmapDrawable>(cacheSize);
     }
 
     public static void cleanupAsync(final Context context) {
@@ -209,6 +205,10 @@ public class AppPickerPreference extends DialogPreference
         mIconPickSizePx = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 50,
                 mResources.getDisplayMetrics());
         mPackageManager = mContext.getPackageManager();
+        if (!sAppIconCacheRegistered) {
+            mContext.getApplicationContext().registerComponentCallbacks(sAppIconCache);
+            sAppIconCacheRegistered = true;
+        }
         mMode = MODE_APP;
         mAppInfo = new AppInfo();
         mAllowGravityBoxActions = true;
@@ -692,7 +692,7 @@ public class AppPickerPreference extends DialogPreference
             if (mResolveInfo == null) return null;
 
             if (mAppIcon == null) {
-                final String key = getKey();
+                final String key = getKey() + "@" + mAppIconSizePx;
                 mAppIcon = sAppIconCache.get(key);
                 if (mAppIcon == null) {
                     Bitmap bitmap = Utils.drawableToBitmap(mResolveInfo.loadIcon(mPackageManager));
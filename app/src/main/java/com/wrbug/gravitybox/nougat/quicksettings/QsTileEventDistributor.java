@@ -1,11 +1,8 @@
 package com.wrbug.gravitybox.nougat.quicksettings;
 
 import java.lang.reflect.Constructor;
-import java.util.ArrayList;
-import java.util.LinkedHashMap;
-import java.util.List;
+import java.util.HashMap;
 import java.util.Map;
-import java.util.Map.Entry;
 
 import com.wrbug.gravitybox.nougat.BroadcastSubReceiver;
 import com.wrbug.gravitybox.nougat.GravityBoxSettings;
@@ -13,6 +10,7 @@ import com.wrbug.gravitybox.nougat.ModQsTiles;
 import com.wrbug.gravitybox.nougat.PhoneWrapper;
 import com.wrbug.gravitybox.nougat.Utils;
 import com.wrbug.gravitybox.nougat.managers.KeyguardStateMonitor;
+import com.wrbug.gravitybox.nougat.managers.ListenerRegistry;
 import com.wrbug.gravitybox.nougat.managers.SysUiManagers;
 import com.wrbug.gravitybox.nougat.quicksettings.QsTile.HostTileClassInfo;
 
@@ -80,15 +78,18 @@ public class QsTileEventDistributor implements KeyguardStateMonitor.Listener {
     private Object mHost;
     private Context mContext;
     private XSharedPreferences mPrefs;
-    private Map<String, QsEventListener> mListeners;
-    private List<BroadcastSubReceiver> mBroadcastSubReceivers;
+    // key lookups use copy-on-write map; iteration uses listener array snapshot
+    private volatile Map<String, QsEventListener> mListeners;
+    private ListenerRegistry<QsEventListener> mListenerRegistry;
+    private ListenerRegistry<BroadcastSubReceiver> mBroadcastSubReceivers;
     private String mCreateTileViewTileKey;
 
     public QsTileEventDistributor(Object host, XSharedPreferences prefs) {
         mHost = host;
         mPrefs = prefs;
-        mListeners = new LinkedHashMap<String, QsEventListener>();
-        mBroadcastSubReceivers = new ArrayList<BroadcastSubReceiver>();
+        mListeners = new HashMap<String, QsEventListener>();
+        mListenerRegistry = new ListenerRegistry<>(TAG, QsEventListener.class);
+        mBroadcastSubReceivers = new ListenerRegistry<>(TAG, BroadcastSubReceiver.class);
         SysUiManagers.KeyguardMonitor.registerListener(this);
 
         createHooks();
@@ -107,7 +108,7 @@ public class QsTileEventDistributor implements KeyguardStateMonitor.Listener {
                 } else {
                     notifyTilesOfBroadcast(context, intent);
                 }
-                for (BroadcastSubReceiver receiver : mBroadcastSubReceivers) {
+                for (BroadcastSubReceiver receiver : mBroadcastSubReceivers.getListeners()) {
                     receiver.onBroadcastReceived(context, intent);
                 }
             } else {
@@ -132,8 +133,8 @@ public class QsTileEventDistributor implements KeyguardStateMonitor.Listener {
 
     private void notifyTilesOfBroadcast(Context context, Intent intent) {
         try {
-            for (Entry<String, QsEventListener> l : mListeners.entrySet()) {
-                l.getValue().onBroadcastReceived(context, intent);
+            for (QsEventListener l : mListenerRegistry.getListeners()) {
+                l.onBroadcastReceived(context, intent);
             }
         } catch (Throwable t) {
             log("Error notifying listeners of new broadcast: ");
@@ -425,7 +426,10 @@ public class QsTileEventDistributor implements KeyguardStateMonitor.Listener {
 
         final String key = listener.getKey();
         if (!mListeners.containsKey(key)) {
-            mListeners.put(key, listener);
+            Map<String, QsEventListener> listeners = new HashMap<>(mListeners);
+            listeners.put(key, listener);
+            mListeners = listeners;
+            mListenerRegistry.add(listener);
         }
     }
 
@@ -435,7 +439,9 @@ public class QsTileEventDistributor implements KeyguardStateMonitor.Listener {
 
         final String key = listener.getKey();
         if (mListeners.containsKey(key)) {
-            mListeners.remove(key);
+            Map<String, QsEventListener> listeners = new HashMap<>(mListeners);
+            mListenerRegistry.remove(listeners.remove(key));
+            mListeners = listeners;
         }
     }
 
@@ -443,24 +449,20 @@ public class QsTileEventDistributor implements KeyguardStateMonitor.Listener {
         if (receiver == null)
             throw new IllegalArgumentException("registerBroadcastSubReceiver: receiver cannot be null");
 
-        if (!mBroadcastSubReceivers.contains(receiver)) {
-            mBroadcastSubReceivers.add(receiver);
-        }
+        mBroadcastSubReceivers.add(receiver);
     }
 
     public synchronized void unregisterBroadcastSubReceiver(BroadcastSubReceiver receiver) {
         if (receiver == null)
             throw new IllegalArgumentException("unregisterBroadcastSubReceiver: receiver cannot be null");
 
-        if (mBroadcastSubReceivers.contains(receiver)) {
-            mBroadcastSubReceivers.remove(receiver);
-        }
+        mBroadcastSubReceivers.remove(receiver);
     }
 
     @Override
     public void onKeyguardStateChanged() {
-        for (Entry<String, QsEventListener> entry : mListeners.entrySet()) {
-            entry.getValue().onKeyguardStateChanged();
+        for (QsEventListener l : mListenerRegistry.getListeners()) {
+            l.onKeyguardStateChanged();
         }
     }
 }
@@ -0,0 +1,151 @@
+package com.wrbug.gravitybox.nougat.util;
+
+import android.content.ComponentCallbacks2;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * BitmapPool
+ * <p>
+ * Bounded LRU cache of bitmaps accounted by their byte size. Keys include
+ * dimensions and config so bitmaps of different sizes never replace each other.
+ * Keys refer to the source object of derived bitmaps weakly, by identity.
+ * Register it via Context.registerComponentCallbacks() to release memory on trim.
+ */
+public class BitmapPool implements ComponentCallbacks2 {
+
+    public static final class Key {
+        public final int id;
+        public final int width;
+        public final int height;
+        public final Bitmap.Config config;
+        private final WeakReference<Object> mSource;
+        private final int mSourceHash;
+
+        public Key(Object source, int id, int width, int height, Bitmap.Config config) {
+            this.id = id;
+            this.width = width;
+            this.height = height;
+            this.config = config;
+            mSource = new WeakReference<>(source);
+            mSourceHash = System.identityHashCode(source);
+        }
+
+        private boolean sourceEquals(Key k) {
+            // keys with collected sources never match anything else
+            final Object source = mSource.get();
+            return source != null && source == k.mSource.get();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key k = (Key) o;
+            return id == k.id && width == k.width && height == k.height && config == k.config &&
+                    mSourceHash == k.mSourceHash && sourceEquals(k);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = 31 * id + mSourceHash;
+            result = 31 * result + width;
+            result = 31 * result + height;
+            result = 31 * result + (config != null ? config.hashCode() : 0);
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return "Key{" + id + "; " + width + "x" + height + "; " + config + "}";
+        }
+    }
+
+    private final LruCache<Key, Bitmap> mCache;
+
+    public BitmapPool(int maxBytes) {
+        mCache = new LruCache<Key, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(Key key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+    }
+
+    public Bitmap get(Key key) {
+        Bitmap bitmap = mCache.get(key);
+        if (bitmap != null && bitmap.isRecycled()) {
+            mCache.remove(key);
+            return null;
+        }
+        return bitmap;
+    }
+
+    public void put(Key key, Bitmap bitmap) {
+        if (bitmap.getByteCount() > mCache.maxSize()) return;
+        mCache.put(key, bitmap);
+    }
+
+    /**
+     * Grows the pool so that it can hold at least maxBytes. Never shrinks it.
+     */
+    public void ensureCapacity(int maxBytes) {
+        if (maxBytes > mCache.maxSize()) {
+            mCache.resize(maxBytes);
+        }
+    }
+
+    public void evictAll() {
+        mCache.evictAll();
+    }
+
+    public int sizeBytes() {
+        return mCache.size();
+    }
+
+    public int hitCount() {
+        return mCache.hitCount();
+    }
+
+    public int missCount() {
+        return mCache.missCount();
+    }
+
+    public int evictionCount() {
+        return mCache.evictionCount();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        trimCache(mCache, level);
+    }
+
+    @Override
+    public void onLowMemory() {
+        mCache.evictAll();
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    static void trimCache(LruCache<?, ?> cache, int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE ||
+                level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            cache.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN ||
+                level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            cache.trimToSize(cache.maxSize() / 2);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "BitmapPool{bytes=" + mCache.size() + "/" + mCache.maxSize() +
+                "; hits=" + mCache.hitCount() + "; misses=" + mCache.missCount() +
+                "; evictions=" + mCache.evictionCount() + "}";
+    }
+}
@@ -0,0 +1,165 @@
+package com.wrbug.gravitybox.nougat.util;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.renderscript.Allocation;
+import android.renderscript.Element;
+import android.renderscript.RSRuntimeException;
+import android.renderscript.RenderScript;
+import android.renderscript.ScriptIntrinsicBlur;
+import android.renderscript.Type;
+
+/**
+ * BlurEngine
+ * <p>
+ * Long-lived blur helper. RenderScript context and blur script are created lazily
+ * on first use and allocations are reused while bitmap dimensions stay the same.
+ * Radius is clamped to RenderScript limit.
+ * Falls back to {@link StackBlur} when RenderScript is not available.
+ * Allocations are dropped when the system asks the process to trim memory.
+ */
+public class BlurEngine implements ComponentCallbacks2 {
+    private static final float MAX_RS_RADIUS = 25f;
+
+    private static BlurEngine sInstance;
+
+    private final Context mContext;
+    private RenderScript mRs;
+    private ScriptIntrinsicBlur mScript;
+    private Allocation mInput;
+    private Allocation mOutput;
+    private int mAllocWidth;
+    private int mAllocHeight;
+    private boolean mRsUnavailable;
+
+    public static synchronized BlurEngine getInstance(Context context) {
+        if (sInstance == null) {
+            Context appContext = context.getApplicationContext();
+            sInstance = new BlurEngine(appContext != null ? appContext : context);
+            sInstance.mContext.registerComponentCallbacks(sInstance);
+        }
+        return sInstance;
+    }
+
+    private BlurEngine(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Returns blurred copy of bmp.
+     */
+    public synchronized Bitmap blur(Bitmap bmp, float radius) {
+        radius = Math.min(Math.max(radius, 0), MAX_RS_RADIUS);
+
+        Bitmap src = bmp;
+        if (src.getConfig() != Bitmap.Config.ARGB_8888) {
+            src = src.copy(Bitmap.Config.ARGB_8888, false);
+        }
+
+        Bitmap out = Bitmap.createBitmap(src.getWidth(), src.getHeight(), Bitmap.Config.ARGB_8888);
+        if (!blurRenderScript(src, out, radius)) {
+            blurJava(src, out, radius);
+        }
+        if (src != bmp) {
+            src.recycle();
+        }
+        return out;
+    }
+
+    private boolean blurRenderScript(Bitmap src, Bitmap out, float radius) {
+        if (mRsUnavailable) return false;
+        if (mRs == null) {
+            try {
+                mRs = RenderScript.create(mContext);
+                mScript = ScriptIntrinsicBlur.create(mRs, Element.U8_4(mRs));
+            } catch (RSRuntimeException | LinkageError e) {
+                // e.g. missing RenderScript support on device
+                mRsUnavailable = true;
+                release();
+                return false;
+            }
+        }
+        try {
+            if (mInput == null || mAllocWidth != src.getWidth() || mAllocHeight != src.getHeight()) {
+                destroyAllocations();
+                Type type = Type.createXY(mRs, Element.U8_4(mRs), src.getWidth(), src.getHeight());
+                mInput = Allocation.createTyped(mRs, type, Allocation.USAGE_SCRIPT);
+                mOutput = Allocation.createTyped(mRs, type, Allocation.USAGE_SCRIPT);
+                mAllocWidth = src.getWidth();
+                mAllocHeight = src.getHeight();
+            }
+            mInput.copyFrom(src);
+            mScript.setInput(mInput);
+            mScript.setRadius(Math.min(Math.max(radius, 0.1f), MAX_RS_RADIUS));
+            mScript.forEach(mOutput);
+            mOutput.copyTo(out);
+            return true;
+        } catch (Throwable t) {
+            // transient failure (e.g. out of memory); fall back for this call only
+            release();
+            return false;
+        }
+    }
+
+    private static void blurJava(Bitmap src, Bitmap out, float radius) {
+        final int w = src.getWidth();
+        final int h = src.getHeight();
+        int[] pixels = new int[w * h];
+        src.getPixels(pixels, 0, w, 0, 0, w, h);
+        StackBlur.blur(pixels, w, h, Math.round(radius));
+        out.setPixels(pixels, 0, w, 0, 0, w, h);
+    }
+
+    private void destroyAllocations() {
+        if (mInput != null) {
+            mInput.destroy();
+            mInput = null;
+        }
+        if (mOutput != null) {
+            mOutput.destroy();
+            mOutput = null;
+        }
+        mAllocWidth = mAllocHeight = 0;
+    }
+
+    @Override
+    public synchronized void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_UI_HIDDEN) {
+            destroyAllocations();
+        }
+        if (level >= TRIM_MEMORY_MODERATE) {
+            release();
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        release();
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) { }
+
+    /**
+     * Releases RenderScript context and allocations; they are recreated on next use.
+     */
+    public synchronized void release() {
+        try {
+            destroyAllocations();
+            if (mScript != null) {
+                mScript.destroy();
+                mScript = null;
+            }
+            if (mRs != null) {
+                mRs.destroy();
+                mRs = null;
+            }
+        } catch (Throwable t) {
+            mInput = mOutput = null;
+            mScript = null;
+            mRs = null;
+        }
+    }
+}
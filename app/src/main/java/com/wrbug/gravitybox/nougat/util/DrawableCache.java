@@ -0,0 +1,83 @@
+package com.wrbug.gravitybox.nougat.util;
+
+import android.content.ComponentCallbacks2;
+import android.content.res.Configuration;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.util.LruCache;
+
+/**
+ * DrawableCache
+ * <p>
+ * Bounded LRU cache of drawables accounted by estimated byte size: bitmap size
+ * for bitmap drawables, intrinsic ARGB size for others.
+ * Register it via Context.registerComponentCallbacks() to release memory on trim.
+ */
+public class DrawableCache<T extends Drawable> implements ComponentCallbacks2 {
+    private final LruCache<String, T> mCache;
+
+    public DrawableCache(int maxBytes) {
+        mCache = new LruCache<String, T>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, T d) {
+                return estimateSize(d);
+            }
+        };
+    }
+
+    private static int estimateSize(Drawable d) {
+        if (d instanceof BitmapDrawable && ((BitmapDrawable) d).getBitmap() != null) {
+            return ((BitmapDrawable) d).getBitmap().getByteCount();
+        }
+        return Math.max(1, d.getIntrinsicWidth() * d.getIntrinsicHeight() * 4);
+    }
+
+    public T get(String key) {
+        return mCache.get(key);
+    }
+
+    public void put(String key, T d) {
+        mCache.put(key, d);
+    }
+
+    public void evictAll() {
+        mCache.evictAll();
+    }
+
+    public int sizeBytes() {
+        return mCache.size();
+    }
+
+    public int hitCount() {
+        return mCache.hitCount();
+    }
+
+    public int missCount() {
+        return mCache.missCount();
+    }
+
+    public int evictionCount() {
+        return mCache.evictionCount();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        BitmapPool.trimCache(mCache, level);
+    }
+
+    @Override
+    public void onLowMemory() {
+        mCache.evictAll();
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    @Override
+    public String toString() {
+        return "DrawableCache{bytes=" + mCache.size() + "/" + mCache.maxSize() +
+                "; hits=" + mCache.hitCount() + "; misses=" + mCache.missCount() +
+                "; evictions=" + mCache.evictionCount() + "}";
+    }
+}
@@ -1,18 +1,14 @@
 package com.wrbug.gravitybox.nougat.util;
 
+import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
-import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.PixelFormat;
 import android.graphics.drawable.Drawable;
 import android.util.ArrayMap;
 import android.util.LruCache;
-import android.util.SparseArray;
-
-import java.lang.ref.SoftReference;
-import java.util.Map;
 
 /**
  * GraphicUtils
@@ -21,39 +17,49 @@ import java.util.Map;
  * @since 2017/7/31
  */
 public class GraphicUtils {
-    private static SparseArray<SoftReference<Bitmap>> cache = new SparseArray<>();
+    // enough tinted thumbnails for a scrolled through recents list
+    private static final int TINT_CACHE_ENTRIES = 24;
+    private static final int TINT_CACHE_MAX_BYTES = (int) (Runtime.getRuntime().maxMemory() / 8);
+    private static final BitmapPool sBitmapPool = new BitmapPool(
+            Math.min(TINT_CACHE_MAX_BYTES, 8 * 1024 * 1024));
+    private static boolean sTrimCallbacksRegistered;
+    private static final Canvas sTintCanvas = new Canvas();
+    private static int sTintOverlay;
 
-    public static Bitmap getBackGroundBitmap(int color, int width, int height) {
-        int key = color & width + (width * height) & color;
-        if (cache.get(key) != null) {
-            Bitmap bitmap = cache.get(key).get();
-            if (bitmap != null && !bitmap.isRecycled()) {
-                return bitmap;
-            }
-        }
-        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-        Canvas canvas = new Canvas(bitmap);
-        canvas.drawColor(color);
-        cache.put(key, new SoftReference<>(bitmap));
-        return bitmap;
+    public static synchronized void registerTrimCallbacks(Context context) {
+        if (sTrimCallbacksRegistered) return;
+        context.getApplicationContext().registerComponentCallbacks(sBitmapPool);
+        sTrimCallbacksRegistered = true;
     }
 
-    public static Bitmap getAlplaBitmap(Bitmap sourceImg, int alpha) {
-        int[] argb = new int[sourceImg.getWidth() * sourceImg.getHeight()];
-        sourceImg.getPixels(argb, 0, sourceImg.getWidth(), 0, 0, sourceImg.getWidth(), sourceImg.getHeight());
-        alpha = alpha * 255 / 100;
-        for (int i = 0; i < argb.length; i++) {
-            argb[i] = (alpha << 24) | (argb[i] & 0x00FFFFFF);
+    /**
+     * Returns copy of source with color overlaid at given alpha percentage, drawn in a single pass.
+     * Same source and tint return the previously created copy while it stays in the bitmap pool.
+     */
+    public static synchronized Bitmap getTintedBitmap(Bitmap source, int color, int alphaPercent) {
+        final int overlay = ((alphaPercent * 255 / 100) << 24) | (color & 0x00FFFFFF);
+        if (overlay != sTintOverlay) {
+            sBitmapPool.evictAll();
+            sTintOverlay = overlay;
         }
-        sourceImg = Bitmap.createBitmap(argb, sourceImg.getWidth(), sourceImg.getHeight(), Bitmap.Config.ARGB_8888);
-        return sourceImg;
-    }
+        final Bitmap.Config config = source.getConfig() != null ?
+                source.getConfig() : Bitmap.Config.ARGB_8888;
+        final BitmapPool.Key key = new BitmapPool.Key(source, overlay,
+                source.getWidth(), source.getHeight(), config);
+        Bitmap bitmap = sBitmapPool.get(key);
+        if (bitmap != null) {
+            return bitmap;
+        }
+        // size pool by actual thumbnail size so that whole task list fits
+        sBitmapPool.ensureCapacity((int) Math.min(TINT_CACHE_MAX_BYTES,
+                (long) source.getByteCount() * TINT_CACHE_ENTRIES));
 
-    public static Bitmap mergeBitmap(Bitmap firstBitmap, Bitmap secondBitmap) {
-        Bitmap bitmap = Bitmap.createBitmap(firstBitmap.getWidth(), firstBitmap.getHeight(), firstBitmap.getConfig());
-        Canvas canvas = new Canvas(bitmap);
-        canvas.drawBitmap(firstBitmap, new Matrix(), null);
-        canvas.drawBitmap(secondBitmap, 0, 0, null);
+        bitmap = Bitmap.createBitmap(source.getWidth(), source.getHeight(), config);
+        sTintCanvas.setBitmap(bitmap);
+        sTintCanvas.drawBitmap(source, 0, 0, null);
+        sTintCanvas.drawColor(overlay);
+        sTintCanvas.setBitmap(null);
+        sBitmapPool.put(key, bitmap);
         return bitmap;
     }
 
@@ -0,0 +1,137 @@
+package com.wrbug.gravitybox.nougat.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * KeywordMatcher
+ * <p>
+ * Case-insensitive multi-keyword matcher (Aho-Corasick). Keywords are compiled once,
+ * each text is then scanned in a single pass without creating lowercase copies.
+ */
+public class KeywordMatcher {
+    private static final int ROOT = 0;
+
+    // per state: sorted transition labels and their target states
+    private final char[][] mLabels;
+    private final int[][] mTargets;
+    private final int[] mFail;
+    private final boolean[] mTerminal;
+
+    public static KeywordMatcher compile(String[] keywords) {
+        return new KeywordMatcher(keywords);
+    }
+
+    private KeywordMatcher(String[] keywords) {
+        // build trie
+        List<StringBuilder> labels = new ArrayList<>();
+        List<List<Integer>> targets = new ArrayList<>();
+        List<Boolean> terminal = new ArrayList<>();
+        labels.add(new StringBuilder());
+        targets.add(new ArrayList<Integer>());
+        terminal.add(false);
+        for (String kw : keywords) {
+            int state = ROOT;
+            for (int i = 0; i < kw.length(); i++) {
+                final char c = Character.toLowerCase(kw.charAt(i));
+                final int idx = labels.get(state).indexOf(String.valueOf(c));
+                if (idx >= 0) {
+                    state = targets.get(state).get(idx);
+                } else {
+                    final int next = labels.size();
+                    labels.add(new StringBuilder());
+                    targets.add(new ArrayList<Integer>());
+                    terminal.add(false);
+                    labels.get(state).append(c);
+                    targets.get(state).add(next);
+                    state = next;
+                }
+            }
+            terminal.set(state, true);
+        }
+
+        // compile into sorted primitive arrays
+        final int count = labels.size();
+        mLabels = new char[count][];
+        mTargets = new int[count][];
+        mFail = new int[count];
+        mTerminal = new boolean[count];
+        for (int s = 0; s < count; s++) {
+            final char[] l = labels.get(s).toString().toCharArray();
+            final int[] t = new int[l.length];
+            for (int i = 0; i < l.length; i++) {
+                t[i] = targets.get(s).get(i);
+            }
+            sortByLabel(l, t);
+            mLabels[s] = l;
+            mTargets[s] = t;
+            mTerminal[s] = terminal.get(s);
+        }
+
+        // failure links, breadth first
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int t : mTargets[ROOT]) {
+            mFail[t] = ROOT;
+            queue.add(t);
+        }
+        while (!queue.isEmpty()) {
+            final int s = queue.poll();
+            for (int i = 0; i < mLabels[s].length; i++) {
+                final int t = mTargets[s][i];
+                int f = mFail[s];
+                int next;
+                while ((next = transition(f, mLabels[s][i])) < 0 && f != ROOT) {
+                    f = mFail[f];
+                }
+                mFail[t] = (next < 0 || next == t) ? ROOT : next;
+                mTerminal[t] |= mTerminal[mFail[t]];
+                queue.add(t);
+            }
+        }
+    }
+
+    private static void sortByLabel(char[] labels, int[] targets) {
+        for (int i = 1; i < labels.length; i++) {
+            final char c = labels[i];
+            final int t = targets[i];
+            int j = i - 1;
+            while (j >= 0 && labels[j] > c) {
+                labels[j + 1] = labels[j];
+                targets[j + 1] = targets[j];
+                j--;
+            }
+            labels[j + 1] = c;
+            targets[j + 1] = t;
+        }
+    }
+
+    private int transition(int state, char c) {
+        final int idx = Arrays.binarySearch(mLabels[state], c);
+        return (idx < 0 ? -1 : mTargets[state][idx]);
+    }
+
+    /**
+     * Returns true if text contains any of the keywords, ignoring case.
+     */
+    public boolean matches(CharSequence text) {
+        if (text == null) return false;
+        if (mTerminal[ROOT]) return true;
+
+        int state = ROOT;
+        final int length = text.length();
+        for (int i = 0; i < length; i++) {
+            final char c = Character.toLowerCase(text.charAt(i));
+            int next;
+            while ((next = transition(state, c)) < 0 && state != ROOT) {
+                state = mFail[state];
+            }
+            state = (next < 0 ? ROOT : next);
+            if (mTerminal[state]) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
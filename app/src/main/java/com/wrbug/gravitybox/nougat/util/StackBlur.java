@@ -0,0 +1,219 @@
+package com.wrbug.gravitybox.nougat.util;
+
+/**
+ * StackBlur
+ * <p>
+ * Pure Java stack blur (after Mario Klingemann) over ARGB pixels in place.
+ * Used when RenderScript is not available; has no Android dependencies.
+ */
+public class StackBlur {
+
+    public static void blur(int[] pix, int w, int h, int radius) {
+        if (radius < 1 || w < 1 || h < 1) return;
+
+        final int wm = w - 1;
+        final int hm = h - 1;
+        final int wh = w * h;
+        final int div = radius + radius + 1;
+        final int r1 = radius + 1;
+
+        final int[] a = new int[wh];
+        final int[] r = new int[wh];
+        final int[] g = new int[wh];
+        final int[] b = new int[wh];
+        final int[] vmin = new int[Math.max(w, h)];
+
+        int divsum = (div + 1) >> 1;
+        divsum *= divsum;
+        final int[] dv = new int[256 * divsum];
+        for (int i = 0; i < dv.length; i++) {
+            dv[i] = i / divsum;
+        }
+
+        final int[][] stack = new int[div][4];
+        int[] sir;
+        int stackpointer;
+        int stackstart;
+        int rbs;
+        int p;
+        int yi = 0;
+        int yw = 0;
+
+        // horizontal pass
+        for (int y = 0; y < h; y++) {
+            int asum = 0, rsum = 0, gsum = 0, bsum = 0;
+            int ainsum = 0, rinsum = 0, ginsum = 0, binsum = 0;
+            int aoutsum = 0, routsum = 0, goutsum = 0, boutsum = 0;
+            for (int i = -radius; i <= radius; i++) {
+                p = pix[yi + Math.min(wm, Math.max(i, 0))];
+                sir = stack[i + radius];
+                sir[0] = p >>> 24;
+                sir[1] = (p >> 16) & 0xff;
+                sir[2] = (p >> 8) & 0xff;
+                sir[3] = p & 0xff;
+                rbs = r1 - Math.abs(i);
+                asum += sir[0] * rbs;
+                rsum += sir[1] * rbs;
+                gsum += sir[2] * rbs;
+                bsum += sir[3] * rbs;
+                if (i > 0) {
+                    ainsum += sir[0];
+                    rinsum += sir[1];
+                    ginsum += sir[2];
+                    binsum += sir[3];
+                } else {
+                    aoutsum += sir[0];
+                    routsum += sir[1];
+                    goutsum += sir[2];
+                    boutsum += sir[3];
+                }
+            }
+            stackpointer = radius;
+
+            for (int x = 0; x < w; x++) {
+                a[yi] = dv[asum];
+                r[yi] = dv[rsum];
+                g[yi] = dv[gsum];
+                b[yi] = dv[bsum];
+
+                asum -= aoutsum;
+                rsum -= routsum;
+                gsum -= goutsum;
+                bsum -= boutsum;
+
+                stackstart = stackpointer - radius + div;
+                sir = stack[stackstart % div];
+
+                aoutsum -= sir[0];
+                routsum -= sir[1];
+                goutsum -= sir[2];
+                boutsum -= sir[3];
+
+                if (y == 0) {
+                    vmin[x] = Math.min(x + r1, wm);
+                }
+                p = pix[yw + vmin[x]];
+
+                sir[0] = p >>> 24;
+                sir[1] = (p >> 16) & 0xff;
+                sir[2] = (p >> 8) & 0xff;
+                sir[3] = p & 0xff;
+
+                ainsum += sir[0];
+                rinsum += sir[1];
+                ginsum += sir[2];
+                binsum += sir[3];
+
+                asum += ainsum;
+                rsum += rinsum;
+                gsum += ginsum;
+                bsum += binsum;
+
+                stackpointer = (stackpointer + 1) % div;
+                sir = stack[stackpointer];
+
+                aoutsum += sir[0];
+                routsum += sir[1];
+                goutsum += sir[2];
+                boutsum += sir[3];
+
+                ainsum -= sir[0];
+                rinsum -= sir[1];
+                ginsum -= sir[2];
+                binsum -= sir[3];
+
+                yi++;
+            }
+            yw += w;
+        }
+
+        // vertical pass
+        for (int x = 0; x < w; x++) {
+            int asum = 0, rsum = 0, gsum = 0, bsum = 0;
+            int ainsum = 0, rinsum = 0, ginsum = 0, binsum = 0;
+            int aoutsum = 0, routsum = 0, goutsum = 0, boutsum = 0;
+            int yp = -radius * w;
+            for (int i = -radius; i <= radius; i++) {
+                yi = Math.max(0, yp) + x;
+                sir = stack[i + radius];
+                sir[0] = a[yi];
+                sir[1] = r[yi];
+                sir[2] = g[yi];
+                sir[3] = b[yi];
+                rbs = r1 - Math.abs(i);
+                asum += a[yi] * rbs;
+                rsum += r[yi] * rbs;
+                gsum += g[yi] * rbs;
+                bsum += b[yi] * rbs;
+                if (i > 0) {
+                    ainsum += sir[0];
+                    rinsum += sir[1];
+                    ginsum += sir[2];
+                    binsum += sir[3];
+                } else {
+                    aoutsum += sir[0];
+                    routsum += sir[1];
+                    goutsum += sir[2];
+                    boutsum += sir[3];
+                }
+                if (i < hm) {
+                    yp += w;
+                }
+            }
+            yi = x;
+            stackpointer = radius;
+
+            for (int y = 0; y < h; y++) {
+                pix[yi] = (dv[asum] << 24) | (dv[rsum] << 16) | (dv[gsum] << 8) | dv[bsum];
+
+                asum -= aoutsum;
+                rsum -= routsum;
+                gsum -= goutsum;
+                bsum -= boutsum;
+
+                stackstart = stackpointer - radius + div;
+                sir = stack[stackstart % div];
+
+                aoutsum -= sir[0];
+                routsum -= sir[1];
+                goutsum -= sir[2];
+                boutsum -= sir[3];
+
+                if (x == 0) {
+                    vmin[y] = Math.min(y + r1, hm) * w;
+                }
+                p = x + vmin[y];
+
+                sir[0] = a[p];
+                sir[1] = r[p];
+                sir[2] = g[p];
+                sir[3] = b[p];
+
+                ainsum += sir[0];
+                rinsum += sir[1];
+                ginsum += sir[2];
+                binsum += sir[3];
+
+                asum += ainsum;
+                rsum += rinsum;
+                gsum += ginsum;
+                bsum += binsum;
+
+                stackpointer = (stackpointer + 1) % div;
+                sir = stack[stackpointer];
+
+                aoutsum += sir[0];
+                routsum += sir[1];
+                goutsum += sir[2];
+                boutsum += sir[3];
+
+                ainsum -= sir[0];
+                rinsum -= sir[1];
+                ginsum -= sir[2];
+                binsum -= sir[3];
+
+                yi += w;
+            }
+        }
+    }
+}